@@ -28,9 +28,6 @@
 package com.signalone;
 
 import android.app.Activity;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
 
 class ActivityLifecycleHandler {
 
@@ -42,7 +39,7 @@ class ActivityLifecycleHandler {
 
    static Activity curActivity;
    private static ActivityAvailableListener mActivityAvailableListener;
-   static FocusHandlerThread focusHandlerThread = new FocusHandlerThread();
+   static FocusHandler focusHandler = new FocusHandler();
 
    // Note: Only supports one callback, create a list when this needs to be used by more than the permissions dialog.
    static void setActivityAvailableListener(ActivityAvailableListener activityAvailableListener) {
@@ -110,40 +107,30 @@ class ActivityLifecycleHandler {
    }
 
    static private void handleLostFocus() {
-      focusHandlerThread.runRunnable(new AppFocusRunnable());
+      focusHandler.runRunnable(new AppFocusRunnable());
    }
 
    static private void handleFocus() {
-      if (focusHandlerThread.hasBackgrounded() || nextResumeIsFirstActivity) {
+      if (focusHandler.hasBackgrounded() || nextResumeIsFirstActivity) {
          nextResumeIsFirstActivity = false;
-         focusHandlerThread.resetBackgroundState();
+         focusHandler.resetBackgroundState();
          SignalOne.onAppFocus();
       }
       else
-         focusHandlerThread.stopScheduledRunnable();
+         focusHandler.stopScheduledRunnable();
    }
 
-   static class FocusHandlerThread extends HandlerThread {
-      Handler mHandler = null;
+   static class FocusHandler {
+      private final OSScheduler.SingleTask task = new OSScheduler.SingleTask("OS_FocusHandler", false);
       private AppFocusRunnable appFocusRunnable;
 
-      FocusHandlerThread() {
-         super("FocusHandlerThread");
-         start();
-         mHandler = new Handler(getLooper());
-      }
-
-      Looper getHandlerLooper() {
-         return  mHandler.getLooper();
-      }
-
       void resetBackgroundState() {
          if (appFocusRunnable != null)
             appFocusRunnable.backgrounded = false;
       }
 
       void stopScheduledRunnable() {
-         mHandler.removeCallbacksAndMessages(null);
+         task.cancel();
       }
 
       void runRunnable(AppFocusRunnable runnable) {
@@ -151,8 +138,7 @@ class ActivityLifecycleHandler {
             return;
 
          appFocusRunnable = runnable;
-         mHandler.removeCallbacksAndMessages(null);
-         mHandler.postDelayed(runnable, 2000);
+         task.schedule(runnable, 2000);
       }
 
       boolean hasBackgrounded() {
@@ -161,7 +147,8 @@ class ActivityLifecycleHandler {
    }
 
    static private class AppFocusRunnable implements Runnable {
-      private boolean backgrounded, completed;
+      // Set on a scheduler thread, read from the main thread
+      private volatile boolean backgrounded, completed;
 
       public void run() {
          if (curActivity != null)
@@ -169,6 +156,8 @@ class ActivityLifecycleHandler {
 
          backgrounded = true;
          SignalOne.onAppLostFocus();
+         // The process may be killed at any point once in the background
+         SignalOnePrefs.flushNow();
          completed = true;
       }
    }
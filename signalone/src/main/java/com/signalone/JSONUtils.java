@@ -1,10 +1,14 @@
 package com.signalone;
 
+import android.util.JsonReader;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 
@@ -13,12 +17,19 @@ class JSONUtils {
     // If baseOutput is added changes will be applied to this JSONObject.
     // includeFields will always be added to the returned JSONObject if they are in cur.
     static JSONObject generateJsonDiff(JSONObject cur, JSONObject changedTo, JSONObject baseOutput, Set<String> includeFields) {
+        if (changedTo == null)
+            return cur == null ? null : baseOutput;
+
+        return generateJsonDiff(cur, changedTo, baseOutput, includeFields, changedTo.keys());
+    }
+
+    // Same as above but only compares the given keys, keys not in changedTo are skipped
+    static JSONObject generateJsonDiff(JSONObject cur, JSONObject changedTo, JSONObject baseOutput, Set<String> includeFields, Iterator<String> keys) {
         if (cur == null)
             return null;
         if (changedTo == null)
             return baseOutput;
 
-        Iterator<String> keys = changedTo.keys();
         String key;
         Object value;
 
@@ -31,6 +42,8 @@ class JSONUtils {
         while (keys.hasNext()) {
             try {
                 key = keys.next();
+                if (!changedTo.has(key))
+                    continue;
                 value = changedTo.get(key);
 
                 if (cur.has(key)) {
@@ -40,9 +53,8 @@ class JSONUtils {
                         if (baseOutput != null && baseOutput.has(key))
                             outValue = baseOutput.getJSONObject(key);
                         JSONObject returnedJson = generateJsonDiff(curValue, (JSONObject) value, outValue, includeFields);
-                        String returnedJsonStr = returnedJson.toString();
-                        if (!returnedJsonStr.equals("{}"))
-                            output.put(key, new JSONObject(returnedJsonStr));
+                        if (returnedJson.length() > 0)
+                            output.put(key, deepCopy(returnedJson));
                     }
                     else if (value instanceof JSONArray)
                         handleJsonArray(key, (JSONArray) value, cur.getJSONArray(key), output);
@@ -63,7 +75,7 @@ class JSONUtils {
                 }
                 else {
                     if (value instanceof JSONObject)
-                        output.put(key, new JSONObject(value.toString()));
+                        output.put(key, deepCopy((JSONObject)value));
                     else if (value instanceof JSONArray)
                         handleJsonArray(key, (JSONArray) value, null, output);
                     else
@@ -83,41 +95,34 @@ class JSONUtils {
             return;
         }
 
-        String arrayStr = toStringNE(newArray);
+        // Exact matches in linear time, each value is reported once in its original order
+        LinkedHashSet<String> newValues = toStringSet(newArray);
+        LinkedHashSet<String> curValues = curArray == null ? new LinkedHashSet<String>() : toStringSet(curArray);
 
         JSONArray newOutArray = new JSONArray();
-        JSONArray remOutArray = new JSONArray();
-        String curArrayStr = curArray == null ? null : toStringNE(curArray);
-
-        for (int i = 0; i < newArray.length(); i++) {
-            String arrayValue = (String)newArray.get(i);
-            if (curArray == null || !curArrayStr.contains(arrayValue))
+        for (String arrayValue : newValues) {
+            if (!curValues.contains(arrayValue))
                 newOutArray.put(arrayValue);
         }
 
-        if (curArray != null) {
-            for (int i = 0; i < curArray.length(); i++) {
-                String arrayValue = curArray.getString(i);
-                if (!arrayStr.contains(arrayValue))
-                    remOutArray.put(arrayValue);
-            }
+        JSONArray remOutArray = new JSONArray();
+        for (String arrayValue : curValues) {
+            if (!newValues.contains(arrayValue))
+                remOutArray.put(arrayValue);
         }
 
-        if (!newOutArray.toString().equals("[]"))
+        if (newOutArray.length() > 0)
             output.put(key + "_a", newOutArray);
-        if (!remOutArray.toString().equals("[]"))
+        if (remOutArray.length() > 0)
             output.put(key + "_d", remOutArray);
     }
 
-    static String toStringNE(JSONArray jsonArray) {
-        String strArray = "[";
-
-        try {
-            for (int i = 0; i < jsonArray.length(); i++)
-                strArray += "\"" + jsonArray.getString(i) + "\"";
-        } catch (Throwable t) {}
-
-        return strArray + "]";
+    // String.valueOf is what Android's getString returns, other org.json versions throw on anything but a String
+    private static LinkedHashSet<String> toStringSet(JSONArray jsonArray) {
+        LinkedHashSet<String> values = new LinkedHashSet<>(jsonArray.length() * 2);
+        for (int i = 0; i < jsonArray.length(); i++)
+            values.add(String.valueOf(jsonArray.opt(i)));
+        return values;
     }
 
     static JSONObject getJSONObjectWithoutBlankValues(JSONObject jsonObject, String getKey) {
@@ -144,4 +149,79 @@ class JSONUtils {
         return toReturn;
     }
 
+    // Copies every nested JSONObject and JSONArray, other values are immutable and are shared.
+    //   Keeps each value's type, unlike a round trip through toString().
+    static JSONObject deepCopy(JSONObject jsonObject) throws JSONException {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            copy.put(key, deepCopyValue(jsonObject.opt(key)));
+        }
+        return copy;
+    }
+
+    private static Object deepCopyValue(Object value) throws JSONException {
+        if (value instanceof JSONObject)
+            return deepCopy((JSONObject)value);
+
+        if (value instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray)value;
+            JSONArray copy = new JSONArray();
+            for (int i = 0; i < jsonArray.length(); i++)
+                copy.put(deepCopyValue(jsonArray.opt(i)));
+            return copy;
+        }
+
+        return value;
+    }
+
+    // Reads the next value of a JsonReader into the same types org.json would produce when parsing a String
+    static Object readJSONValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readJSONObject(reader);
+            case BEGIN_ARRAY:
+                return readJSONArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                return readNumber(reader.nextString());
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    static JSONObject readJSONObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject jsonObject = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext())
+            jsonObject.put(reader.nextName(), readJSONValue(reader));
+        reader.endObject();
+        return jsonObject;
+    }
+
+    static JSONArray readJSONArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray jsonArray = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext())
+            jsonArray.put(readJSONValue(reader));
+        reader.endArray();
+        return jsonArray;
+    }
+
+    private static Number readNumber(String number) {
+        try {
+            long longValue = Long.parseLong(number);
+            if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE)
+                return (int)longValue;
+            return longValue;
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(number);
+        }
+    }
+
 }
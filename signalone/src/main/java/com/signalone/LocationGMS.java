@@ -49,6 +49,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 
 class LocationGMS {
    
@@ -85,7 +86,7 @@ class LocationGMS {
 
    private static ConcurrentHashMap<CALLBACK_TYPE, LocationHandler> locationHandlers = new ConcurrentHashMap<>();
 
-   private static Thread fallbackFailThread;
+   private static ScheduledFuture<?> fallbackFailFuture;
 
    private static boolean locationCoarse;
    
@@ -174,7 +175,7 @@ class LocationGMS {
    // Started from this class or PermissionActivity
    static void startGetLocation() {
       // Prevents overlapping requests
-      if (fallbackFailThread != null)
+      if (fallbackFailFuture != null)
          return;
 
       try {
@@ -209,20 +210,15 @@ class LocationGMS {
       return 30_000;
    }
 
+   // Cancelled when a connection is made to the api. On the network pool as the handlers it completes may sync the player.
    private static void startFallBackThread() {
-      fallbackFailThread = new Thread(new Runnable() {
+      fallbackFailFuture = OSScheduler.scheduleNetwork("OS_GMS_LOCATION_FALLBACK", new Runnable() {
          public void run() {
-            try {
-               Thread.sleep(getApiFallbackWait());
-               SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "Location permission exists but GoogleApiClient timed out. Maybe related to mismatch google-play aar versions.");
-               fireFailedComplete();
-               scheduleUpdate(classContext);
-            } catch (InterruptedException e) {
-               // Interruptions expected when connection is made to the api
-            }
+            SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "Location permission exists but GoogleApiClient timed out. Maybe related to mismatch google-play aar versions.");
+            fireFailedComplete();
+            scheduleUpdate(classContext);
          }
-      }, "OS_GMS_LOCATION_FALLBACK");
-      fallbackFailThread.start();
+      }, getApiFallbackWait());
    }
 
    static void fireFailedComplete() {
@@ -240,24 +236,25 @@ class LocationGMS {
    private static void fireComplete(LocationPoint point) {
       // create local copies of fields in thread-safe way
       HashMap<CALLBACK_TYPE, LocationHandler> _locationHandlers = new HashMap<>();
-      Thread _fallbackFailThread;
+      ScheduledFuture<?> _fallbackFailFuture;
       synchronized (LocationGMS.class) {
          _locationHandlers.putAll(LocationGMS.locationHandlers);
          LocationGMS.locationHandlers.clear();
-         _fallbackFailThread = LocationGMS.fallbackFailThread;
+         _fallbackFailFuture = LocationGMS.fallbackFailFuture;
       }
 
       // execute race-independent logic
       for(CALLBACK_TYPE type : _locationHandlers.keySet())
          _locationHandlers.get(type).complete(point);
-      if (_fallbackFailThread != null && !Thread.currentThread().equals(_fallbackFailThread))
-          _fallbackFailThread.interrupt();
+      // Does nothing if this is the fallback running
+      if (_fallbackFailFuture != null)
+          OSScheduler.cancel(_fallbackFailFuture);
 
-      // clear fallbackFailThread in thread-safe way
-      if (_fallbackFailThread == LocationGMS.fallbackFailThread) {
+      // clear fallbackFailFuture in thread-safe way
+      if (_fallbackFailFuture == LocationGMS.fallbackFailFuture) {
          synchronized (LocationGMS.class) {
-            if (_fallbackFailThread == LocationGMS.fallbackFailThread)
-               LocationGMS.fallbackFailThread = null;
+            if (_fallbackFailFuture == LocationGMS.fallbackFailFuture)
+               LocationGMS.fallbackFailFuture = null;
          }
       }
       // Save last time so even if a failure we trigger the same schedule update
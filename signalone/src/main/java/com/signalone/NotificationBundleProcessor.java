@@ -448,12 +448,12 @@ class NotificationBundleProcessor {
       if (!shouldDisplay(alert)) {
          saveNotification(context, bundle, true, -1);
          // Current thread is meant to be short lived.
-         //    Make a new thread to do our OneSignal work on.
-         new Thread(new Runnable() {
+         //    Do our OneSignal work, which calls the app's handlers, on the network pool.
+         OSScheduler.executeNetwork("OS_PROC_BUNDLE", new Runnable() {
             public void run() {
                SignalOne.handleNotificationReceived(bundleAsJsonArray(bundle), false, false);
             }
-         }, "OS_PROC_BUNDLE").start();
+         });
       }
       
       return result;
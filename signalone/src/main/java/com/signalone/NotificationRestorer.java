@@ -38,7 +38,6 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.Build;
-import android.os.Process;
 import android.service.notification.StatusBarNotification;
 import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
@@ -100,14 +99,14 @@ class NotificationRestorer {
    //   so we only need to restore at most once per cold start of the app.
    public static boolean restored;
 
+   // On the network pool as it waits between notifications
    static void asyncRestore(final Context context) {
-      new Thread(new Runnable() {
+      OSScheduler.executeNetwork("OS_RESTORE_NOTIFS", new Runnable() {
          @Override
          public void run() {
-            Thread.currentThread().setPriority(Process.THREAD_PRIORITY_BACKGROUND);
             restore(context);
          }
-      }, "OS_RESTORE_NOTIFS").start();
+      });
    }
 
    @WorkerThread
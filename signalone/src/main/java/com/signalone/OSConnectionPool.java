@@ -0,0 +1,210 @@
+package com.signalone;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+// Keeps the SDK's HTTPS connections alive between requests for up to idleTimeoutMs, and measures reuse.
+//   HttpURLConnection pools connections itself, keyed among other things by their SSLSocketFactory.
+//   SDK connections get the factory from here, so only SDK requests reuse them and every TLS socket
+//   they open goes through it. A request that didn't open a socket while connecting reused one.
+// Once no request has run for idleTimeoutMs the sockets opened here are closed, and the platform pool
+//   drops them on the next request instead of keeping them for its own, longer default.
+//   All requests go to one host and at most NETWORK_POOL_SIZE run at once, so that many stay idle at most.
+class OSConnectionPool {
+
+   static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+
+   // Set when a socket is opened on the thread, sockets are opened on the thread making the request
+   private final ThreadLocal<boolean[]> openedSocket = new ThreadLocal<boolean[]>() {
+      @Override
+      protected boolean[] initialValue() {
+         return new boolean[1];
+      }
+   };
+
+   private final OSScheduler.SingleTask closeIdleTask = new OSScheduler.SingleTask("OS_HTTP_CLOSE_IDLE", false);
+   private final Runnable closeIdleRunnable = new Runnable() {
+      @Override
+      public void run() {
+         closeIdle();
+      }
+   };
+
+   private volatile long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+   // Guarded by this
+   private CountingSocketFactory socketFactory;
+   private final ArrayList<WeakReference<Socket>> sockets = new ArrayList<>();
+   private int activeRequests;
+   private int reusedCount, newCount;
+
+   // 0 closes each connection once its request completes
+   void setIdleTimeout(long timeoutMs) {
+      idleTimeoutMs = Math.max(0, timeoutMs);
+   }
+
+   boolean isKeepAlive() {
+      return idleTimeoutMs > 0;
+   }
+
+   // Call before connecting, every call must be followed by onRequestEnd
+   void onRequestStart(HttpURLConnection con) {
+      synchronized (this) {
+         activeRequests++;
+      }
+      closeIdleTask.cancel();
+      openedSocket.get()[0] = false;
+
+      if (!isKeepAlive())
+         con.setRequestProperty("Connection", "close");
+
+      // Left alone if the transport set its own factory, such as for certificate pinning
+      if (con instanceof HttpsURLConnection) {
+         HttpsURLConnection httpsCon = (HttpsURLConnection)con;
+         if (httpsCon.getSSLSocketFactory() == HttpsURLConnection.getDefaultSSLSocketFactory())
+            httpsCon.setSSLSocketFactory(getSocketFactory());
+      }
+   }
+
+   // Call once the response code is read, counts whether the request got a pooled connection.
+   //   Returns null if it isn't known, for plain HTTP or a transport's own socket factory.
+   Boolean onConnected(HttpURLConnection con) {
+      if (!(con instanceof HttpsURLConnection) || !(((HttpsURLConnection)con).getSSLSocketFactory() instanceof CountingSocketFactory))
+         return null;
+
+      boolean reused = !openedSocket.get()[0];
+      synchronized (this) {
+         if (reused)
+            reusedCount++;
+         else
+            newCount++;
+      }
+      return reused;
+   }
+
+   void onRequestEnd() {
+      synchronized (this) {
+         activeRequests--;
+         if (activeRequests > 0)
+            return;
+      }
+
+      long timeoutMs = idleTimeoutMs;
+      if (timeoutMs > 0)
+         closeIdleTask.schedule(closeIdleRunnable, timeoutMs);
+   }
+
+   synchronized int getReusedCount() {
+      return reusedCount;
+   }
+
+   synchronized int getNewCount() {
+      return newCount;
+   }
+
+   // Holds the lock while closing so no request can start on a socket being closed.
+   //   The sockets are idle, closing one only queues a close_notify and doesn't wait on the network.
+   private synchronized void closeIdle() {
+      if (activeRequests > 0 || sockets.isEmpty())
+         return;
+
+      int closed = 0;
+      for (WeakReference<Socket> reference : sockets) {
+         Socket socket = reference.get();
+         if (socket == null || socket.isClosed())
+            continue;
+
+         try {
+            socket.close();
+            closed++;
+         } catch (IOException e) {}
+      }
+      sockets.clear();
+
+      if (closed > 0)
+         SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OSConnectionPool: Closed " + closed + " connections idle for " + idleTimeoutMs + "ms");
+   }
+
+   private synchronized void onSocketOpened(Socket socket) {
+      openedSocket.get()[0] = true;
+
+      Iterator<WeakReference<Socket>> iterator = sockets.iterator();
+      while (iterator.hasNext()) {
+         Socket existing = iterator.next().get();
+         if (existing == null || existing.isClosed())
+            iterator.remove();
+      }
+      sockets.add(new WeakReference<>(socket));
+   }
+
+   // Wraps the current default so an app changing it later is still respected
+   private synchronized SSLSocketFactory getSocketFactory() {
+      SSLSocketFactory defaultFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+      if (socketFactory == null || socketFactory.delegate != defaultFactory)
+         socketFactory = new CountingSocketFactory(defaultFactory);
+      return socketFactory;
+   }
+
+   private class CountingSocketFactory extends SSLSocketFactory {
+      final SSLSocketFactory delegate;
+
+      CountingSocketFactory(SSLSocketFactory delegate) {
+         this.delegate = delegate;
+      }
+
+      private Socket opened(Socket socket) {
+         onSocketOpened(socket);
+         return socket;
+      }
+
+      @Override
+      public String[] getDefaultCipherSuites() {
+         return delegate.getDefaultCipherSuites();
+      }
+
+      @Override
+      public String[] getSupportedCipherSuites() {
+         return delegate.getSupportedCipherSuites();
+      }
+
+      @Override
+      public Socket createSocket() throws IOException {
+         return opened(delegate.createSocket());
+      }
+
+      @Override
+      public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+         return opened(delegate.createSocket(socket, host, port, autoClose));
+      }
+
+      @Override
+      public Socket createSocket(String host, int port) throws IOException {
+         return opened(delegate.createSocket(host, port));
+      }
+
+      @Override
+      public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+         return opened(delegate.createSocket(host, port, localHost, localPort));
+      }
+
+      @Override
+      public Socket createSocket(InetAddress host, int port) throws IOException {
+         return opened(delegate.createSocket(host, port));
+      }
+
+      @Override
+      public Socket createSocket(@NonNull InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+         return opened(delegate.createSocket(address, port, localAddress, localPort));
+      }
+   }
+}
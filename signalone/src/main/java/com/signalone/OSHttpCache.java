@@ -0,0 +1,345 @@
+package com.signalone;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// On disk cache for GET responses with an ETag, kept out of SharedPreferences so large bodies
+//   such as android_params.js are not rewritten with every prefs write.
+// Each entry is one file holding the ETag followed by the raw response body.
+//   Writes go to a temp file that is renamed over the entry so a reader never sees a partial file.
+//   Least recently used entries are removed once the total size is over MAX_SIZE_BYTES.
+class OSHttpCache {
+
+   static final long MAX_SIZE_BYTES = 512 * 1024;
+
+   private static final String DIR_NAME = "onesignal_http_cache";
+   private static final String TEMP_SUFFIX = ".tmp";
+   private static final int BUFFER_SIZE = 8 * 1024;
+
+   private static final String[] LEGACY_PREFS_CACHE_KEYS = {
+      OneSignalRestClient.CACHE_KEY_GET_TAGS,
+      OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS
+   };
+
+   private static final Object lock = new Object();
+
+   // File name to size, in least to most recently used order
+   private static LinkedHashMap<String, Long> entries;
+   private static File cacheDir;
+
+   @Nullable
+   static String getETag(String cacheKey) {
+      DataInputStream inputStream = open(cacheKey);
+      if (inputStream == null)
+         return null;
+
+      try {
+         return inputStream.readUTF();
+      } catch (IOException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSHttpCache: Could not read cache entry for " + cacheKey, e);
+         remove(cacheKey);
+         return null;
+      } finally {
+         close(inputStream);
+      }
+   }
+
+   // Stream positioned at the start of the cached body, caller must close it
+   @Nullable
+   static InputStream openBody(String cacheKey) {
+      DataInputStream inputStream = open(cacheKey);
+      if (inputStream == null)
+         return null;
+
+      try {
+         inputStream.readUTF();
+         touch(cacheKey);
+         return inputStream;
+      } catch (IOException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSHttpCache: Could not read cache entry for " + cacheKey, e);
+         close(inputStream);
+         remove(cacheKey);
+         return null;
+      }
+   }
+
+   @Nullable
+   static String getBody(String cacheKey) {
+      InputStream inputStream = openBody(cacheKey);
+      if (inputStream == null)
+         return null;
+
+      try {
+         ByteArrayOutputStream body = new ByteArrayOutputStream();
+         byte[] buffer = new byte[BUFFER_SIZE];
+         int read;
+         while ((read = inputStream.read(buffer)) != -1)
+            body.write(buffer, 0, read);
+         return body.toString("UTF-8");
+      } catch (IOException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSHttpCache: Could not read cache entry for " + cacheKey, e);
+         remove(cacheKey);
+         return null;
+      } finally {
+         close(inputStream);
+      }
+   }
+
+   static void put(String cacheKey, String eTag, String body) {
+      Writer writer = edit(cacheKey, eTag);
+      if (writer == null)
+         return;
+
+      try {
+         writer.write(body.getBytes("UTF-8"));
+         writer.commit();
+      } catch (IOException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSHttpCache: Could not write cache entry for " + cacheKey, e);
+         writer.abort();
+      }
+   }
+
+   // Starts a new entry that replaces the current one only once committed
+   @Nullable
+   static Writer edit(String cacheKey, String eTag) {
+      File dir;
+      synchronized (lock) {
+         if (!init())
+            return null;
+         dir = cacheDir;
+      }
+
+      try {
+         return new Writer(dir, cacheKey, eTag);
+      } catch (IOException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSHttpCache: Could not write cache entry for " + cacheKey, e);
+         return null;
+      }
+   }
+
+   // Copies everything read from source into writer
+   static InputStream tee(InputStream source, final Writer writer) {
+      return new FilterInputStream(source) {
+         @Override
+         public int read() throws IOException {
+            int read = super.read();
+            if (read != -1)
+               writer.write(new byte[] { (byte)read });
+            return read;
+         }
+
+         @Override
+         public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0)
+               writer.write(buffer, offset, read);
+            return read;
+         }
+      };
+   }
+
+   static class Writer {
+      private final String cacheKey;
+      private final File tempFile;
+      private final FileOutputStream fileOutputStream;
+      private final DataOutputStream outputStream;
+
+      private Writer(File dir, String cacheKey, String eTag) throws IOException {
+         this.cacheKey = cacheKey;
+         // Unique name so concurrent writers of the same key don't share a temp file
+         tempFile = File.createTempFile(fileName(cacheKey), TEMP_SUFFIX, dir);
+         fileOutputStream = new FileOutputStream(tempFile);
+         outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream, BUFFER_SIZE));
+         try {
+            outputStream.writeUTF(eTag);
+         } catch (IOException e) {
+            abort();
+            throw e;
+         }
+      }
+
+      void write(byte[] buffer) throws IOException {
+         write(buffer, 0, buffer.length);
+      }
+
+      void write(byte[] buffer, int offset, int count) throws IOException {
+         outputStream.write(buffer, offset, count);
+      }
+
+      void commit() throws IOException {
+         try {
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+         } finally {
+            close(outputStream);
+         }
+
+         synchronized (lock) {
+            String fileName = fileName(cacheKey);
+            File file = new File(cacheDir, fileName);
+            if (!tempFile.renameTo(file)) {
+               tempFile.delete();
+               throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+
+            entries.remove(fileName);
+            entries.put(fileName, file.length());
+            trimToSize();
+         }
+      }
+
+      void abort() {
+         close(outputStream);
+         tempFile.delete();
+      }
+   }
+
+   static void remove(String cacheKey) {
+      synchronized (lock) {
+         if (!init())
+            return;
+
+         String fileName = fileName(cacheKey);
+         new File(cacheDir, fileName).delete();
+         entries.remove(fileName);
+      }
+   }
+
+   private static DataInputStream open(String cacheKey) {
+      synchronized (lock) {
+         if (!init() || !entries.containsKey(fileName(cacheKey)))
+            return null;
+      }
+
+      try {
+         File file = new File(cacheDir, fileName(cacheKey));
+         return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+      } catch (IOException e) {
+         // Evicted or cleared by the system between the check and open
+         remove(cacheKey);
+         return null;
+      }
+   }
+
+   private static void touch(String cacheKey) {
+      synchronized (lock) {
+         String fileName = fileName(cacheKey);
+         Long size = entries.remove(fileName);
+         if (size == null)
+            return;
+
+         entries.put(fileName, size);
+         // Best effort, only used to restore LRU order on the next cold start
+         new File(cacheDir, fileName).setLastModified(System.currentTimeMillis());
+      }
+   }
+
+   private static void trimToSize() {
+      long totalSize = 0;
+      for (Long size : entries.values())
+         totalSize += size;
+
+      Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+      while (totalSize > MAX_SIZE_BYTES && iterator.hasNext()) {
+         Map.Entry<String, Long> eldest = iterator.next();
+         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSHttpCache: Evicting " + eldest.getKey() + " to stay under " + MAX_SIZE_BYTES + " bytes");
+         new File(cacheDir, eldest.getKey()).delete();
+         totalSize -= eldest.getValue();
+         iterator.remove();
+      }
+   }
+
+   // Must be called while holding lock
+   private static boolean init() {
+      if (entries != null)
+         return true;
+
+      Context context = SignalOne.appContext;
+      if (context == null)
+         return false;
+
+      cacheDir = new File(context.getCacheDir(), DIR_NAME);
+      if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSHttpCache: Could not create " + cacheDir);
+         return false;
+      }
+
+      entries = new LinkedHashMap<>();
+
+      File[] files = cacheDir.listFiles();
+      if (files != null) {
+         Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+               long lhsModified = lhs.lastModified(), rhsModified = rhs.lastModified();
+               return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+         });
+
+         for (File file : files) {
+            // Left behind by a write that did not finish
+            if (file.getName().endsWith(TEMP_SUFFIX))
+               file.delete();
+            else
+               entries.put(file.getName(), file.length());
+         }
+      }
+
+      migrateFromPrefs();
+      return true;
+   }
+
+   // Moves responses cached in SharedPreferences by older SDK versions into the file cache
+   private static void migrateFromPrefs() {
+      ArrayList<String> migrated = new ArrayList<>();
+      for (String cacheKey : LEGACY_PREFS_CACHE_KEYS) {
+         String eTagKey = SignalOnePrefs.PREFS_OS_ETAG_PREFIX + cacheKey;
+         String bodyKey = SignalOnePrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey;
+
+         String eTag = SignalOnePrefs.getString(SignalOnePrefs.PREFS_ONESIGNAL, eTagKey, null);
+         String body = SignalOnePrefs.getString(SignalOnePrefs.PREFS_ONESIGNAL, bodyKey, null);
+         if (eTag == null && body == null)
+            continue;
+
+         if (eTag != null && body != null && !entries.containsKey(fileName(cacheKey)))
+            put(cacheKey, eTag, body);
+
+         SignalOnePrefs.remove(SignalOnePrefs.PREFS_ONESIGNAL, eTagKey);
+         SignalOnePrefs.remove(SignalOnePrefs.PREFS_ONESIGNAL, bodyKey);
+         migrated.add(cacheKey);
+      }
+
+      if (!migrated.isEmpty())
+         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSHttpCache: Moved " + migrated + " from SharedPreferences to " + cacheDir);
+   }
+
+   private static String fileName(String cacheKey) {
+      return cacheKey.replaceAll("[^A-Za-z0-9_-]", "_");
+   }
+
+   private static void close(Closeable closeable) {
+      try {
+         closeable.close();
+      } catch (IOException e) {}
+   }
+}
@@ -0,0 +1,391 @@
+package com.signalone;
+
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Log structured store that SignalOnePrefs writes to in place of SharedPreferences.
+//   Every write appends one CRC checked record to a memory mapped file, so saving a value costs the
+//   size of that value instead of rewriting the whole XML file. All current values are kept in memory.
+//   Once most of the log is overwritten records it is rewritten with only current values.
+// Records written to the mapping are in the page cache, so they survive the process being killed.
+//   A record torn by power loss fails its CRC and the log is read up to the record before it,
+//   then cut off there.
+//
+// File layout: int MAGIC | int VERSION | record...
+// Record layout: int payload length | int CRC32 of payload | payload
+// Payload layout: byte type | short key length | key UTF-8 | value
+class OSKeyValueStore {
+
+   private static final int MAGIC = 0x4F534B56;
+   private static final int VERSION = 1;
+   private static final int FILE_HEADER_SIZE = 8;
+   private static final int RECORD_HEADER_SIZE = 8;
+
+   private static final int INITIAL_MAP_SIZE = 16 * 1024;
+   // Compact once the log is this big and less than half of it is current values
+   private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+   private static final byte TYPE_STRING = 1;
+   private static final byte TYPE_BOOLEAN = 2;
+   private static final byte TYPE_INT = 3;
+   private static final byte TYPE_LONG = 4;
+   private static final byte TYPE_REMOVED = 5;
+   private static final byte TYPE_BYTES = 6;
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private final File file;
+   // Read without locking, only writes are synchronized
+   private final ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<>();
+   // Size of the latest record of each current value, to know how much of the log is live
+   private final HashMap<String, Integer> recordSizes = new HashMap<>();
+   private int liveBytes;
+
+   private RandomAccessFile randomAccessFile;
+   private MappedByteBuffer buffer;
+   private int writePosition;
+
+   private OSKeyValueStore(File file) {
+      this.file = file;
+   }
+
+   // Opens the log for name, moving values over from legacyPrefs the first time
+   static OSKeyValueStore open(File dir, String name, SharedPreferences legacyPrefs) throws IOException {
+      OSKeyValueStore store = new OSKeyValueStore(new File(dir, "onesignal_" + name + ".kvlog"));
+      if (store.file.exists())
+         store.load();
+      else
+         store.migrate(legacyPrefs);
+      return store;
+   }
+
+   Object get(String key) {
+      return values.get(key);
+   }
+
+   // A value saved as another type reads as defValue instead of throwing a ClassCastException
+   String getString(String key, String defValue) {
+      Object value = values.get(key);
+      return value instanceof String ? (String)value : defValue;
+   }
+
+   boolean getBoolean(String key, boolean defValue) {
+      Object value = values.get(key);
+      return value instanceof Boolean ? (Boolean)value : defValue;
+   }
+
+   int getInt(String key, int defValue) {
+      Object value = values.get(key);
+      return value instanceof Integer ? (Integer)value : defValue;
+   }
+
+   long getLong(String key, long defValue) {
+      Object value = values.get(key);
+      return value instanceof Long ? (Long)value : defValue;
+   }
+
+   byte[] getBytes(String key, byte[] defValue) {
+      Object value = values.get(key);
+      return value instanceof byte[] ? (byte[])value : defValue;
+   }
+
+   boolean contains(String key) {
+      return values.containsKey(key);
+   }
+
+   synchronized void put(String key, Object value) throws IOException {
+      if (value == null) {
+         remove(key);
+         return;
+      }
+
+      Object current = values.get(key);
+      if (value instanceof byte[] ? current instanceof byte[] && Arrays.equals((byte[])value, (byte[])current) : value.equals(current))
+         return;
+
+      int size = append(key, value);
+      values.put(key, value);
+      Integer oldSize = recordSizes.put(key, size);
+      liveBytes += size - (oldSize == null ? 0 : oldSize);
+   }
+
+   synchronized void remove(String key) throws IOException {
+      if (!values.containsKey(key))
+         return;
+
+      append(key, null);
+      values.remove(key);
+      Integer oldSize = recordSizes.remove(key);
+      if (oldSize != null)
+         liveBytes -= oldSize;
+   }
+
+   private void migrate(SharedPreferences legacyPrefs) throws IOException {
+      if (legacyPrefs != null) {
+         for (Map.Entry<String, ?> entry : legacyPrefs.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (typeOf(value) != TYPE_REMOVED) {
+               values.put(entry.getKey(), value);
+               recordSizes.put(entry.getKey(), encode(entry.getKey(), value).length);
+            }
+         }
+      }
+
+      // Written to a temp file and renamed so a crash can't leave a partly migrated log
+      compact();
+
+      if (legacyPrefs != null && !values.isEmpty()) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSKeyValueStore: Moved " + values.size() + " values from SharedPreferences to " + file.getName());
+         legacyPrefs.edit().clear().apply();
+      }
+   }
+
+   private void load() throws IOException {
+      map((int)Math.max(file.length(), INITIAL_MAP_SIZE));
+
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OSKeyValueStore: " + file.getName() + " is not a valid log, starting empty");
+         close();
+         compact();
+         return;
+      }
+
+      int position = FILE_HEADER_SIZE;
+      while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+         int length = buffer.getInt(position);
+         if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity())
+            break;
+
+         byte[] payload = new byte[length];
+         buffer.position(position + RECORD_HEADER_SIZE);
+         buffer.get(payload);
+         if (crc(payload) != buffer.getInt(position + 4)) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSKeyValueStore: Bad record at " + position + " in " + file.getName() + ", ignoring the rest of the log");
+            break;
+         }
+
+         if (!applyRecord(payload, RECORD_HEADER_SIZE + length)) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSKeyValueStore: Malformed record at " + position + " in " + file.getName() + ", ignoring the rest of the log");
+            break;
+         }
+         position += RECORD_HEADER_SIZE + length;
+      }
+
+      writePosition = position;
+      // Cuts off whatever follows the last good record, such as a torn record and anything after it,
+      //   so a later, shorter record can't be followed by stale bytes. Mapping grows the file back with zeros.
+      int mapSize = buffer.capacity();
+      buffer = null;
+      randomAccessFile.setLength(writePosition);
+      map(mapSize);
+   }
+
+   // Returns false if a length in the record points past its end
+   private boolean applyRecord(byte[] payload, int recordSize) {
+      ByteBuffer record = ByteBuffer.wrap(payload);
+      Object value;
+      String key;
+      try {
+         byte type = record.get();
+         byte[] keyBytes = readBytes(record, record.getShort());
+         if (keyBytes == null)
+            return false;
+         key = new String(keyBytes, UTF_8);
+
+         switch (type) {
+            case TYPE_STRING:
+               byte[] stringBytes = readBytes(record, record.getInt());
+               if (stringBytes == null)
+                  return false;
+               value = new String(stringBytes, UTF_8);
+               break;
+            case TYPE_BOOLEAN:
+               value = record.get() != 0;
+               break;
+            case TYPE_INT:
+               value = record.getInt();
+               break;
+            case TYPE_LONG:
+               value = record.getLong();
+               break;
+            case TYPE_BYTES:
+               value = readBytes(record, record.getInt());
+               if (value == null)
+                  return false;
+               break;
+            default:
+               value = null;
+         }
+      } catch (BufferUnderflowException e) {
+         return false;
+      }
+
+      Integer oldSize;
+      if (value == null) {
+         values.remove(key);
+         oldSize = recordSizes.remove(key);
+      }
+      else {
+         values.put(key, value);
+         oldSize = recordSizes.put(key, recordSize);
+         liveBytes += recordSize;
+      }
+
+      if (oldSize != null)
+         liveBytes -= oldSize;
+      return true;
+   }
+
+   // Checked before allocating, a bad length must not allocate more than the record holds
+   private static byte[] readBytes(ByteBuffer record, int length) {
+      if (length < 0 || length > record.remaining())
+         return null;
+
+      byte[] bytes = new byte[length];
+      record.get(bytes);
+      return bytes;
+   }
+
+   // Returns the size of the record written
+   private int append(String key, Object value) throws IOException {
+      byte[] record = encode(key, value);
+
+      if (writePosition + record.length > buffer.capacity()) {
+         if (writePosition >= MIN_COMPACT_SIZE && liveBytes + record.length < writePosition / 2) {
+            compact();
+         }
+         if (writePosition + record.length > buffer.capacity()) {
+            int newSize = buffer.capacity();
+            while (writePosition + record.length > newSize)
+               newSize *= 2;
+            map(newSize);
+         }
+      }
+
+      buffer.position(writePosition);
+      buffer.put(record);
+      writePosition += record.length;
+      return record.length;
+   }
+
+   // Rewrites the log with only the current values
+   private void compact() throws IOException {
+      int oldSize = writePosition;
+      close();
+
+      File tempFile = new File(file.getPath() + ".tmp");
+      FileOutputStream outputStream = new FileOutputStream(tempFile);
+      int size = FILE_HEADER_SIZE;
+      try {
+         outputStream.write(ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+         for (Map.Entry<String, Object> entry : values.entrySet()) {
+            byte[] record = encode(entry.getKey(), entry.getValue());
+            outputStream.write(record);
+            size += record.length;
+         }
+         outputStream.getFD().sync();
+      } finally {
+         outputStream.close();
+      }
+
+      if (!tempFile.renameTo(file)) {
+         tempFile.delete();
+         throw new IOException("Could not rename " + tempFile + " to " + file);
+      }
+
+      if (oldSize > 0)
+         SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OSKeyValueStore: Compacted " + file.getName() + " from " + oldSize + " to " + size + " bytes");
+
+      writePosition = size;
+      liveBytes = size - FILE_HEADER_SIZE;
+      map(Math.max(INITIAL_MAP_SIZE, Integer.highestOneBit(size) * 2));
+   }
+
+   private void map(int size) throws IOException {
+      if (randomAccessFile == null)
+         randomAccessFile = new RandomAccessFile(file, "rw");
+      // Mapping past the end of the file grows it
+      buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+   }
+
+   private void close() throws IOException {
+      buffer = null;
+      if (randomAccessFile != null) {
+         randomAccessFile.close();
+         randomAccessFile = null;
+      }
+   }
+
+   // value null writes a removal
+   private static byte[] encode(String key, Object value) {
+      byte[] keyBytes = key.getBytes(UTF_8);
+      byte type = value == null ? TYPE_REMOVED : typeOf(value);
+      byte[] stringBytes = type == TYPE_STRING ? ((String)value).getBytes(UTF_8) : null;
+
+      int valueSize;
+      switch (type) {
+         case TYPE_STRING: valueSize = 4 + stringBytes.length; break;
+         case TYPE_BOOLEAN: valueSize = 1; break;
+         case TYPE_INT: valueSize = 4; break;
+         case TYPE_LONG: valueSize = 8; break;
+         case TYPE_BYTES: valueSize = 4 + ((byte[])value).length; break;
+         default: valueSize = 0;
+      }
+
+      int payloadLength = 1 + 2 + keyBytes.length + valueSize;
+      ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength);
+      record.putInt(payloadLength);
+      record.putInt(0);
+      record.put(type);
+      record.putShort((short)keyBytes.length);
+      record.put(keyBytes);
+      switch (type) {
+         case TYPE_STRING: record.putInt(stringBytes.length).put(stringBytes); break;
+         case TYPE_BOOLEAN: record.put((byte)((Boolean)value ? 1 : 0)); break;
+         case TYPE_INT: record.putInt((Integer)value); break;
+         case TYPE_LONG: record.putLong((Long)value); break;
+         case TYPE_BYTES: record.putInt(((byte[])value).length).put((byte[])value); break;
+      }
+
+      byte[] bytes = record.array();
+      CRC32 crc32 = new CRC32();
+      crc32.update(bytes, RECORD_HEADER_SIZE, payloadLength);
+      record.putInt(4, (int)crc32.getValue());
+      return bytes;
+   }
+
+   // TYPE_REMOVED for types SignalOnePrefs doesn't store
+   private static byte typeOf(Object value) {
+      if (value instanceof String)
+         return TYPE_STRING;
+      if (value instanceof Boolean)
+         return TYPE_BOOLEAN;
+      if (value instanceof Integer)
+         return TYPE_INT;
+      if (value instanceof Long)
+         return TYPE_LONG;
+      if (value instanceof byte[])
+         return TYPE_BYTES;
+      return TYPE_REMOVED;
+   }
+
+   private static int crc(byte[] payload) {
+      CRC32 crc32 = new CRC32();
+      crc32.update(payload);
+      return (int)crc32.getValue();
+   }
+}
@@ -0,0 +1,156 @@
+package com.signalone;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Tracks request latency and transport failures per endpoint, with ids in the url replaced so
+//   all players/{id}/on_focus calls share one entry.
+// Timeouts - Once there are enough samples the timeout becomes a multiple of the observed p95
+//   latency, between MIN_TIMEOUT_MS and the caller's fixed timeout.
+// Circuit breaker - After FAILURES_TO_OPEN connect errors in a row an endpoint fails fast without
+//   using the network. After a cool down one trial request is let through, success closes it again.
+// Retry-After - Kept from error responses so retries of the endpoint wait at least that long.
+class OSNetworkHealth {
+
+   static final int SAMPLE_SIZE = 20;
+   static final int MIN_SAMPLES = 5;
+   static final int P95_TIMEOUT_MULTIPLIER = 4;
+   static final int MIN_TIMEOUT_MS = 15_000;
+
+   static final int FAILURES_TO_OPEN = 3;
+   static final long MIN_OPEN_MS = 30_000;
+   static final long MAX_OPEN_MS = 5 * 60 * 1_000;
+
+   // Player, app and notification ids are UUIDs
+   private static final Pattern ID_SEGMENT = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|\\d+");
+
+   private static class Endpoint {
+      final long[] latencies = new long[SAMPLE_SIZE];
+      int sampleCount, nextSample;
+
+      int consecutiveFailures;
+      long openUntil;
+      long openDurationMs = MIN_OPEN_MS;
+      boolean trialInFlight;
+
+      long retryAfterUntil;
+
+      long getP95() {
+         int count = Math.min(sampleCount, SAMPLE_SIZE);
+         long[] sorted = Arrays.copyOf(latencies, count);
+         Arrays.sort(sorted);
+         return sorted[(int)Math.ceil(count * 0.95) - 1];
+      }
+   }
+
+   private final HashMap<String, Endpoint> endpoints = new HashMap<>();
+
+   static String getTemplate(String url) {
+      int query = url.indexOf('?');
+      if (query != -1)
+         url = url.substring(0, query);
+
+      String[] segments = url.split("/");
+      StringBuilder template = new StringBuilder();
+      for (int i = 0; i < segments.length; i++) {
+         if (i > 0)
+            template.append('/');
+         template.append(ID_SEGMENT.matcher(segments[i]).matches() ? "{id}" : segments[i]);
+      }
+      return template.toString();
+   }
+
+   synchronized int getTimeout(String template, int defaultTimeout) {
+      Endpoint endpoint = endpoints.get(template);
+      if (endpoint == null || endpoint.sampleCount < MIN_SAMPLES)
+         return defaultTimeout;
+
+      long timeout = endpoint.getP95() * P95_TIMEOUT_MULTIPLIER;
+      return (int)Math.max(MIN_TIMEOUT_MS, Math.min(defaultTimeout, timeout));
+   }
+
+   // Returns false if the circuit is open and the request should fail without being sent
+   synchronized boolean allowRequest(String template) {
+      Endpoint endpoint = endpoints.get(template);
+      if (endpoint == null || endpoint.consecutiveFailures < FAILURES_TO_OPEN)
+         return true;
+
+      if (now() < endpoint.openUntil || endpoint.trialInFlight)
+         return false;
+
+      // Half open, let one request through to test the endpoint
+      endpoint.trialInFlight = true;
+      return true;
+   }
+
+   // The server answered, with any status code
+   synchronized void recordResponse(String template, long latencyMs) {
+      Endpoint endpoint = getEndpoint(template);
+      endpoint.latencies[endpoint.nextSample] = latencyMs;
+      endpoint.nextSample = (endpoint.nextSample + 1) % SAMPLE_SIZE;
+      endpoint.sampleCount++;
+
+      if (endpoint.consecutiveFailures >= FAILURES_TO_OPEN)
+         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSNetworkHealth: " + template + " is reachable again, closing circuit");
+
+      endpoint.consecutiveFailures = 0;
+      endpoint.openDurationMs = MIN_OPEN_MS;
+      endpoint.trialInFlight = false;
+   }
+
+   // Could not connect, or the connection failed before a response
+   synchronized void recordFailure(String template) {
+      Endpoint endpoint = getEndpoint(template);
+      endpoint.consecutiveFailures++;
+      if (endpoint.consecutiveFailures < FAILURES_TO_OPEN)
+         return;
+
+      // A failed trial keeps the circuit open for longer each time
+      if (endpoint.trialInFlight)
+         endpoint.openDurationMs = Math.min(endpoint.openDurationMs * 2, MAX_OPEN_MS);
+
+      endpoint.trialInFlight = false;
+      endpoint.openUntil = now() + endpoint.openDurationMs;
+      SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSNetworkHealth: " + endpoint.consecutiveFailures + " failures in a row to " + template + ", failing fast for " + (endpoint.openDurationMs / 1_000) + " seconds");
+   }
+
+   // The server answered with a Retry-After header
+   synchronized void recordRetryAfter(String template, long retryAfterMs) {
+      getEndpoint(template).retryAfterUntil = now() + retryAfterMs;
+      SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSNetworkHealth: " + template + " asked to retry after " + (retryAfterMs / 1_000) + " seconds");
+   }
+
+   // Time until every endpoint starting with templatePrefix is past its open circuit and Retry-After
+   synchronized long getRequiredWaitMs(String templatePrefix) {
+      long now = now();
+      long wait = 0;
+      for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+         if (!entry.getKey().startsWith(templatePrefix))
+            continue;
+
+         Endpoint endpoint = entry.getValue();
+         if (endpoint.consecutiveFailures >= FAILURES_TO_OPEN)
+            wait = Math.max(wait, endpoint.openUntil - now);
+         wait = Math.max(wait, endpoint.retryAfterUntil - now);
+      }
+      return wait;
+   }
+
+   // Overridden by tests to move time forward
+   long now() {
+      return SystemClock.elapsedRealtime();
+   }
+
+   private Endpoint getEndpoint(String template) {
+      Endpoint endpoint = endpoints.get(template);
+      if (endpoint == null) {
+         endpoint = new Endpoint();
+         endpoints.put(template, endpoint);
+      }
+      return endpoint;
+   }
+}
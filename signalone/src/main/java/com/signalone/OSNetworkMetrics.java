@@ -0,0 +1,125 @@
+package com.signalone;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * In-memory totals and latency histograms of the SDK's REST requests since the app process started,
+ * grouped by endpoint. Get it with {@link SignalOne#getNetworkMetrics()} and poll {@link #getSnapshot()}.
+ */
+public class OSNetworkMetrics {
+
+   /** Upper bound of each latency bucket in milliseconds, the last bucket holds everything slower */
+   public static final long[] LATENCY_BUCKET_BOUNDS_MS = { 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000 };
+
+   /** Totals for one endpoint, a copy that is not updated after it is returned */
+   public static class EndpointStats {
+      public String endpoint;
+      public int requestCount;
+      /** Requests without a response or with a status of 400 or higher */
+      public int failureCount;
+      public int cacheHitCount;
+      /** Requests that were a retry of an earlier attempt */
+      public int retryRequestCount;
+      public long requestBytes, responseBytes;
+      /** Count of requests per {@link #LATENCY_BUCKET_BOUNDS_MS} bucket, one longer than the bounds */
+      public long[] latencyBuckets = new long[LATENCY_BUCKET_BOUNDS_MS.length + 1];
+
+      /**
+       * Upper bound of the bucket that holds the given percentile of total latency
+       * @param percentile between 0 and 100
+       * @return latency in milliseconds, {@link Long#MAX_VALUE} if it falls in the last bucket
+       */
+      public long getLatencyPercentileMs(double percentile) {
+         long target = (long)Math.ceil(requestCount * percentile / 100d);
+         long seen = 0;
+         for (int i = 0; i < latencyBuckets.length; i++) {
+            seen += latencyBuckets[i];
+            if (seen >= target && seen > 0)
+               return i < LATENCY_BUCKET_BOUNDS_MS.length ? LATENCY_BUCKET_BOUNDS_MS[i] : Long.MAX_VALUE;
+         }
+         return 0;
+      }
+
+      private EndpointStats copy() {
+         EndpointStats copy = new EndpointStats();
+         copy.endpoint = endpoint;
+         copy.requestCount = requestCount;
+         copy.failureCount = failureCount;
+         copy.cacheHitCount = cacheHitCount;
+         copy.retryRequestCount = retryRequestCount;
+         copy.requestBytes = requestBytes;
+         copy.responseBytes = responseBytes;
+         copy.latencyBuckets = latencyBuckets.clone();
+         return copy;
+      }
+   }
+
+   private final HashMap<String, EndpointStats> endpoints = new HashMap<>();
+
+   OSNetworkMetrics() {}
+
+   synchronized void record(OSNetworkRequestMetrics metrics) {
+      String key = metrics.method + " " + metrics.endpoint;
+      EndpointStats stats = endpoints.get(key);
+      if (stats == null) {
+         stats = new EndpointStats();
+         stats.endpoint = key;
+         endpoints.put(key, stats);
+      }
+
+      stats.requestCount++;
+      if (metrics.statusCode == -1 || metrics.statusCode >= 400)
+         stats.failureCount++;
+      if (metrics.cacheHit)
+         stats.cacheHitCount++;
+      if (metrics.retryCount > 0)
+         stats.retryRequestCount++;
+      stats.requestBytes += metrics.requestBytes;
+      stats.responseBytes += metrics.responseBytes;
+
+      int bucket = 0;
+      while (bucket < LATENCY_BUCKET_BOUNDS_MS.length && metrics.totalMs > LATENCY_BUCKET_BOUNDS_MS[bucket])
+         bucket++;
+      stats.latencyBuckets[bucket]++;
+   }
+
+   /**
+    * @return a copy of the totals for each {@code "METHOD endpoint"} seen so far
+    */
+   public synchronized List<EndpointStats> getSnapshot() {
+      List<EndpointStats> snapshot = new ArrayList<>(endpoints.size());
+      for (EndpointStats stats : endpoints.values())
+         snapshot.add(stats.copy());
+      return snapshot;
+   }
+
+   /**
+    * Requests saved to be sent again until they are delivered, such as notification opens,
+    * purchases and focus time made while offline.
+    * @return the number of queued requests, -1 if the queue has not been read yet since the app process started
+    */
+   public int getOutboxQueueDepth() {
+      return OneSignalOutbox.getQueueDepth();
+   }
+
+   /**
+    * HTTPS requests that were sent on a connection kept open from an earlier request, see
+    * {@link SignalOne.Builder#connectionIdleTimeout(int)}. Counted since the app process started.
+    */
+   public int getReusedConnectionCount() {
+      return OneSignalRestClient.connectionPool.getReusedCount();
+   }
+
+   /**
+    * HTTPS requests that had to open a new connection. Counted since the app process started.
+    */
+   public int getNewConnectionCount() {
+      return OneSignalRestClient.connectionPool.getNewCount();
+   }
+
+   public synchronized void reset() {
+      endpoints.clear();
+   }
+}
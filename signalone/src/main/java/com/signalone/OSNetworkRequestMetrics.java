@@ -0,0 +1,36 @@
+package com.signalone;
+
+/**
+ * Timings and sizes of one REST request made by the SDK, passed to
+ * {@link SignalOne.NetworkMetricsListener}. Times are in milliseconds, a step that did not
+ * happen, such as connecting for a request that failed fast, is {@code 0}.
+ */
+public class OSNetworkRequestMetrics {
+   /** Url with ids replaced, for example {@code players/{id}/on_focus} */
+   public String endpoint;
+   /** GET, PUT or POST */
+   public String method;
+   /** Time waiting for a network thread */
+   public long queueWaitMs;
+   /** Time to open the connection, close to {@code 0} when a kept-alive connection was reused */
+   public long connectMs;
+   /** Time from the start of the request until the response headers arrived */
+   public long timeToFirstByteMs;
+   /** Time from the start of the request until the response was read */
+   public long totalMs;
+   /** Body bytes sent and received, as sent on the wire after any gzip encoding */
+   public long requestBytes, responseBytes;
+   /** HTTP status code, {@code -1} if there was no response */
+   public int statusCode;
+   /** {@code true} if the server answered 304 and the cached response was used */
+   public boolean cacheHit;
+   /** How many times this request was tried before, {@code 0} for the first attempt */
+   public int retryCount;
+
+   @Override
+   public String toString() {
+      return method + " " + endpoint + " " + statusCode + (cacheHit ? " (cached)" : "")
+         + " queue: " + queueWaitMs + "ms, connect: " + connectMs + "ms, ttfb: " + timeToFirstByteMs + "ms, total: " + totalMs + "ms"
+         + ", sent: " + requestBytes + "B, received: " + responseBytes + "B, retry: " + retryCount;
+   }
+}
@@ -0,0 +1,218 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Coalesces REST calls for the same player made within a short window into a single request.
+//   The API has no multi-endpoint batch call, so only calls to the same url whose bodies can be
+//   combined are merged. Every caller's ResponseHandler gets the result of the combined request.
+class OSRequestBatcher {
+
+   static final long BATCH_WINDOW_MS = 250;
+
+   private static final Pattern PLAYER_URL = Pattern.compile("^players/[^/?]+$");
+   private static final Pattern ON_FOCUS_URL = Pattern.compile("^players/[^/?]+/on_focus$");
+   private static final Pattern ON_PURCHASE_URL = Pattern.compile("^players/[^/?]+/on_purchase$");
+
+   interface Sender {
+      void send(String method, String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler responseHandler);
+   }
+
+   private static class Batch {
+      final String method, url;
+      JSONObject jsonBody;
+      final ArrayList<OneSignalRestClient.ResponseHandler> handlers = new ArrayList<>();
+
+      Batch(String method, String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler handler) {
+         this.method = method;
+         this.url = url;
+         this.jsonBody = jsonBody;
+         handlers.add(handler);
+      }
+   }
+
+   private final HashMap<String, Batch> pendingBatches = new HashMap<>();
+   private final Sender sender;
+
+   OSRequestBatcher(Sender sender) {
+      this.sender = sender;
+   }
+
+   // Returns false if the request can't be batched, the caller should send it on its own.
+   boolean add(String method, String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler responseHandler) {
+      if (jsonBody == null || !isBatchable(method, url))
+         return false;
+
+      final String key = method + " " + url;
+      Batch unmergeable = null;
+
+      synchronized (pendingBatches) {
+         Batch batch = pendingBatches.get(key);
+         if (batch != null) {
+            JSONObject merged = merge(url, batch.jsonBody, jsonBody);
+            if (merged != null) {
+               SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OSRequestBatcher: Merged " + key + " into pending batch of " + batch.handlers.size());
+               batch.jsonBody = merged;
+               batch.handlers.add(responseHandler);
+               return true;
+            }
+
+            // Can't combine with what is pending, send that now and start a new batch.
+            pendingBatches.remove(key);
+            unmergeable = batch;
+         }
+
+         final Batch newBatch = new Batch(method, url, jsonBody, responseHandler);
+         pendingBatches.put(key, newBatch);
+         // Sending only queues the request, so the window can close on the local pool
+         OSScheduler.schedule("OS_HTTPBatch", new Runnable() {
+            @Override
+            public void run() {
+               synchronized (pendingBatches) {
+                  // Already sent if replaced by a new batch
+                  if (pendingBatches.get(key) != newBatch)
+                     return;
+                  pendingBatches.remove(key);
+               }
+               send(newBatch);
+            }
+         }, BATCH_WINDOW_MS);
+      }
+
+      if (unmergeable != null)
+         send(unmergeable);
+
+      return true;
+   }
+
+   private void send(Batch batch) {
+      sender.send(batch.method, batch.url, batch.jsonBody, fanOut(batch.handlers));
+   }
+
+   static boolean isBatchable(String method, String url) {
+      if ("PUT".equals(method))
+         return PLAYER_URL.matcher(url).matches();
+      if ("POST".equals(method))
+         return ON_FOCUS_URL.matcher(url).matches() || ON_PURCHASE_URL.matcher(url).matches();
+      return false;
+   }
+
+   // Returns a new body with both requests combined, or null if they need to be sent separately.
+   //   Neither input is modified.
+   static JSONObject merge(String url, JSONObject first, JSONObject second) {
+      try {
+         if (PLAYER_URL.matcher(url).matches())
+            return mergePlayerUpdate(first, second);
+         if (ON_FOCUS_URL.matcher(url).matches())
+            return mergeOnFocus(first, second);
+         if (ON_PURCHASE_URL.matcher(url).matches())
+            return mergeOnPurchase(first, second);
+      } catch (JSONException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OSRequestBatcher: Could not merge requests to " + url, e);
+      }
+
+      return null;
+   }
+
+   // Later values win, nested objects such as tags are merged key by key.
+   private static JSONObject mergePlayerUpdate(JSONObject first, JSONObject second) throws JSONException {
+      JSONObject merged = copy(first);
+
+      Iterator<String> keys = second.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         Object value = second.get(key);
+         Object existing = merged.opt(key);
+
+         if (existing instanceof JSONObject && value instanceof JSONObject) {
+            JSONObject nested = mergePlayerUpdate((JSONObject)existing, (JSONObject)value);
+            if (nested == null)
+               return null;
+            merged.put(key, nested);
+         }
+         else if (existing instanceof JSONArray || value instanceof JSONArray) {
+            // Array changes are sent as _a / _d diffs that can't be safely combined
+            if (existing != null)
+               return null;
+            merged.put(key, value);
+         }
+         else
+            merged.put(key, value);
+      }
+
+      return merged;
+   }
+
+   // active_time in an on_focus ping is only the time since the player's last ping was handed off,
+   //   see SignalOne.sendOnFocus, so the combined ping carries the sum of both.
+   private static JSONObject mergeOnFocus(JSONObject first, JSONObject second) throws JSONException {
+      if (!sameValue(first, second, "app_id") || !sameValue(first, second, "type") || !sameValue(first, second, "state"))
+         return null;
+
+      JSONObject merged = copy(second);
+      merged.put("active_time", first.optLong("active_time") + second.optLong("active_time"));
+      return merged;
+   }
+
+   private static JSONObject mergeOnPurchase(JSONObject first, JSONObject second) throws JSONException {
+      if (!sameValue(first, second, "app_id") || first.optBoolean("existing") != second.optBoolean("existing"))
+         return null;
+
+      JSONArray purchases = new JSONArray();
+      appendAll(purchases, first.optJSONArray("purchases"));
+      appendAll(purchases, second.optJSONArray("purchases"));
+
+      JSONObject merged = copy(first);
+      merged.put("purchases", purchases);
+      return merged;
+   }
+
+   private static boolean sameValue(JSONObject first, JSONObject second, String key) {
+      Object firstValue = first.opt(key), secondValue = second.opt(key);
+      return firstValue == null ? secondValue == null : firstValue.equals(secondValue);
+   }
+
+   private static void appendAll(JSONArray to, JSONArray from) {
+      if (from == null)
+         return;
+      for (int i = 0; i < from.length(); i++)
+         to.put(from.opt(i));
+   }
+
+   private static JSONObject copy(JSONObject jsonObject) throws JSONException {
+      JSONObject copy = new JSONObject();
+      Iterator<String> keys = jsonObject.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         copy.put(key, jsonObject.get(key));
+      }
+      return copy;
+   }
+
+   static OneSignalRestClient.ResponseHandler fanOut(final List<OneSignalRestClient.ResponseHandler> handlers) {
+      return new OneSignalRestClient.ResponseHandler() {
+         @Override
+         void onSuccess(String response) {
+            for (OneSignalRestClient.ResponseHandler handler : handlers) {
+               if (handler != null)
+                  handler.onSuccess(response);
+            }
+         }
+
+         @Override
+         void onFailure(int statusCode, String response, Throwable throwable) {
+            for (OneSignalRestClient.ResponseHandler handler : handlers) {
+               if (handler != null)
+                  handler.onFailure(statusCode, response, throwable);
+            }
+         }
+      };
+   }
+}
@@ -0,0 +1,113 @@
+package com.signalone;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.PowerManager;
+import android.telephony.TelephonyManager;
+
+// Holds back requests that aren't time sensitive, such as focus time, location and tag updates,
+//   while the device is on a metered or slow network or in doze. Held changes keep accumulating
+//   locally, so once conditions improve, or they have been held for maxDeferMs, they go out together.
+// Off unless enabled with SignalOne.Builder.deferNonUrgentRequests.
+class OSRequestDeferral {
+
+   static final long DEFAULT_MAX_DEFER_MS = 60 * 60 * 1_000;
+   private static final long RECHECK_INTERVAL_MS = 15 * 60 * 1_000;
+   // Once held too long everything held is let through for this long, so it goes out in one window
+   private static final long STALE_FLUSH_WINDOW_MS = 60_000;
+
+   private static volatile boolean deferOnMetered, deferOnPoorNetwork, deferInDoze;
+   private static volatile long maxDeferMs = DEFAULT_MAX_DEFER_MS;
+   private static volatile long staleFlushUntil;
+
+   static void setPolicy(boolean onMetered, boolean onPoorNetwork, boolean inDoze, long maxDeferMs) {
+      deferOnMetered = onMetered;
+      deferOnPoorNetwork = onPoorNetwork;
+      deferInDoze = inDoze;
+      OSRequestDeferral.maxDeferMs = maxDeferMs > 0 ? maxDeferMs : DEFAULT_MAX_DEFER_MS;
+   }
+
+   // Returns true if the caller should hold its request for now.
+   //   A sync task is scheduled to check again, the caller doesn't need to retry itself.
+   static boolean shouldDefer(Context context, String request) {
+      if (context == null || !(deferOnMetered || deferOnPoorNetwork || deferInDoze))
+         return false;
+
+      long now = System.currentTimeMillis();
+      if (now < staleFlushUntil)
+         return false;
+
+      long deferredSince = SignalOnePrefs.getLong(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_DEFERRED_SINCE, 0);
+
+      String reason = getDeferReason(context);
+      if (reason == null) {
+         if (deferredSince != 0)
+            SignalOnePrefs.saveLong(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_DEFERRED_SINCE, 0);
+         return false;
+      }
+
+      if (deferredSince == 0) {
+         deferredSince = now;
+         SignalOnePrefs.saveLong(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_DEFERRED_SINCE, now);
+      }
+
+      long heldMs = now - deferredSince;
+      if (heldMs >= maxDeferMs) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSRequestDeferral: Sending held requests after " + (heldMs / 1_000) + " seconds even though " + reason);
+         staleFlushUntil = now + STALE_FLUSH_WINDOW_MS;
+         SignalOnePrefs.saveLong(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_DEFERRED_SINCE, 0);
+         return false;
+      }
+
+      SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OSRequestDeferral: Holding " + request + " since " + reason);
+      OneSignalSyncServiceUtils.scheduleSyncTask(context, Math.min(RECHECK_INTERVAL_MS, maxDeferMs - heldMs), "deferred requests");
+      return true;
+   }
+
+   // Returns null if nothing should be held
+   private static String getDeferReason(Context context) {
+      ConnectivityManager connectivityManager = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+      NetworkInfo netInfo = connectivityManager.getActiveNetworkInfo();
+      // Offline is left to the normal retry logic
+      if (netInfo == null || !netInfo.isConnected())
+         return null;
+
+      if (deferInDoze && isDeviceIdle(context))
+         return "device is in doze";
+
+      if (deferOnMetered && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && connectivityManager.isActiveNetworkMetered())
+         return "network is metered";
+
+      if (deferOnPoorNetwork && isPoorNetwork(netInfo))
+         return "network is slow";
+
+      return null;
+   }
+
+   private static boolean isDeviceIdle(Context context) {
+      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+         return false;
+
+      PowerManager powerManager = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
+      return powerManager != null && powerManager.isDeviceIdleMode();
+   }
+
+   // 2G mobile data
+   private static boolean isPoorNetwork(NetworkInfo netInfo) {
+      if (netInfo.getType() != ConnectivityManager.TYPE_MOBILE)
+         return false;
+
+      switch (netInfo.getSubtype()) {
+         case TelephonyManager.NETWORK_TYPE_GPRS:
+         case TelephonyManager.NETWORK_TYPE_EDGE:
+         case TelephonyManager.NETWORK_TYPE_CDMA:
+         case TelephonyManager.NETWORK_TYPE_1xRTT:
+         case TelephonyManager.NETWORK_TYPE_IDEN:
+            return true;
+         default:
+            return false;
+      }
+   }
+}
@@ -0,0 +1,277 @@
+package com.signalone;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the SDK's background and delayed work on a few shared threads, in place of a HandlerThread
+//   per component that stayed alive for the life of the process.
+// Two pools, so work waiting on the network can never hold back the short local tasks:
+//   execute / schedule - Local work only, e.g. prefs flushes, focus handling and request timeouts. Must not make network calls.
+//   executeNetwork / scheduleNetwork - Anything that makes a blocking network call, runs app callbacks or otherwise waits.
+//     REST requests run here too, see OneSignalRestClient.
+// Threads are only created when there is work and stop after IDLE_TIMEOUT_MS without any.
+//   While a task runs its thread is renamed to the task's name, and it is shown as a trace section.
+class OSScheduler {
+
+   static final int MAX_THREADS = 2;
+   // A sync of each player, a getTags fetch and one more, anything past that waits its turn
+   static final int MAX_NETWORK_THREADS = 4;
+   private static final long IDLE_TIMEOUT_MS = 30_000;
+
+   private static final ScheduledThreadPoolExecutor executor = newExecutor(MAX_THREADS, "OS_Scheduler");
+   private static final ScheduledThreadPoolExecutor networkExecutor = newExecutor(MAX_NETWORK_THREADS, "OS_Network");
+
+   private static ScheduledThreadPoolExecutor newExecutor(int threads, final String threadName) {
+      ScheduledThreadPoolExecutor newExecutor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+         private final AtomicInteger threadCount = new AtomicInteger();
+
+         @Override
+         public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, threadName + "_" + threadCount.incrementAndGet());
+         }
+      });
+      newExecutor.setKeepAliveTime(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      newExecutor.allowCoreThreadTimeOut(true);
+      return newExecutor;
+   }
+
+   static void execute(String name, Runnable task) {
+      schedule(name, task, 0);
+   }
+
+   static ScheduledFuture<?> schedule(String name, Runnable task, long delayMs) {
+      return schedule(executor, name, task, delayMs);
+   }
+
+   static Future<?> executeNetwork(String name, Runnable task) {
+      return scheduleNetwork(name, task, 0);
+   }
+
+   static ScheduledFuture<?> scheduleNetwork(String name, Runnable task, long delayMs) {
+      return schedule(networkExecutor, name, task, delayMs);
+   }
+
+   // Cancels a scheduled task and drops it from its pool's queue right away instead of once it becomes due,
+   //   ScheduledThreadPoolExecutor.setRemoveOnCancelPolicy needs API 21.
+   static void cancel(ScheduledFuture<?> future) {
+      if (future.cancel(false) && !executor.remove((Runnable)future))
+         networkExecutor.remove((Runnable)future);
+   }
+
+   // Runs background on the network pool while task runs on the calling thread, returns once both are done.
+   //   If no network thread has picked background up by the time task is done it runs on the calling thread
+   //   instead, so a full pool only makes this slower and a caller on the pool can't deadlock waiting for it.
+   static void runNetworkInParallel(String name, final Runnable background, Runnable task) {
+      // Future.cancel also succeeds while a task is running, so whoever starts background first claims it
+      final AtomicBoolean claimed = new AtomicBoolean();
+      Future<?> backgroundFuture = executeNetwork(name, new Runnable() {
+         @Override
+         public void run() {
+            if (claimed.compareAndSet(false, true))
+               background.run();
+         }
+      });
+      task.run();
+
+      if (claimed.compareAndSet(false, true)) {
+         backgroundFuture.cancel(false);
+         background.run();
+         return;
+      }
+
+      try {
+         backgroundFuture.get();
+      } catch (InterruptedException e) {
+         // Caller is being stopped, background finishes on its own
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         // Not thrown, tasks are wrapped in a catch that logs them
+      }
+   }
+
+   // Threads currently alive in both pools, idle ones included until they time out
+   static int getThreadCount() {
+      return executor.getPoolSize() + networkExecutor.getPoolSize();
+   }
+
+   private static ScheduledFuture<?> schedule(ScheduledThreadPoolExecutor pool, final String name, final Runnable task, long delayMs) {
+      return pool.schedule(new Runnable() {
+         @Override
+         public void run() {
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+            thread.setName(name);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+               Trace.beginSection(name);
+            try {
+               task.run();
+            } catch (Throwable t) {
+               SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OSScheduler: Task " + name + " failed", t);
+            } finally {
+               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+                  Trace.endSection();
+               thread.setName(threadName);
+            }
+         }
+      }, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+   }
+
+   // One delayed task at a time, scheduling again replaces the pending one like
+   //   Handler.removeCallbacksAndMessages followed by postDelayed.
+   // Runs never overlap. If the task becomes due while a run is still going it is only marked,
+   //   and the thread doing the current run runs it again right after instead of a second thread waiting.
+   static class SingleTask {
+      private final String name;
+      private final boolean network;
+
+      // Bumped by each schedule and cancel, so a replaced run that already became due does nothing
+      private int generation;
+      private Runnable nextTask;
+      private ScheduledFuture<?> pendingFuture;
+      private boolean running;
+      private boolean dueWhileRunning;
+
+      // network - true if the task makes blocking network calls
+      SingleTask(String name, boolean network) {
+         this.name = name;
+         this.network = network;
+      }
+
+      synchronized void schedule(Runnable task, long delayMs) {
+         cancel();
+
+         nextTask = task;
+         final int scheduledGeneration = generation;
+         Runnable onDue = new Runnable() {
+            @Override
+            public void run() {
+               onDue(scheduledGeneration);
+            }
+         };
+         pendingFuture = network ? scheduleNetwork(name, onDue, delayMs) : OSScheduler.schedule(name, onDue, delayMs);
+      }
+
+      synchronized void cancel() {
+         generation++;
+         if (pendingFuture != null)
+            OSScheduler.cancel(pendingFuture);
+         pendingFuture = null;
+         nextTask = null;
+         dueWhileRunning = false;
+      }
+
+      // True if a run is waiting, a run that already started doesn't count
+      synchronized boolean isScheduled() {
+         return pendingFuture != null || dueWhileRunning;
+      }
+
+      private void onDue(int scheduledGeneration) {
+         Runnable task;
+         synchronized (this) {
+            if (scheduledGeneration != generation)
+               return;
+            pendingFuture = null;
+            if (running) {
+               dueWhileRunning = true;
+               return;
+            }
+            running = true;
+            task = nextTask;
+            nextTask = null;
+         }
+
+         while (true) {
+            try {
+               task.run();
+            } catch (Throwable t) {
+               SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OSScheduler: Task " + name + " failed", t);
+            }
+
+            synchronized (this) {
+               if (!dueWhileRunning) {
+                  running = false;
+                  return;
+               }
+               dueWhileRunning = false;
+               task = nextTask;
+               nextTask = null;
+            }
+         }
+      }
+   }
+
+   // Runs tasks one at a time in the order they were added, in place of a single thread executor.
+   //   A pool thread is only used while there are tasks. Like ExecutorService.shutdown,
+   //   tasks added before shutdown still run and any added after it are dropped.
+   static class SerialExecutor {
+      private final String name;
+      private final boolean network;
+      private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+      private boolean running;
+      private boolean shutdown;
+
+      // network - true if the tasks make blocking network calls
+      SerialExecutor(String name, boolean network) {
+         this.name = name;
+         this.network = network;
+      }
+
+      synchronized void execute(Runnable task) {
+         if (shutdown)
+            return;
+
+         tasks.add(task);
+         if (running)
+            return;
+
+         running = true;
+         Runnable runTasks = new Runnable() {
+            @Override
+            public void run() {
+               runTasks();
+            }
+         };
+         if (network)
+            executeNetwork(name, runTasks);
+         else
+            OSScheduler.execute(name, runTasks);
+      }
+
+      synchronized void shutdown() {
+         shutdown = true;
+      }
+
+      synchronized boolean isShutdown() {
+         return shutdown;
+      }
+
+      private void runTasks() {
+         while (true) {
+            Runnable task;
+            synchronized (this) {
+               task = tasks.poll();
+               if (task == null) {
+                  running = false;
+                  return;
+               }
+            }
+
+            try {
+               task.run();
+            } catch (Throwable t) {
+               SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OSScheduler: Task " + name + " failed", t);
+            }
+         }
+      }
+   }
+}
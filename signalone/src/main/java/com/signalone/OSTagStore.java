@@ -0,0 +1,94 @@
+package com.signalone;
+
+import android.os.SystemClock;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// In memory copy of the push player's tags, for SignalOne.getTag and getTagsSnapshot.
+//   Rebuilt by UserStatePushSynchronizer each time the tags in toSyncUserState change, so it includes
+//   tags not yet synced and leaves out pending deletes. Reads never lock or touch disk,
+//   they see the latest complete snapshot.
+// Stale while revalidate - Once the tags were last fetched from the server more than MAX_AGE_MS ago a read
+//   still returns the local values and starts one fetch in the background.
+class OSTagStore {
+
+   private static final long MAX_AGE_MS = 5 * 60 * 1_000;
+   // So reads on every screen don't start a fetch each time while the server can't be reached
+   private static final long MIN_FETCH_INTERVAL_MS = 30_000;
+
+   // Replaced as a whole, never modified once published
+   private volatile Map<String, String> tags;
+   // elapsedRealtime of the last successful fetch from the server, 0 if none this session
+   private volatile long lastServerFetch;
+   private volatile long lastFetchAttempt;
+   private final AtomicBoolean fetching = new AtomicBoolean();
+
+   boolean isLoaded() {
+      return tags != null;
+   }
+
+   // tagsJson is the "tags" value of syncValues, blank values are deletes that are not synced yet
+   void update(JSONObject tagsJson) {
+      HashMap<String, String> newTags = new HashMap<>();
+      if (tagsJson != null) {
+         Iterator<String> keys = tagsJson.keys();
+         while (keys.hasNext()) {
+            String key = keys.next();
+            String value = tagsJson.optString(key);
+            if (!"".equals(value))
+               newTags.put(key, value);
+         }
+      }
+      tags = Collections.unmodifiableMap(newTags);
+   }
+
+   String get(String key) {
+      Map<String, String> current = tags;
+      return current == null ? null : current.get(key);
+   }
+
+   // Unmodifiable, later changes don't show up in it
+   Map<String, String> getSnapshot() {
+      Map<String, String> current = tags;
+      return current == null ? Collections.<String, String>emptyMap() : current;
+   }
+
+   void onServerFetch() {
+      lastServerFetch = SystemClock.elapsedRealtime();
+   }
+
+   boolean isFresh() {
+      long fetched = lastServerFetch;
+      return fetched != 0 && SystemClock.elapsedRealtime() - fetched < MAX_AGE_MS;
+   }
+
+   // Starts fetchTask in the background if the tags are stale, no fetch is running and the last
+   //   attempt was at least MIN_FETCH_INTERVAL_MS ago
+   void revalidate(final Runnable fetchTask) {
+      if (isFresh())
+         return;
+      if (lastFetchAttempt != 0 && SystemClock.elapsedRealtime() - lastFetchAttempt < MIN_FETCH_INTERVAL_MS)
+         return;
+      if (!fetching.compareAndSet(false, true))
+         return;
+
+      lastFetchAttempt = SystemClock.elapsedRealtime();
+
+      OSScheduler.executeNetwork("OS_GETTAGS_REFRESH", new Runnable() {
+         @Override
+         public void run() {
+            try {
+               fetchTask.run();
+            } finally {
+               fetching.set(false);
+            }
+         }
+      });
+   }
+}
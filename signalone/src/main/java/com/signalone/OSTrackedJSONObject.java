@@ -0,0 +1,101 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// JSONObject used for UserState.syncValues that records which top level keys were set or removed,
+//   so a sync only compares those keys against the other state instead of walking both trees.
+// Nested JSONObjects aren't tracked, the SDK always puts them back at the top level after changing them.
+// Each mark has a version, a key is only cleared if it wasn't marked again while being compared.
+class OSTrackedJSONObject extends JSONObject {
+
+   private final ConcurrentHashMap<String, Long> dirtyKeys = new ConcurrentHashMap<>();
+   private final AtomicLong nextVersion = new AtomicLong();
+   // Set until the first full comparison, e.g. after loading from disk
+   private volatile boolean allDirty = true;
+
+   OSTrackedJSONObject() {
+   }
+
+   // Shallow copy of source, all keys are considered changed
+   OSTrackedJSONObject(JSONObject source) {
+      Iterator<String> keys = source.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         try {
+            super.put(key, source.opt(key));
+         } catch (JSONException e) {
+            e.printStackTrace();
+         }
+      }
+   }
+
+   @Override
+   public JSONObject put(String name, boolean value) throws JSONException {
+      return put(name, (Object)value);
+   }
+
+   @Override
+   public JSONObject put(String name, double value) throws JSONException {
+      return put(name, (Object)value);
+   }
+
+   @Override
+   public JSONObject put(String name, int value) throws JSONException {
+      return put(name, (Object)value);
+   }
+
+   @Override
+   public JSONObject put(String name, long value) throws JSONException {
+      return put(name, (Object)value);
+   }
+
+   @Override
+   public JSONObject put(String name, Object value) throws JSONException {
+      Object current = opt(name);
+      super.put(name, value);
+      // Nested objects and arrays could have changed in place, so only skip plain values
+      if (value == null || !value.equals(current) || value instanceof JSONObject || value instanceof JSONArray)
+         markDirty(name);
+      return this;
+   }
+
+   @Override
+   public Object remove(String name) {
+      Object removed = super.remove(name);
+      if (removed != null)
+         markDirty(name);
+      return removed;
+   }
+
+   void markDirty(String key) {
+      dirtyKeys.put(key, nextVersion.incrementAndGet());
+   }
+
+   // Clears key if it wasn't marked again since version was read from getDirtyKeys()
+   void markClean(String key, Long version) {
+      if (version != null)
+         dirtyKeys.remove(key, version);
+   }
+
+   // Key -> version of its latest mark
+   Map<String, Long> getDirtyKeys() {
+      return new HashMap<>(dirtyKeys);
+   }
+
+   boolean isAllDirty() {
+      return allDirty;
+   }
+
+   // Changes made after this are still recorded by markDirty
+   void setAllDirty(boolean allDirty) {
+      this.allDirty = allDirty;
+   }
+}
@@ -0,0 +1,160 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+// Binary form of a UserState's dependValues and syncValues, used to persist them instead of JSON text.
+//   Values keep their exact type (Integer, Long, Double...) instead of going through number formatting,
+//   and loading doesn't need a JSON parser.
+// Layout: byte VERSION | value dependValues | value syncValues
+//   value: byte type | data, objects and arrays are an int count followed by their entries
+class OSUserStateCodec {
+
+   private static final byte VERSION = 1;
+
+   private static final byte TYPE_NULL = 0;
+   private static final byte TYPE_STRING = 1;
+   private static final byte TYPE_BOOLEAN = 2;
+   private static final byte TYPE_INT = 3;
+   private static final byte TYPE_LONG = 4;
+   private static final byte TYPE_DOUBLE = 5;
+   private static final byte TYPE_OBJECT = 6;
+   private static final byte TYPE_ARRAY = 7;
+
+   static byte[] encode(JSONObject dependValues, JSONObject syncValues) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         out.writeByte(VERSION);
+         writeValue(out, dependValues);
+         writeValue(out, syncValues);
+         out.flush();
+      } catch (IOException e) {
+         // Not thrown by ByteArrayOutputStream
+         throw new IllegalStateException(e);
+      }
+      return bytes.toByteArray();
+   }
+
+   // Returns { dependValues, syncValues }, or null if data is from an unknown version or can't be read
+   static JSONObject[] decode(byte[] data) {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+      try {
+         if (in.readByte() != VERSION)
+            return null;
+
+         Object dependValues = readValue(in);
+         Object syncValues = readValue(in);
+         if (!(dependValues instanceof JSONObject) || !(syncValues instanceof JSONObject))
+            return null;
+
+         return new JSONObject[] { (JSONObject)dependValues, (JSONObject)syncValues };
+      } catch (IOException | JSONException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OSUserStateCodec: Could not read saved UserState", e);
+         return null;
+      }
+   }
+
+   private static void writeValue(DataOutputStream out, Object value) throws IOException {
+      if (value == null || value == JSONObject.NULL)
+         out.writeByte(TYPE_NULL);
+      else if (value instanceof String) {
+         out.writeByte(TYPE_STRING);
+         writeString(out, (String)value);
+      }
+      else if (value instanceof Boolean) {
+         out.writeByte(TYPE_BOOLEAN);
+         out.writeBoolean((Boolean)value);
+      }
+      else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+         out.writeByte(TYPE_INT);
+         out.writeInt(((Number)value).intValue());
+      }
+      else if (value instanceof Long) {
+         out.writeByte(TYPE_LONG);
+         out.writeLong((Long)value);
+      }
+      else if (value instanceof Number) {
+         out.writeByte(TYPE_DOUBLE);
+         out.writeDouble(((Number)value).doubleValue());
+      }
+      else if (value instanceof JSONObject) {
+         JSONObject jsonObject = (JSONObject)value;
+         out.writeByte(TYPE_OBJECT);
+         out.writeInt(jsonObject.length());
+         Iterator<String> keys = jsonObject.keys();
+         while (keys.hasNext()) {
+            String key = keys.next();
+            writeString(out, key);
+            writeValue(out, jsonObject.opt(key));
+         }
+      }
+      else if (value instanceof JSONArray) {
+         JSONArray jsonArray = (JSONArray)value;
+         out.writeByte(TYPE_ARRAY);
+         out.writeInt(jsonArray.length());
+         for (int i = 0; i < jsonArray.length(); i++)
+            writeValue(out, jsonArray.opt(i));
+      }
+      else {
+         // Anything else would have been saved as its toString() in the JSON form
+         out.writeByte(TYPE_STRING);
+         writeString(out, value.toString());
+      }
+   }
+
+   private static Object readValue(DataInputStream in) throws IOException, JSONException {
+      byte type = in.readByte();
+      switch (type) {
+         case TYPE_NULL:
+            return JSONObject.NULL;
+         case TYPE_STRING:
+            return readString(in);
+         case TYPE_BOOLEAN:
+            return in.readBoolean();
+         case TYPE_INT:
+            return in.readInt();
+         case TYPE_LONG:
+            return in.readLong();
+         case TYPE_DOUBLE:
+            return in.readDouble();
+         case TYPE_OBJECT: {
+            int count = in.readInt();
+            JSONObject jsonObject = new JSONObject();
+            for (int i = 0; i < count; i++)
+               jsonObject.put(readString(in), readValue(in));
+            return jsonObject;
+         }
+         case TYPE_ARRAY: {
+            int count = in.readInt();
+            JSONArray jsonArray = new JSONArray();
+            for (int i = 0; i < count; i++)
+               jsonArray.put(readValue(in));
+            return jsonArray;
+         }
+         default:
+            throw new IOException("Unknown value type " + type);
+      }
+   }
+
+   // writeUTF is limited to 64KB, which a tag value could exceed
+   private static void writeString(DataOutputStream out, String value) throws IOException {
+      byte[] bytes = value.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return new String(bytes, "UTF-8");
+   }
+}
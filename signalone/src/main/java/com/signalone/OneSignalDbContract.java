@@ -56,4 +56,14 @@ class OneSignalDbContract {
       public static final String INDEX_CREATE_CREATED_TIME = "CREATE INDEX notification_created_time_idx ON notification(created_time); ";
       public static final String INDEX_CREATE_EXPIRE_TIME = "CREATE INDEX notification_expire_time_idx ON notification(expire_time); ";
    }
+
+   static abstract class OutboxTable implements BaseColumns {
+      public static final String TABLE_NAME = "outbox";
+      public static final String COLUMN_NAME_METHOD = "method";
+      public static final String COLUMN_NAME_URL = "url";
+      public static final String COLUMN_NAME_JSON_BODY = "json_body";
+      public static final String COLUMN_NAME_ATTEMPTS = "attempts";
+      public static final String COLUMN_NAME_NEXT_ATTEMPT_TIME = "next_attempt_time"; // millis since epoch
+      public static final String COLUMN_NAME_CREATED_TIME = "created_time";
+   }
 }
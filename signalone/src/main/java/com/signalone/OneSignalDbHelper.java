@@ -35,12 +35,13 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.os.SystemClock;
 
 import com.signalone.OneSignalDbContract.NotificationTable;
+import com.signalone.OneSignalDbContract.OutboxTable;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class OneSignalDbHelper extends SQLiteOpenHelper {
-   static final int DATABASE_VERSION = 3;
+   static final int DATABASE_VERSION = 4;
    private static final String DATABASE_NAME = "OneSignal.db";
 
    private static final String TEXT_TYPE = " TEXT";
@@ -67,6 +68,17 @@ public class OneSignalDbHelper extends SQLiteOpenHelper {
            NotificationTable.COLUMN_NAME_EXPIRE_TIME + " TIMESTAMP" +
        ");";
 
+   private static final String SQL_CREATE_OUTBOX_ENTRIES =
+       "CREATE TABLE " + OutboxTable.TABLE_NAME + " (" +
+           OutboxTable._ID + " INTEGER PRIMARY KEY," +
+           OutboxTable.COLUMN_NAME_METHOD + TEXT_TYPE + COMMA_SEP +
+           OutboxTable.COLUMN_NAME_URL + TEXT_TYPE + COMMA_SEP +
+           OutboxTable.COLUMN_NAME_JSON_BODY + TEXT_TYPE + COMMA_SEP +
+           OutboxTable.COLUMN_NAME_ATTEMPTS + INT_TYPE + " DEFAULT 0" + COMMA_SEP +
+           OutboxTable.COLUMN_NAME_NEXT_ATTEMPT_TIME + INT_TYPE + " DEFAULT 0" + COMMA_SEP +
+           OutboxTable.COLUMN_NAME_CREATED_TIME + " TIMESTAMP DEFAULT (strftime('%s', 'now'))" +
+       ");";
+
    private static final String[] SQL_INDEX_ENTRIES = {
       NotificationTable.INDEX_CREATE_NOTIFICATION_ID,
       NotificationTable.INDEX_CREATE_ANDROID_NOTIFICATION_ID,
@@ -127,6 +139,7 @@ public class OneSignalDbHelper extends SQLiteOpenHelper {
       for (String ind : SQL_INDEX_ENTRIES) {
          db.execSQL(ind);
       }
+      db.execSQL(SQL_CREATE_OUTBOX_ENTRIES);
    }
 
    @Override
@@ -146,6 +159,9 @@ public class OneSignalDbHelper extends SQLiteOpenHelper {
 
       if (oldVersion < 3)
          upgradeFromV2ToV3(db);
+
+      if (oldVersion < 4)
+         upgradeFromV3ToV4(db);
    }
 
    // Add collapse_id field and index
@@ -174,6 +190,11 @@ public class OneSignalDbHelper extends SQLiteOpenHelper {
       safeExecSQL(db, NotificationTable.INDEX_CREATE_EXPIRE_TIME);
    }
 
+   // Add outbox table for REST calls that must survive process death
+   private static void upgradeFromV3ToV4(SQLiteDatabase db) {
+      safeExecSQL(db, SQL_CREATE_OUTBOX_ENTRIES);
+   }
+
    private static void safeExecSQL(SQLiteDatabase db, String sql) {
       try {
          db.execSQL(sql);
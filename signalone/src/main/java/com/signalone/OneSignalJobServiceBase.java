@@ -17,14 +17,15 @@ abstract class OneSignalJobServiceBase extends JobService {
       
       final JobService jobService = this;
       final JobParameters finalJobParameters = jobParameters;
-      new Thread(new Runnable() {
+      // Processing a notification can download its images
+      OSScheduler.executeNetwork("OS_JOBSERVICE_BASE", new Runnable() {
          public void run() {
             startProcessing(jobService, finalJobParameters);
             jobFinished(finalJobParameters, false);
          }
-      }, "OS_JOBSERVICE_BASE").start();
+      });
       
-      // true as we created a thread and need it to hold a wakelock.
+      // true as the work continues on another thread and needs the wakelock held.
       return true;
    }
    
@@ -0,0 +1,504 @@
+package com.signalone;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.signalone.OneSignalDbContract.OutboxTable;
+
+import org.json.JSONObject;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+
+// Durable queue for fire-and-forget REST calls, notification opens, purchases and focus time.
+//   Requests are written to the outbox table before they are sent and are replayed in order until
+//   the server accepts or rejects them, or they run out of attempts or expire. Delivery is at-least-once;
+//   a retryable failure keeps the row and backs off, and the sync job replays it if the process dies in the meantime.
+// Player create, on_session, player updates and email logout don't go through here. UserStateSynchronizer
+//   builds them from its persisted state and retries them itself, and needs their response to update that state.
+class OneSignalOutbox {
+
+   static final long BASE_RETRY_DELAY_MS = 10_000;
+   static final long MAX_RETRY_DELAY_MS = 30 * 60_000;
+   // About a day of retries at MAX_RETRY_DELAY_MS before a request is given up on
+   static final int MAX_ATTEMPTS = 50;
+   // Requests older than this are dropped instead of being retried forever.
+   private static final long MAX_REQUEST_AGE_SEC = 7 * 24 * 60 * 60;
+   private static final int MAX_BATCH_SIZE = 20;
+
+   private static final String[] COLUMNS = {
+      OutboxTable._ID,
+      OutboxTable.COLUMN_NAME_METHOD,
+      OutboxTable.COLUMN_NAME_URL,
+      OutboxTable.COLUMN_NAME_JSON_BODY,
+      OutboxTable.COLUMN_NAME_ATTEMPTS,
+      OutboxTable.COLUMN_NAME_NEXT_ATTEMPT_TIME,
+      OutboxTable.COLUMN_NAME_CREATED_TIME
+   };
+
+   // Guards draining and drainRequested, never held while a request is sent
+   private static final Object drainLock = new Object();
+   private static boolean draining, drainRequested;
+   private static final Random random = new Random();
+
+   // Handlers only live as long as the process, requests replayed after a restart complete silently.
+   private static final HashMap<Long, OneSignalRestClient.ResponseHandler> pendingHandlers = new HashMap<>();
+
+   // Inserts and drains run one at a time in the order they were asked for, so requests are saved in call order
+   private static final OSScheduler.SerialExecutor executor = new OSScheduler.SerialExecutor("OS_OUTBOX", true);
+   private static ScheduledFuture<?> scheduledDrain;
+   private static volatile Store store = new DbStore();
+   private static int queueDepth = -1;
+
+   static class OutboxRequest {
+      long id;
+      String method;
+      String url;
+      JSONObject jsonBody;
+      int attempts;
+      long nextAttemptTime;
+      long createdTime;
+   }
+
+   private static class OutboxBatch {
+      final ArrayList<OutboxRequest> requests = new ArrayList<>();
+      JSONObject jsonBody;
+
+      OutboxBatch(OutboxRequest first) {
+         requests.add(first);
+         jsonBody = first.jsonBody;
+      }
+   }
+
+   static void put(String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler responseHandler) {
+      enqueue("PUT", url, jsonBody, responseHandler);
+   }
+
+   static void post(String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler responseHandler) {
+      enqueue("POST", url, jsonBody, responseHandler);
+   }
+
+   // Replays any queued requests that are due in the background
+   static void flush() {
+      final Context context = SignalOne.appContext;
+      if (context == null)
+         return;
+
+      executor.execute(new Runnable() {
+         @Override
+         public void run() {
+            drain(context);
+         }
+      });
+   }
+
+   // Replays any queued requests that are due on the calling thread, used by the sync job.
+   //   Returns right away if another thread is draining, that drain then goes around again.
+   @WorkerThread
+   static void flushSync(Context context) {
+      drain(context);
+   }
+
+   // Saves a POST on the calling thread without sending it, the next flush sends it.
+   //   Returns false if it could not be saved, the caller should then send it itself.
+   @WorkerThread
+   static boolean savePost(Context context, String url, JSONObject jsonBody) {
+      if (context == null || SignalOne.shouldLogUserPrivacyConsentErrorMessageForMethodName(null))
+         return false;
+      return insert(context, "POST", url, jsonBody) != -1;
+   }
+
+   // null restores the outbox table
+   static void setStore(@Nullable Store newStore) {
+      store = newStore == null ? new DbStore() : newStore;
+      synchronized (OneSignalOutbox.class) {
+         queueDepth = -1;
+      }
+   }
+
+   // Number of requests waiting to be delivered, -1 if the outbox has not been read yet this process
+   static synchronized int getQueueDepth() {
+      return queueDepth;
+   }
+
+   private static void enqueue(final String method, final String url, final JSONObject jsonBody, final OneSignalRestClient.ResponseHandler responseHandler) {
+      // Same check OneSignalRestClient makes, don't persist anything without privacy consent
+      if (SignalOne.shouldLogUserPrivacyConsentErrorMessageForMethodName(null))
+         return;
+
+      final Context context = SignalOne.appContext;
+      if (context == null) {
+         sendDirect(method, url, jsonBody, responseHandler);
+         return;
+      }
+
+      executor.execute(new Runnable() {
+         @Override
+         public void run() {
+            long id = insert(context, method, url, jsonBody);
+            if (id == -1) {
+               // Could not persist, still make a best effort to send it.
+               sendDirect(method, url, jsonBody, responseHandler);
+               return;
+            }
+
+            if (responseHandler != null) {
+               synchronized (pendingHandlers) {
+                  pendingHandlers.put(id, responseHandler);
+               }
+            }
+
+            drain(context);
+         }
+      });
+   }
+
+   private static void sendDirect(String method, String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler responseHandler) {
+      if ("PUT".equals(method))
+         OneSignalRestClient.put(url, jsonBody, responseHandler);
+      else
+         OneSignalRestClient.post(url, jsonBody, responseHandler);
+   }
+
+   // Only one thread drains at a time so requests go out in order. A drain asked for while one is
+   //   running is folded into it instead of waiting on a lock held across the network calls.
+   private static void drain(Context context) {
+      synchronized (drainLock) {
+         if (draining) {
+            drainRequested = true;
+            return;
+         }
+         draining = true;
+         drainRequested = false;
+      }
+
+      boolean finished = false;
+      try {
+         do {
+            drainDueRequests(context);
+         } while (takeDrainRequest());
+         finished = true;
+      } finally {
+         if (!finished) {
+            synchronized (drainLock) {
+               draining = false;
+            }
+         }
+      }
+   }
+
+   // Clears draining if no drain was asked for since the last pass, otherwise takes the request
+   private static boolean takeDrainRequest() {
+      synchronized (drainLock) {
+         if (!drainRequested) {
+            draining = false;
+            return false;
+         }
+         drainRequested = false;
+         return true;
+      }
+   }
+
+   private static void drainDueRequests(Context context) {
+      if (SignalOne.shouldLogUserPrivacyConsentErrorMessageForMethodName(null))
+         return;
+
+      while (true) {
+         ArrayList<OutboxRequest> requests = store.next(context, MAX_BATCH_SIZE);
+         if (requests.isEmpty())
+            break;
+
+         OutboxRequest request = requests.get(0);
+         if (request.jsonBody == null) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OneSignalOutbox: Dropping unreadable request " + request.method + " " + request.url);
+            store.delete(context, request.id);
+            fireFailure(request.id, -1, null, null);
+            continue;
+         }
+
+         if (System.currentTimeMillis() / 1_000L - request.createdTime > MAX_REQUEST_AGE_SEC) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalOutbox: Dropping " + request.method + " " + request.url + " after " + request.attempts + " attempts, request expired.");
+            store.delete(context, request.id);
+            fireFailure(request.id, -1, null, null);
+            continue;
+         }
+
+         long waitMs = request.nextAttemptTime - System.currentTimeMillis();
+         if (waitMs > 0) {
+            scheduleDrain(context, waitMs);
+            break;
+         }
+
+         // Stop on the first retryable failure so requests are delivered in order.
+         if (!send(context, batchWithFollowing(request, requests)))
+            break;
+      }
+
+      updateQueueDepth(context);
+   }
+
+   // Requests queued back to back for the same player endpoint are sent as one
+   private static OutboxBatch batchWithFollowing(OutboxRequest first, ArrayList<OutboxRequest> requests) {
+      OutboxBatch batch = new OutboxBatch(first);
+      if (!OSRequestBatcher.isBatchable(first.method, first.url))
+         return batch;
+
+      for (int i = 1; i < requests.size(); i++) {
+         OutboxRequest next = requests.get(i);
+         if (next.jsonBody == null
+             || next.nextAttemptTime > System.currentTimeMillis()
+             || !first.method.equals(next.method)
+             || !first.url.equals(next.url))
+            break;
+
+         JSONObject merged = OSRequestBatcher.merge(first.url, batch.jsonBody, next.jsonBody);
+         if (merged == null)
+            break;
+
+         batch.jsonBody = merged;
+         batch.requests.add(next);
+      }
+
+      return batch;
+   }
+
+   // Returns true if the batch is done with, either delivered or permanently rejected.
+   private static boolean send(final Context context, final OutboxBatch batch) {
+      final OutboxRequest first = batch.requests.get(0);
+      final String description = first.method + " " + first.url + (batch.requests.size() > 1 ? " (batch of " + batch.requests.size() + ")" : "");
+      final boolean[] completed = new boolean[1];
+
+      OneSignalRestClient.ResponseHandler handler = new OneSignalRestClient.ResponseHandler() {
+         @Override
+         void onSuccess(String response) {
+            completed[0] = true;
+            for (OutboxRequest request : batch.requests) {
+               store.delete(context, request.id);
+
+               OneSignalRestClient.ResponseHandler responseHandler = removeHandler(request.id);
+               if (responseHandler != null)
+                  responseHandler.onSuccess(response);
+            }
+         }
+
+         @Override
+         void onFailure(int statusCode, String response, Throwable throwable) {
+            if (isRetryable(statusCode) && first.attempts + 1 < MAX_ATTEMPTS) {
+               long delayMs = getRetryDelay(first.attempts + 1);
+               SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "OneSignalOutbox: " + description + " failed with statusCode: " + statusCode + ", retrying in " + (delayMs / 1_000) + " seconds.");
+               for (OutboxRequest request : batch.requests)
+                  store.markAttempt(context, request.id, request.attempts + 1, System.currentTimeMillis() + delayMs);
+               scheduleDrain(context, delayMs);
+               return;
+            }
+
+            completed[0] = true;
+            if (isRetryable(statusCode))
+               SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalOutbox: " + description + " failed with statusCode: " + statusCode + " after " + MAX_ATTEMPTS + " attempts, dropping request.");
+            else
+               SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalOutbox: " + description + " rejected with statusCode: " + statusCode + ", dropping request.");
+            for (OutboxRequest request : batch.requests) {
+               store.delete(context, request.id);
+               fireFailure(request.id, statusCode, response, throwable);
+            }
+         }
+      };
+
+      if ("PUT".equals(first.method))
+         OneSignalRestClient.putSync(first.url, batch.jsonBody, handler, first.attempts);
+      else
+         OneSignalRestClient.postSync(first.url, batch.jsonBody, handler, first.attempts);
+
+      return completed[0];
+   }
+
+   // No response (offline, timeout), throttling and server errors are worth trying again.
+   //   Any other 4xx will never succeed as-is.
+   static boolean isRetryable(int statusCode) {
+      return statusCode <= 0
+          || statusCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+          || statusCode == 429
+          || statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+   }
+
+   // Exponential backoff with jitter, between half and the full delay for this attempt.
+   static long getRetryDelay(int attempt) {
+      long delay = BASE_RETRY_DELAY_MS << Math.min(attempt - 1, 20);
+      if (delay > MAX_RETRY_DELAY_MS)
+         delay = MAX_RETRY_DELAY_MS;
+
+      long half = delay / 2;
+      synchronized (random) {
+         return half + (long)(random.nextDouble() * half);
+      }
+   }
+
+   private static void scheduleDrain(final Context context, long delayMs) {
+      synchronized (OneSignalOutbox.class) {
+         if (scheduledDrain != null)
+            OSScheduler.cancel(scheduledDrain);
+
+         scheduledDrain = OSScheduler.schedule("OS_OUTBOX_RETRY", new Runnable() {
+            @Override
+            public void run() {
+               executor.execute(new Runnable() {
+                  @Override
+                  public void run() {
+                     drain(context);
+                  }
+               });
+            }
+         }, delayMs);
+      }
+
+      // In case the process is killed before the retry above runs
+      OneSignalSyncServiceUtils.scheduleSyncTask(context, delayMs, "outbox retry");
+   }
+
+   private static OneSignalRestClient.ResponseHandler removeHandler(long id) {
+      synchronized (pendingHandlers) {
+         return pendingHandlers.remove(id);
+      }
+   }
+
+   private static void fireFailure(long id, int statusCode, String response, Throwable throwable) {
+      OneSignalRestClient.ResponseHandler responseHandler = removeHandler(id);
+      if (responseHandler != null)
+         responseHandler.onFailure(statusCode, response, throwable);
+   }
+
+   private static long insert(Context context, String method, String url, JSONObject jsonBody) {
+      long id = store.insert(context, method, url, jsonBody.toString());
+      if (id != -1)
+         updateQueueDepth(context);
+      return id;
+   }
+
+   // Where requests are kept between attempts, the outbox table unless a test swaps it out with setStore
+   interface Store {
+      // Returns the new request's id, -1 if it could not be saved
+      long insert(Context context, String method, String url, String jsonBody);
+      // Oldest first, a request whose body can't be read has a null jsonBody
+      ArrayList<OutboxRequest> next(Context context, int limit);
+      void markAttempt(Context context, long id, int attempts, long nextAttemptTime);
+      void delete(Context context, long id);
+      // Returns -1 if it could not be counted
+      int count(Context context);
+   }
+
+   private static class DbStore implements Store {
+      @Override
+      public long insert(Context context, String method, String url, String jsonBody) {
+         ContentValues values = new ContentValues();
+         values.put(OutboxTable.COLUMN_NAME_METHOD, method);
+         values.put(OutboxTable.COLUMN_NAME_URL, url);
+         values.put(OutboxTable.COLUMN_NAME_JSON_BODY, jsonBody);
+         values.put(OutboxTable.COLUMN_NAME_NEXT_ATTEMPT_TIME, 0);
+
+         try {
+            SQLiteDatabase writableDb = OneSignalDbHelper.getInstance(context).getWritableDbWithRetries();
+            return writableDb.insert(OutboxTable.TABLE_NAME, null, values);
+         } catch (Throwable t) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OneSignalOutbox: Error saving request to outbox! ", t);
+            return -1;
+         }
+      }
+
+      @Override
+      public ArrayList<OutboxRequest> next(Context context, int limit) {
+         ArrayList<OutboxRequest> requests = new ArrayList<>();
+         Cursor cursor = null;
+         try {
+            SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(context).getReadableDbWithRetries();
+            cursor = readableDb.query(
+               OutboxTable.TABLE_NAME,
+               COLUMNS,
+               null,
+               null,
+               null,
+               null,
+               OutboxTable._ID + " ASC",
+               String.valueOf(limit)
+            );
+
+            while (cursor.moveToNext()) {
+               OutboxRequest request = new OutboxRequest();
+               request.id = cursor.getLong(cursor.getColumnIndex(OutboxTable._ID));
+               request.method = cursor.getString(cursor.getColumnIndex(OutboxTable.COLUMN_NAME_METHOD));
+               request.url = cursor.getString(cursor.getColumnIndex(OutboxTable.COLUMN_NAME_URL));
+               request.attempts = cursor.getInt(cursor.getColumnIndex(OutboxTable.COLUMN_NAME_ATTEMPTS));
+               request.nextAttemptTime = cursor.getLong(cursor.getColumnIndex(OutboxTable.COLUMN_NAME_NEXT_ATTEMPT_TIME));
+               request.createdTime = cursor.getLong(cursor.getColumnIndex(OutboxTable.COLUMN_NAME_CREATED_TIME));
+               try {
+                  request.jsonBody = new JSONObject(cursor.getString(cursor.getColumnIndex(OutboxTable.COLUMN_NAME_JSON_BODY)));
+               } catch (Throwable t) {
+                  // Left null, dropped by drain()
+               }
+               requests.add(request);
+            }
+         } catch (Throwable t) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OneSignalOutbox: Error reading outbox! ", t);
+         } finally {
+            if (cursor != null)
+               cursor.close();
+         }
+
+         return requests;
+      }
+
+      @Override
+      public void markAttempt(Context context, long id, int attempts, long nextAttemptTime) {
+         ContentValues values = new ContentValues();
+         values.put(OutboxTable.COLUMN_NAME_ATTEMPTS, attempts);
+         values.put(OutboxTable.COLUMN_NAME_NEXT_ATTEMPT_TIME, nextAttemptTime);
+
+         try {
+            SQLiteDatabase writableDb = OneSignalDbHelper.getInstance(context).getWritableDbWithRetries();
+            writableDb.update(OutboxTable.TABLE_NAME, values, OutboxTable._ID + " = " + id, null);
+         } catch (Throwable t) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OneSignalOutbox: Error updating outbox request! ", t);
+         }
+      }
+
+      @Override
+      public void delete(Context context, long id) {
+         try {
+            SQLiteDatabase writableDb = OneSignalDbHelper.getInstance(context).getWritableDbWithRetries();
+            writableDb.delete(OutboxTable.TABLE_NAME, OutboxTable._ID + " = " + id, null);
+         } catch (Throwable t) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OneSignalOutbox: Error deleting outbox request! ", t);
+         }
+      }
+
+      @Override
+      public int count(Context context) {
+         try {
+            SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(context).getReadableDbWithRetries();
+            return (int)DatabaseUtils.queryNumEntries(readableDb, OutboxTable.TABLE_NAME);
+         } catch (Throwable t) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OneSignalOutbox: Error counting outbox requests! ", t);
+            return -1;
+         }
+      }
+   }
+
+   private static void updateQueueDepth(Context context) {
+      int depth = store.count(context);
+      if (depth == -1)
+         return;
+
+      synchronized (OneSignalOutbox.class) {
+         if (depth != queueDepth)
+            SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalOutbox: queue depth " + depth);
+         queueDepth = depth;
+      }
+   }
+}
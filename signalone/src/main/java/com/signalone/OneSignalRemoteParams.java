@@ -1,11 +1,13 @@
 package com.signalone;
 
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
 
 class OneSignalRemoteParams {
@@ -28,9 +30,15 @@ class OneSignalRemoteParams {
    private static final int INCREASE_BETWEEN_RETRIES = 10_000;
    private static final int MIN_WAIT_BETWEEN_RETRIES = 30_000;
    private static final int MAX_WAIT_BETWEEN_RETRIES = 90_000;
+   private static volatile int minWaitBetweenRetries = MIN_WAIT_BETWEEN_RETRIES;
+
+   // Used by tests, 0 restores the default
+   static void setMinWaitBetweenRetries(int waitMs) {
+      minWaitBetweenRetries = waitMs > 0 ? waitMs : MIN_WAIT_BETWEEN_RETRIES;
+   }
 
    static void makeAndroidParamsRequest(final @NonNull CallBack callBack) {
-      OneSignalRestClient.ResponseHandler responseHandler = new OneSignalRestClient.ResponseHandler() {
+      OneSignalRestClient.ResponseHandler responseHandler = new OneSignalRestClient.StreamingResponseHandler<Params>() {
          @Override
          void onFailure(int statusCode, String response, Throwable throwable) {
             if (statusCode == HttpURLConnection.HTTP_FORBIDDEN) {
@@ -38,23 +46,24 @@ class OneSignalRemoteParams {
                return;
             }
 
-            new Thread(new Runnable() {
-               public void run() {
-                  int sleepTime = MIN_WAIT_BETWEEN_RETRIES + androidParamsReties * INCREASE_BETWEEN_RETRIES;
-                  if (sleepTime > MAX_WAIT_BETWEEN_RETRIES)
-                     sleepTime = MAX_WAIT_BETWEEN_RETRIES;
-
-                  SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "Failed to get Android parameters, trying again in " + (sleepTime / 1_000) +  " seconds.");
-                  OSUtils.sleep(sleepTime);
-                  androidParamsReties++;
-                  makeAndroidParamsRequest(callBack);
-               }
-            }, "OS_PARAMS_REQUEST").start();
+            scheduleRetry(callBack);
+         }
+
+         @Override
+         Params parse(JsonReader reader) throws IOException, JSONException {
+            return readParams(reader);
          }
 
          @Override
-         void onSuccess(String response) {
-            processJson(response, callBack);
+         void onParsed(Params params) {
+            // Init waits for the params, so a body that couldn't be parsed is retried like a failed request
+            if (params == null) {
+               SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "Error parsing android_params!");
+               scheduleRetry(callBack);
+               return;
+            }
+
+            callBack.complete(params);
          }
       };
 
@@ -67,26 +76,74 @@ class OneSignalRemoteParams {
       OneSignalRestClient.get(params_url, responseHandler, OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS);
    }
 
-   static private void processJson(String json, final @NonNull CallBack callBack) {
-      final JSONObject responseJson;
-      try {
-         responseJson = new JSONObject(json);
-      }
-      catch (NullPointerException | JSONException t) {
-         SignalOne.Log(SignalOne.LOG_LEVEL.FATAL, "Error parsing android_params!: ", t);
-         SignalOne.Log(SignalOne.LOG_LEVEL.FATAL, "Response that errored from android_params!: " + json);
-         return;
+   private static void scheduleRetry(final @NonNull CallBack callBack) {
+      int sleepTime = minWaitBetweenRetries + androidParamsReties * INCREASE_BETWEEN_RETRIES;
+      if (sleepTime > MAX_WAIT_BETWEEN_RETRIES)
+         sleepTime = MAX_WAIT_BETWEEN_RETRIES;
+
+      SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "Failed to get Android parameters, trying again in " + (sleepTime / 1_000) +  " seconds.");
+      // Scheduled instead of sleeping so no thread is held while waiting
+      OSScheduler.scheduleNetwork("OS_PARAMS_REQUEST", new Runnable() {
+         public void run() {
+            androidParamsReties++;
+            makeAndroidParamsRequest(callBack);
+         }
+      }, sleepTime);
+   }
+
+   // Only keys in Params are kept, anything else in the response is skipped without being built
+   static private Params readParams(JsonReader reader) throws IOException, JSONException {
+      Params params = new Params();
+      params.restoreTTLFilter = true;
+
+      reader.beginObject();
+      while (reader.hasNext()) {
+         String name = reader.nextName();
+         if (reader.peek() == JsonToken.NULL) {
+            reader.skipValue();
+            continue;
+         }
+
+         switch (name) {
+            case "enterp":
+               params.enterprise = readBoolean(reader, false);
+               break;
+            case "use_email_auth":
+               params.useEmailAuth = readBoolean(reader, false);
+               break;
+            case "chnl_lst":
+               if (reader.peek() == JsonToken.BEGIN_ARRAY)
+                  params.notificationChannels = JSONUtils.readJSONArray(reader);
+               else
+                  reader.skipValue();
+               break;
+            case "fba":
+               params.firebaseAnalytics = readBoolean(reader, false);
+               break;
+            case "restore_ttl_filter":
+               params.restoreTTLFilter = readBoolean(reader, true);
+               break;
+            case "android_sender_id":
+               params.googleProjectNumber = JSONUtils.readJSONValue(reader).toString();
+               break;
+            default:
+               reader.skipValue();
+         }
       }
+      reader.endObject();
 
-      Params params = new Params() {{
-         enterprise = responseJson.optBoolean("enterp", false);
-         useEmailAuth = responseJson.optBoolean("use_email_auth", false);
-         notificationChannels = responseJson.optJSONArray("chnl_lst");
-         firebaseAnalytics = responseJson.optBoolean("fba", false);
-         restoreTTLFilter = responseJson.optBoolean("restore_ttl_filter", true);
-         googleProjectNumber = responseJson.optString("android_sender_id", null);
-      }};
+      return params;
+   }
 
-      callBack.complete(params);
+   // Same coercion as JSONObject.optBoolean
+   static private boolean readBoolean(JsonReader reader, boolean fallback) throws IOException, JSONException {
+      Object value = JSONUtils.readJSONValue(reader);
+      if (value instanceof Boolean)
+         return (Boolean)value;
+      if ("true".equalsIgnoreCase(value.toString()))
+         return true;
+      if ("false".equalsIgnoreCase(value.toString()))
+         return false;
+      return fallback;
    }
 }
@@ -27,17 +27,39 @@
 
 package com.signalone;
 
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.JsonReader;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.FilterInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 class OneSignalRestClient {
    static abstract class ResponseHandler {
@@ -45,95 +67,347 @@ class OneSignalRestClient {
       void onFailure(int statusCode, String response, Throwable throwable) {}
    }
 
+   // Parses a successful response while it is read from the connection or cache,
+   //   no String of the full body is made. onParsed gets null if the body could not be parsed.
+   static abstract class StreamingResponseHandler<T> extends ResponseHandler {
+      abstract T parse(JsonReader reader) throws IOException, JSONException;
+      void onParsed(@Nullable T result) {}
+   }
+
+   // Opens the connection for each request. Replaced to point the SDK at a stub server or fake connections.
+   interface Transport {
+      HttpURLConnection openConnection(URL url) throws IOException;
+   }
+
+   static class HttpURLConnectionTransport implements Transport {
+      @Override
+      public HttpURLConnection openConnection(URL url) throws IOException {
+         return (HttpURLConnection)url.openConnection();
+      }
+   }
+
    static final String CACHE_KEY_GET_TAGS = "CACHE_KEY_GET_TAGS";
    static final String CACHE_KEY_REMOTE_PARAMS = "CACHE_KEY_REMOTE_PARAMS";
 
    private static final String BASE_URL = "https://signalone.app/api/v1/";
+   private static volatile String baseUrl = BASE_URL;
+   private static volatile Transport transport = new HttpURLConnectionTransport();
    private static final int TIMEOUT = 120_000;
    private static final int GET_TIMEOUT = 60_000;
-   
+   private static final int READ_BUFFER_SIZE = 4 * 1024;
+   private static final String UTF_8 = "UTF-8";
+
+   // Small bodies aren't worth the CPU or the gzip header overhead
+   static final int GZIP_MIN_BODY_BYTES = 1024;
+   private static volatile boolean gzipRequestBodies;
+
+   // Connections are kept alive by HttpURLConnection's own pool so back to back calls skip the TCP and TLS handshake
+   static final OSConnectionPool connectionPool = new OSConnectionPool();
+
+   // Requests wait here until their lane may start one, see dispatchPendingRequests
+   private static final PriorityQueue<HttpRequestTask> pendingRequests = new PriorityQueue<>(11, new Comparator<HttpRequestTask>() {
+      @Override
+      public int compare(HttpRequestTask lhs, HttpRequestTask rhs) {
+         if (lhs.priority != rhs.priority)
+            return lhs.priority.compareTo(rhs.priority);
+         return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+      }
+   });
+   // Requests handed to the network pool that no thread has picked up yet, see HttpRequestTask.awaitResponse
+   private static final ArrayList<HttpRequestTask> startingRequests = new ArrayList<>();
+   private static final AtomicLong requestSequence = new AtomicLong();
+   private static int runningRequests;
+
+   // In flight and recently completed GETs, see makeSingleFlightGet
+   private static final int GET_FRESH_MS = 5_000;
+   private static final HashMap<String, HttpRequestTask> singleFlightGets = new HashMap<>();
+   private static final HashMap<String, FreshResponse> freshGets = new HashMap<>();
+
+   static final OSNetworkMetrics networkMetrics = new OSNetworkMetrics();
+   static volatile SignalOne.NetworkMetricsListener metricsListener;
+
+   // Shared with UserStateSynchronizer so sync retries wait out an open circuit
+   static final OSNetworkHealth networkHealth = new OSNetworkHealth();
+
+   // Async requests and callbacks run on OSScheduler's network pool, sync requests on the caller's thread.
+   //   Requests running at once are capped at the pool's size either way, see Priority.
+   static final int NETWORK_POOL_SIZE = OSScheduler.MAX_NETWORK_THREADS;
+
+   private static final OSRequestBatcher batcher = new OSRequestBatcher(new OSRequestBatcher.Sender() {
+      @Override
+      public void send(String method, String url, JSONObject jsonBody, ResponseHandler responseHandler) {
+         makeRequest(url, method, jsonBody, responseHandler, TIMEOUT, null, true, 0);
+      }
+   });
+
+   // Off by default, request bodies are only compressed for apps that opt in through SignalOne.Builder
+   static void setGzipRequestBodies(boolean enable) {
+      gzipRequestBodies = enable;
+   }
+
+   // null restores the default
+   static void setBaseUrl(@Nullable String url) {
+      baseUrl = url == null ? BASE_URL : url;
+   }
+
+   static void setTransport(@Nullable Transport newTransport) {
+      transport = newTransport == null ? new HttpURLConnectionTransport() : newTransport;
+   }
+
+   // How long idle connections are kept for the next request, 0 sends Connection: close and closes each one once it completes
+   static void setConnectionIdleTimeout(long timeoutMs) {
+      connectionPool.setIdleTimeout(timeoutMs);
+   }
+
    private static int getThreadTimeout(int timeout) {
       return timeout + 5_000;
    }
 
    public static void put(final String url, final JSONObject jsonBody, final ResponseHandler responseHandler) {
-
-      new Thread(new Runnable() {
-         public void run() {
-            makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null);
-         }
-      }).start();
+      if (!batcher.add("PUT", url, jsonBody, responseHandler))
+         makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null, true, 0);
    }
 
    public static void post(final String url, final JSONObject jsonBody, final ResponseHandler responseHandler) {
-      new Thread(new Runnable() {
-         public void run() {
-            makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null);
-         }
-      }).start();
+      if (!batcher.add("POST", url, jsonBody, responseHandler))
+         makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null, true, 0);
    }
 
    public static void get(final String url, final ResponseHandler responseHandler, @NonNull final String cacheKey) {
-      new Thread(new Runnable() {
-         public void run() {
-            makeRequest(url, null, null, responseHandler, GET_TIMEOUT, cacheKey);
-         }
-      }).start();
+      makeRequest(url, null, null, responseHandler, GET_TIMEOUT, cacheKey, true, 0);
    }
 
    public static void getSync(final String url, final ResponseHandler responseHandler, @NonNull String cacheKey) {
-      makeRequest(url, null, null, responseHandler, GET_TIMEOUT, cacheKey);
+      makeRequest(url, null, null, responseHandler, GET_TIMEOUT, cacheKey, false, 0);
    }
 
    public static void putSync(String url, JSONObject jsonBody, ResponseHandler responseHandler) {
-      makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null);
+      putSync(url, jsonBody, responseHandler, 0);
    }
 
    public static void postSync(String url, JSONObject jsonBody, ResponseHandler responseHandler) {
-      makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null);
+      postSync(url, jsonBody, responseHandler, 0);
    }
-   
-   private static void makeRequest(final String url, final String method, final JSONObject jsonBody, final ResponseHandler responseHandler, final int timeout, final String cacheKey) {
+
+   // retryCount - Attempts made before this one, only reported in OSNetworkRequestMetrics
+   static void putSync(String url, JSONObject jsonBody, ResponseHandler responseHandler, int retryCount) {
+      makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null, false, retryCount);
+   }
+
+   static void postSync(String url, JSONObject jsonBody, ResponseHandler responseHandler, int retryCount) {
+      makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null, false, retryCount);
+   }
+
+   // async - Callback fires on the network pool.
+   //         Otherwise the request runs and the callback fires on the calling thread, once its lane has room.
+   private static void makeRequest(final String url, final String method, final JSONObject jsonBody, final ResponseHandler responseHandler, final int timeout, final String cacheKey, boolean async, int retryCount) {
       // If not a GET request, check if the user provided privacy consent if the application is set to require user privacy consent
       if (method != null && SignalOne.shouldLogUserPrivacyConsentErrorMessageForMethodName(null))
          return;
-   
-      final Thread[] callbackThread = new Thread[1];
-      Thread connectionThread = new Thread(new Runnable() {
+
+      HttpCall call = new HttpCall(url, method, jsonBody, timeout, cacheKey, responseHandler);
+      call.retryCount = retryCount;
+      if (method == null) {
+         makeSingleFlightGet(call, responseHandler, async);
+         return;
+      }
+
+      HttpRequestTask task = new HttpRequestTask(call, null);
+      if (async)
+         task.addAsyncHandler(responseHandler);
+      else
+         task.runsOnCaller = true;
+      enqueue(task);
+
+      if (!async)
+         callResponseHandler(responseHandler, task.awaitResponse(true));
+   }
+
+   // Callers of the same GET share one request. A caller arriving while it is in flight attaches to it,
+   //   one arriving within GET_FRESH_MS of a successful response gets that response without a request.
+   private static void makeSingleFlightGet(HttpCall call, final ResponseHandler responseHandler, boolean async) {
+      // Streaming handlers only share with the same handler class, so every caller gets the type it parses
+      String key = call.url + (call.parser != null ? " " + call.parser.getClass().getName() : "");
+
+      HttpRequestTask task = null;
+      HttpResponse freshResponse = null;
+      boolean newTask = false;
+      // Only the maps are used under the lock, handlers are called after it is released
+      synchronized (singleFlightGets) {
+         FreshResponse fresh = freshGets.get(key);
+         if (fresh != null && SystemClock.elapsedRealtime() - fresh.time < GET_FRESH_MS) {
+            SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Using response from " + (SystemClock.elapsedRealtime() - fresh.time) + "ms ago for: " + call.url);
+            freshResponse = fresh.response;
+         }
+         else
+            task = singleFlightGets.get(key);
+         if (freshResponse == null) {
+            if (task == null) {
+               task = new HttpRequestTask(call, key);
+               singleFlightGets.put(key, task);
+               newTask = true;
+            }
+            else
+               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Joining in flight request to: " + call.url);
+         }
+      }
+
+      if (freshResponse != null) {
+         final HttpResponse response = freshResponse;
+         if (!async)
+            callResponseHandler(responseHandler, response);
+         else if (responseHandler != null) {
+            OSScheduler.executeNetwork("OS_HTTPCallback", new Runnable() {
+               @Override
+               public void run() {
+                  callResponseHandler(responseHandler, response);
+               }
+            });
+         }
+         return;
+      }
+
+      // Dispatches right away if the task finished since it was looked up
+      if (async)
+         task.addAsyncHandler(responseHandler);
+
+      if (newTask) {
+         task.runsOnCaller = !async;
+         enqueue(task);
+      }
+
+      // Other callers may be attached, so a sync caller giving up leaves the request queued for them
+      if (!async)
+         callResponseHandler(responseHandler, task.awaitResponse(false));
+   }
+
+   private static void enqueue(HttpRequestTask task) {
+      task.call.enqueueTime = SystemClock.elapsedRealtime();
+      synchronized (pendingRequests) {
+         pendingRequests.add(task);
+         dispatchPendingRequests();
+      }
+   }
+
+   private static void onRequestFinished() {
+      synchronized (pendingRequests) {
+         runningRequests--;
+         dispatchPendingRequests();
+      }
+   }
+
+   // Starts requests in priority order while the lane of the next one has room.
+   //   A sync caller's own request is left for the caller to run, the rest go to the network pool.
+   //   Must be called while holding pendingRequests.
+   private static void dispatchPendingRequests() {
+      HttpRequestTask next;
+      boolean dispatched = false;
+      while ((next = pendingRequests.peek()) != null && runningRequests < next.priority.maxRunning) {
+         pendingRequests.poll();
+         runningRequests++;
+         if (next.priority != Priority.REGISTRATION && !pendingRequests.isEmpty())
+            SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OneSignalRestClient: Starting " + next.priority + " request, " + pendingRequests.size() + " still waiting");
+         next.dispatched = true;
+         dispatched = true;
+         if (!next.runsOnCaller) {
+            startingRequests.add(next);
+            OSScheduler.executeNetwork("OS_HTTPRequest", next);
+         }
+      }
+
+      // Wakes sync callers waiting on a lane
+      if (dispatched)
+         pendingRequests.notifyAll();
+   }
+
+   private static void reportMetrics(HttpCall call, HttpResponse response) {
+      final OSNetworkRequestMetrics metrics = new OSNetworkRequestMetrics();
+      metrics.endpoint = call.template;
+      metrics.method = call.method == null ? "GET" : call.method;
+      if (call.startTime != 0) {
+         metrics.queueWaitMs = call.startTime - call.enqueueTime;
+         metrics.totalMs = SystemClock.elapsedRealtime() - call.startTime;
+      }
+      metrics.connectMs = call.connectMs;
+      metrics.timeToFirstByteMs = call.timeToFirstByteMs;
+      metrics.requestBytes = call.requestBytes;
+      metrics.responseBytes = call.responseBytes;
+      metrics.cacheHit = call.cacheHit;
+      metrics.statusCode = call.cacheHit ? HttpURLConnection.HTTP_NOT_MODIFIED : response.statusCode;
+      metrics.retryCount = call.retryCount;
+
+      networkMetrics.record(metrics);
+
+      final SignalOne.NetworkMetricsListener listener = metricsListener;
+      if (listener == null)
+         return;
+
+      OSScheduler.executeNetwork("OS_HTTPCallback", new Runnable() {
+         @Override
          public void run() {
-            callbackThread[0] = startHTTPConnection(url, method, jsonBody, responseHandler, timeout, cacheKey);
+            try {
+               listener.onRequestCompleted(metrics);
+            } catch (Throwable t) {
+               SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "Exception thrown from NetworkMetricsListener", t);
+            }
          }
-      }, "OS_HTTPConnection");
-      
-      connectionThread.start();
-      
-      // getResponseCode() can hang past it's timeout setting so join it's thread to ensure it is timing out.
-      try {
-         connectionThread.join(getThreadTimeout(timeout));
-         if (connectionThread.getState() != Thread.State.TERMINATED)
-            connectionThread.interrupt();
-         if (callbackThread[0] != null)
-            callbackThread[0].join();
-      } catch (InterruptedException e) {
-         e.printStackTrace();
+      });
+   }
+
+   // A PUT or POST may have changed what a GET would return, such as player tags
+   private static void clearFreshGets() {
+      synchronized (singleFlightGets) {
+         freshGets.clear();
+      }
+   }
+
+   private static void completeSingleFlightGet(String key, HttpRequestTask task) {
+      synchronized (singleFlightGets) {
+         if (singleFlightGets.get(key) == task)
+            singleFlightGets.remove(key);
+
+         HttpResponse response = task.getResponse();
+         // A body that couldn't be parsed isn't shared, so a retry sends the request again
+         if (response.success && (task.call.parser == null || response.parsed != null))
+            freshGets.put(key, new FreshResponse(response));
+         else
+            freshGets.remove(key);
       }
    }
-   
-   private static Thread startHTTPConnection(String url, String method, JSONObject jsonBody, ResponseHandler responseHandler, int timeout, @Nullable String cacheKey) {
+
+   private static HttpResponse startHTTPConnection(HttpCall call) {
+      String url = call.url;
+      String method = call.method;
+      String cacheKey = call.cacheKey;
+      int timeout = call.timeout;
+
       int httpResponse = -1;
+      boolean connected = false;
       HttpURLConnection con = null;
-      Thread callbackThread;
-   
+      HttpResponse response;
+      // True once the response has been read to the end, the connection can then go back to the pool
+      boolean released = false;
+
+      if (!networkHealth.allowRequest(call.template)) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Not sending request to " + baseUrl + url + ", recent requests to " + call.template + " could not connect.");
+         return HttpResponse.failure(-1, null, new ConnectException("Circuit open for " + call.template));
+      }
+
+      long startTime = call.startTime = SystemClock.elapsedRealtime();
       try {
-         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Making request to: " + BASE_URL + url);
+         SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Making request to: " + baseUrl + url);
          con = newHttpURLConnection(url);
+         call.connection = con;
+         connectionPool.onRequestStart(con);
 
          con.setUseCaches(false);
          con.setConnectTimeout(timeout);
          con.setReadTimeout(timeout);
          con.setRequestProperty("SDK-Version", "onesignal/android/" + SignalOne.VERSION);
+         // Setting this ourselves turns off the platform's transparent gzip, responses are decoded in getResponseStream
+         con.setRequestProperty("Accept-Encoding", "gzip");
 
-         if (jsonBody != null)
+         if (call.jsonBody != null)
             con.setDoInput(true);
 
          if (method != null) {
@@ -142,137 +416,569 @@ class OneSignalRestClient {
             con.setDoOutput(true);
          }
 
-         if (jsonBody != null) {
-            String strJsonBody = jsonBody.toString();
+         if (cacheKey != null) {
+            String eTag = OSHttpCache.getETag(cacheKey);
+            if (eTag != null) {
+               con.setRequestProperty("if-none-match", eTag);
+               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Adding header if-none-match: " + eTag);
+            }
+         }
+
+         byte[] sendBytes = null;
+         if (call.jsonBody != null) {
+            String strJsonBody = call.jsonBody.toString();
             SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + method + " SEND JSON: " + strJsonBody);
 
-            byte[] sendBytes = strJsonBody.getBytes("UTF-8");
+            sendBytes = strJsonBody.getBytes("UTF-8");
+            if (gzipRequestBodies && sendBytes.length >= GZIP_MIN_BODY_BYTES) {
+               byte[] gzipBytes = gzip(sendBytes);
+               if (gzipBytes.length < sendBytes.length) {
+                  SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OneSignalRestClient: gzip request body " + sendBytes.length + " -> " + gzipBytes.length + " bytes");
+                  con.setRequestProperty("Content-Encoding", "gzip");
+                  sendBytes = gzipBytes;
+               }
+            }
             con.setFixedLengthStreamingMode(sendBytes.length);
+         }
+
+         // Connecting separately only so it can be timed, headers can't be changed after this
+         con.connect();
+         connected = true;
+         call.connectMs = SystemClock.elapsedRealtime() - startTime;
 
+         if (sendBytes != null) {
             OutputStream outputStream = con.getOutputStream();
             outputStream.write(sendBytes);
-         }
-
-         if (cacheKey != null) {
-            String eTag = SignalOnePrefs.getString(
-               SignalOnePrefs.PREFS_ONESIGNAL,
-                    SignalOnePrefs.PREFS_OS_ETAG_PREFIX + cacheKey,
-               null
-            );
-            if (eTag != null) {
-               con.setRequestProperty("if-none-match", eTag);
-               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Adding header if-none-match: " + eTag);
-            }
+            outputStream.close();
+            call.requestBytes = sendBytes.length;
          }
 
          // Network request is made from getResponseCode()
          httpResponse = con.getResponseCode();
+         call.timeToFirstByteMs = SystemClock.elapsedRealtime() - startTime;
+         Boolean reused = connectionPool.onConnected(con);
+         if (reused != null)
+            SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OneSignalRestClient: " + (reused ? "Reused pooled connection" : "Opened new connection")
+               + " (reused: " + connectionPool.getReusedCount() + ", new: " + connectionPool.getNewCount() + ")");
+         networkHealth.recordResponse(call.template, call.timeToFirstByteMs);
 
-         SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OneSignalRestClient: After con.getResponseCode to: " + BASE_URL + url);
+         SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "OneSignalRestClient: After con.getResponseCode to: " + baseUrl + url);
 
          switch (httpResponse) {
            case HttpURLConnection.HTTP_NOT_MODIFIED: // 304
-               String cachedResponse = SignalOnePrefs.getString(
-                       SignalOnePrefs.PREFS_ONESIGNAL,
-                       SignalOnePrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey,
-                  null
-               );
+               call.cacheHit = true;
+               try {
+                  released = drainAndClose(getResponseStream(call, con, con.getInputStream()));
+               } catch (IOException e) {}
+
+               if (call.parser != null) {
+                  SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + (method == null ? "GET" : method) + " - Using Cached response due to 304");
+                  response = HttpResponse.parsed(parseCachedResponse(call));
+                  break;
+               }
+
+               String cachedResponse = OSHttpCache.getBody(cacheKey);
               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + (method == null ? "GET" : method) + " - Using Cached response due to 304: " + cachedResponse);
-               callbackThread = callResponseHandlerOnSuccess(responseHandler, cachedResponse);
+               response = HttpResponse.success(cachedResponse);
             break;
             case HttpURLConnection.HTTP_OK: // 200
-               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Successfully finished request to: " + BASE_URL + url);
+               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Successfully finished request to: " + baseUrl + url);
 
-               InputStream inputStream = con.getInputStream();
-               Scanner scanner = new Scanner(inputStream, "UTF-8");
-               String json = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
-               scanner.close();
+               InputStream inputStream = getResponseStream(call, con, con.getInputStream());
+               if (call.parser != null) {
+                  // The cache copy is written as the parser reads, the stream is then drained once through it
+                  OSHttpCache.Writer cacheWriter = editCache(call, con.getHeaderField("etag"));
+                  if (cacheWriter != null)
+                     inputStream = OSHttpCache.tee(inputStream, cacheWriter);
+
+                  Object parsed = parse(call, inputStream);
+                  // The parser stops at the end of the JSON value, anything after it still has to be read
+                  released = drainAndClose(inputStream);
+                  if (cacheWriter != null)
+                     finishCache(call, cacheWriter, parsed != null && released);
+
+                  response = HttpResponse.parsed(parsed);
+                  break;
+               }
+
+               String json = readBody(inputStream);
+               released = true;
                SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + (method == null ? "GET" : method) + " RECEIVED JSON: " + json);
 
                if (cacheKey != null) {
                   String eTag = con.getHeaderField("etag");
                   if (eTag != null) {
                      SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Response has etag of " + eTag + " so caching the response.");
-                     SignalOnePrefs.saveString(
-                             SignalOnePrefs.PREFS_ONESIGNAL,
-                             SignalOnePrefs.PREFS_OS_ETAG_PREFIX + cacheKey,
-                        eTag
-                     );
-                     SignalOnePrefs.saveString(
-                             SignalOnePrefs.PREFS_ONESIGNAL,
-                             SignalOnePrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey,
-                        json
-                     );
+                     OSHttpCache.put(cacheKey, eTag, json);
                   }
                }
 
-               callbackThread = callResponseHandlerOnSuccess(responseHandler, json);
+               response = HttpResponse.success(json);
                break;
             default: // Request failed
-               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Failed request to: " + BASE_URL + url);
+               SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Failed request to: " + baseUrl + url);
                inputStream = con.getErrorStream();
                if (inputStream == null)
                   inputStream = con.getInputStream();
+               inputStream = getResponseStream(call, con, inputStream);
 
                if (inputStream != null) {
-                  scanner = new Scanner(inputStream, "UTF-8");
-                  json = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
-                  scanner.close();
+                  json = readBody(inputStream);
+                  released = true;
                   SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalRestClient: " + method + " RECEIVED JSON: " + json);
                }
-               else
+               else {
+                  released = true;
                   SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalRestClient: " + method + " HTTP Code: " + httpResponse + " No response body!");
+               }
 
-               callbackThread = callResponseHandlerOnFailure(responseHandler, httpResponse, null, null);
+               long retryAfterMs = getRetryAfterMs(con);
+               if (retryAfterMs > 0)
+                  networkHealth.recordRetryAfter(call.template, retryAfterMs);
+
+               response = HttpResponse.failure(httpResponse, null, null);
          }
       } catch (Throwable t) {
-         if (t instanceof java.net.ConnectException || t instanceof java.net.UnknownHostException)
+         if (isConnectFailure(t, connected))
+            networkHealth.recordFailure(call.template);
+
+         if (t instanceof ConnectException || t instanceof UnknownHostException)
             SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "OneSignalRestClient: Could not send last request, device is offline. Throwable: " + t.getClass().getName());
          else
             SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalRestClient: " + method + " Error thrown from network stack. ", t);
-   
-         callbackThread = callResponseHandlerOnFailure(responseHandler, httpResponse, null, t);
+
+         response = HttpResponse.failure(httpResponse, null, t);
       }
       finally {
-         if (con != null)
+         // disconnect() closes the socket, only done when the connection can't be reused
+         if (con != null && (!released || !connectionPool.isKeepAlive()))
             con.disconnect();
+         if (con != null)
+            connectionPool.onRequestEnd();
       }
-      
-      return callbackThread;
+
+      return response;
    }
-   
-   
-   // These helper methods run the callback a new thread so they don't count towards the fallback thread join timer.
-   
-   private static Thread callResponseHandlerOnSuccess(final ResponseHandler handler, final String response) {
-      if (handler == null)
+
+   // Only these count against the circuit breaker. A read timeout or a dropped response means the
+   //   server was reached, and a bug on our side must not cut the endpoint off.
+   static boolean isConnectFailure(Throwable t, boolean connected) {
+      if (t instanceof ConnectException || t instanceof UnknownHostException)
+         return true;
+      return t instanceof SocketTimeoutException && !connected;
+   }
+
+   // Counts bytes as received on the wire, before gzip decoding
+   private static InputStream getResponseStream(final HttpCall call, HttpURLConnection con, InputStream inputStream) throws IOException {
+      if (inputStream == null)
          return null;
-      
-      Thread thread = new Thread(new Runnable() {
-         public void run() {
-            handler.onSuccess(response);
+
+      inputStream = new FilterInputStream(inputStream) {
+         @Override
+         public int read() throws IOException {
+            int read = super.read();
+            if (read != -1)
+               call.responseBytes++;
+            return read;
          }
-      });
-      thread.start();
-      
-      return thread;
+
+         @Override
+         public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0)
+               call.responseBytes += read;
+            return read;
+         }
+      };
+
+      if ("gzip".equalsIgnoreCase(con.getContentEncoding()))
+         return new GZIPInputStream(inputStream, READ_BUFFER_SIZE);
+      return inputStream;
    }
-   
-   private static Thread callResponseHandlerOnFailure(final ResponseHandler handler, final int statusCode, final String response, final Throwable throwable) {
-      if (handler == null)
+
+   // Reads to the end and closes, a connection is only returned to the pool once its response is fully read
+   private static boolean drainAndClose(InputStream inputStream) {
+      if (inputStream == null)
+         return true;
+
+      try {
+         byte[] buffer = new byte[READ_BUFFER_SIZE];
+         while (inputStream.read(buffer) != -1);
+         inputStream.close();
+         return true;
+      } catch (IOException e) {
+         return false;
+      }
+   }
+
+   // Retry-After is either a number of seconds or an HTTP date, 0 if missing
+   private static long getRetryAfterMs(HttpURLConnection con) {
+      String retryAfter = con.getHeaderField("Retry-After");
+      if (retryAfter == null)
+         return 0;
+
+      try {
+         return Math.max(0, Long.parseLong(retryAfter.trim()) * 1_000);
+      } catch (NumberFormatException e) {
+         long retryAt = con.getHeaderFieldDate("Retry-After", 0);
+         return retryAt == 0 ? 0 : Math.max(0, retryAt - System.currentTimeMillis());
+      }
+   }
+
+   private static byte[] gzip(byte[] bytes) throws IOException {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 2);
+      GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+      gzipOutputStream.write(bytes);
+      gzipOutputStream.close();
+      return outputStream.toByteArray();
+   }
+
+   // Returns null if the response has no etag or can't be cached
+   private static OSHttpCache.Writer editCache(HttpCall call, @Nullable String eTag) {
+      if (call.cacheKey == null || eTag == null)
          return null;
-   
-      Thread thread = new Thread(new Runnable() {
-         public void run() {
-            handler.onFailure(statusCode, response, throwable);
-         }
-      });
-      thread.start();
-      
-      return thread;
+
+      SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, "OneSignalRestClient: Response has etag of " + eTag + " so caching the response.");
+      return OSHttpCache.edit(call.cacheKey, eTag);
+   }
+
+   // Only a body that parsed and was read to the end is committed
+   private static void finishCache(HttpCall call, OSHttpCache.Writer cacheWriter, boolean complete) {
+      if (!complete) {
+         cacheWriter.abort();
+         return;
+      }
+
+      try {
+         cacheWriter.commit();
+      } catch (IOException e) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalRestClient: Could not cache response for " + call.url, e);
+         cacheWriter.abort();
+      }
+   }
+
+   private static Object parseCachedResponse(HttpCall call) {
+      InputStream inputStream = OSHttpCache.openBody(call.cacheKey);
+      if (inputStream == null) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalRestClient: 304 for " + call.url + " but nothing is cached");
+         return null;
+      }
+
+      try {
+         return parse(call, inputStream);
+      } finally {
+         try {
+            inputStream.close();
+         } catch (IOException e) {}
+      }
+   }
+
+   private static Object parse(HttpCall call, InputStream inputStream) {
+      try {
+         return call.parser.parse(new JsonReader(new InputStreamReader(inputStream, UTF_8)));
+      } catch (Throwable t) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "OneSignalRestClient: Error parsing response from " + call.url, t);
+         return null;
+      }
+   }
+
+   private static String readBody(InputStream inputStream) throws IOException {
+      Reader reader = new InputStreamReader(inputStream, UTF_8);
+      StringBuilder body = new StringBuilder();
+      char[] buffer = new char[READ_BUFFER_SIZE];
+      int read;
+      while ((read = reader.read(buffer)) != -1)
+         body.append(buffer, 0, read);
+      reader.close();
+      return body.toString();
+   }
+
+   @SuppressWarnings("unchecked")
+   private static void callResponseHandler(ResponseHandler handler, HttpResponse response) {
+      if (handler == null)
+         return;
+
+      if (response.success && handler instanceof StreamingResponseHandler)
+         ((StreamingResponseHandler<Object>)handler).onParsed(response.parsed);
+      else if (response.success)
+         handler.onSuccess(response.body);
+      else
+         handler.onFailure(response.statusCode, response.body, response.throwable);
    }
 
    private static HttpURLConnection newHttpURLConnection(String url) throws IOException {
-      return (HttpURLConnection)new URL(BASE_URL + url).openConnection();
+      return transport.openConnection(new URL(baseUrl + url));
+   }
+
+   // Inputs of a single request, also holds the open connection so a timeout can abort it.
+   private static class HttpCall implements Callable<HttpResponse> {
+      final String url, method, cacheKey, template;
+      final JSONObject jsonBody;
+      final int timeout;
+      final StreamingResponseHandler<?> parser;
+      volatile HttpURLConnection connection;
+
+      // Filled in as the request runs, reported in OSNetworkRequestMetrics
+      int retryCount;
+      volatile long enqueueTime, startTime, connectMs, timeToFirstByteMs, requestBytes, responseBytes;
+      volatile boolean cacheHit;
+
+      HttpCall(String url, String method, JSONObject jsonBody, int timeout, @Nullable String cacheKey, @Nullable ResponseHandler handler) {
+         this.url = url;
+         this.method = method;
+         this.jsonBody = jsonBody;
+         this.template = OSNetworkHealth.getTemplate(url);
+         this.timeout = networkHealth.getTimeout(template, timeout);
+         this.cacheKey = cacheKey;
+         this.parser = handler instanceof StreamingResponseHandler ? (StreamingResponseHandler<?>)handler : null;
+      }
+
+      @Override
+      public HttpResponse call() {
+         return startHTTPConnection(this);
+      }
+
+      // getResponseCode() can hang past it's timeout setting and does not respond to interrupts.
+      //   Disconnecting closes the socket out from under it so the pool thread is freed.
+      void abort() {
+         HttpURLConnection con = connection;
+         if (con != null)
+            con.disconnect();
+      }
+   }
+
+   // Lower lanes can only use part of the network pool so a slot is always free for higher ones.
+   //   Pending requests start in lane order, so lower lanes also yield to anything queued above them.
+   enum Priority {
+      // Player create, on_session and android_params, these unblock idsAvailable and init
+      REGISTRATION(NETWORK_POOL_SIZE),
+      // User visible results, notification opened, purchases and focus time
+      ENGAGEMENT(NETWORK_POOL_SIZE - 1),
+      // Player updates and everything else
+      BACKGROUND(NETWORK_POOL_SIZE - 2);
+
+      final int maxRunning;
+
+      Priority(int maxRunning) {
+         this.maxRunning = maxRunning;
+      }
+
+      static Priority forRequest(String method, String template) {
+         if (("POST".equals(method) && ("players".equals(template) || template.endsWith("/on_session")))
+             || (method == null && template.endsWith("/android_params.js")))
+            return REGISTRATION;
+
+         if (template.startsWith("notifications/") || template.endsWith("/on_purchase") || template.endsWith("/on_focus"))
+            return ENGAGEMENT;
+
+         return BACKGROUND;
+      }
+   }
+
+   private static class FreshResponse {
+      final HttpResponse response;
+      final long time = SystemClock.elapsedRealtime();
+
+      FreshResponse(HttpResponse response) {
+         this.response = response;
+      }
+   }
+
+   private static class HttpResponse {
+      final boolean success;
+      final int statusCode;
+      final String body;
+      final Object parsed;
+      final Throwable throwable;
+
+      private HttpResponse(boolean success, int statusCode, String body, Object parsed, Throwable throwable) {
+         this.success = success;
+         this.statusCode = statusCode;
+         this.body = body;
+         this.parsed = parsed;
+         this.throwable = throwable;
+      }
+
+      static HttpResponse success(String body) {
+         return new HttpResponse(true, HttpURLConnection.HTTP_OK, body, null, null);
+      }
+
+      // Result of a StreamingResponseHandler, there is no body
+      static HttpResponse parsed(Object parsed) {
+         return new HttpResponse(true, HttpURLConnection.HTTP_OK, null, parsed, null);
+      }
+
+      static HttpResponse failure(int statusCode, String body, Throwable throwable) {
+         return new HttpResponse(false, statusCode, body, null, throwable);
+      }
+   }
+
+   // Runs an HttpCall with a hard timeout, on the network pool or on the thread of a sync caller.
+   //   The timeout starts once the call leaves the queue and cancels the task instead of joining a thread.
+   private static class HttpRequestTask extends FutureTask<HttpResponse> {
+      private final HttpCall call;
+      private final String singleFlightKey;
+      private final Priority priority;
+      private final long sequence;
+      private final ArrayList<ResponseHandler> asyncHandlers = new ArrayList<>();
+      private boolean finished;
+      private volatile ScheduledFuture<?> timeoutFuture;
+      private final AtomicBoolean started = new AtomicBoolean();
+
+      // Guarded by pendingRequests
+      //   runsOnCaller - A sync caller's own request, dispatching leaves it for the caller to run
+      //   dispatched - Left the queue and counts against runningRequests
+      private boolean runsOnCaller;
+      private boolean dispatched;
+
+      HttpRequestTask(HttpCall call, @Nullable String singleFlightKey) {
+         super(call);
+         this.call = call;
+         this.singleFlightKey = singleFlightKey;
+         this.priority = Priority.forRequest(call.method, call.template);
+         this.sequence = requestSequence.getAndIncrement();
+      }
+
+      // Fires on the network pool once the request finishes, or right away if it already has
+      void addAsyncHandler(ResponseHandler handler) {
+         if (handler == null)
+            return;
+
+         synchronized (asyncHandlers) {
+            if (!finished) {
+               asyncHandlers.add(handler);
+               return;
+            }
+         }
+
+         dispatch(handler);
+      }
+
+      private void dispatch(final ResponseHandler handler) {
+         OSScheduler.executeNetwork("OS_HTTPCallback", new Runnable() {
+            @Override
+            public void run() {
+               callResponseHandler(handler, getResponse());
+            }
+         });
+      }
+
+      @Override
+      public void run() {
+         // A pool thread and sync callers waiting on the request can all get here, only the first runs it
+         if (!started.compareAndSet(false, true))
+            return;
+         synchronized (pendingRequests) {
+            startingRequests.remove(this);
+         }
+
+         timeoutFuture = OSScheduler.schedule("OS_HTTPTimeout", new Runnable() {
+            @Override
+            public void run() {
+               // Not cancel(true), the thread may be a sync caller's and a blocked socket read ignores interrupts anyway
+               if (cancel(false)) {
+                  SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalRestClient: Request to " + baseUrl + call.url + " timed out, aborting.");
+                  call.abort();
+               }
+            }
+         }, getThreadTimeout(call.timeout));
+
+         try {
+            super.run();
+         } finally {
+            onRequestFinished();
+         }
+      }
+
+      @Override
+      protected void done() {
+         ScheduledFuture<?> timeout = timeoutFuture;
+         if (timeout != null)
+            OSScheduler.cancel(timeout);
+
+         if (singleFlightKey != null)
+            completeSingleFlightGet(singleFlightKey, this);
+         else if (call.method != null)
+            clearFreshGets();
+
+         ArrayList<ResponseHandler> handlers;
+         synchronized (asyncHandlers) {
+            finished = true;
+            handlers = new ArrayList<>(asyncHandlers);
+            asyncHandlers.clear();
+         }
+
+         for (ResponseHandler handler : handlers)
+            dispatch(handler);
+
+         reportMetrics(call, getResponse());
+      }
+
+      // Blocks a sync caller for at most the queue wait plus the request's own timeout.
+      //   Once the request leaves the queue the caller runs it itself if no other thread has started it yet,
+      //   so a sync call never holds its own thread while another one does the request.
+      //   While its lane is full the caller runs requests handed to the network pool that no thread picked up,
+      //   so callers on that pool can't all end up waiting for a lane held by requests queued behind them.
+      //   A task that hasn't left the queue after getThreadTimeout is failed, and removed from the queue
+      //   if removeIfQueued so it is never sent after the caller was told it failed. Otherwise it is left to the pool.
+      HttpResponse awaitResponse(boolean removeIfQueued) {
+         long queueTimeoutMs = getThreadTimeout(call.timeout);
+         long giveUpTime = SystemClock.elapsedRealtime() + queueTimeoutMs;
+         boolean interrupted = false;
+         while (true) {
+            HttpRequestTask unstarted = null;
+            synchronized (pendingRequests) {
+               if (dispatched || isDone())
+                  break;
+
+               long waitMs = giveUpTime - SystemClock.elapsedRealtime();
+               if (!startingRequests.isEmpty())
+                  unstarted = startingRequests.get(0);
+               else if (waitMs > 0 && !interrupted) {
+                  try {
+                     pendingRequests.wait(waitMs);
+                  } catch (InterruptedException e) {
+                     interrupted = true;
+                  }
+                  continue;
+               }
+               else if (removeIfQueued)
+                  pendingRequests.remove(this);
+               else
+                  runsOnCaller = false;
+            }
+
+            if (unstarted != null) {
+               unstarted.run();
+               continue;
+            }
+
+            if (removeIfQueued)
+               cancel(false);
+            if (interrupted) {
+               Thread.currentThread().interrupt();
+               return HttpResponse.failure(-1, null, new InterruptedException());
+            }
+            SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "OneSignalRestClient: Request to " + baseUrl + call.url + " waited " + queueTimeoutMs + "ms to start, giving up.");
+            return HttpResponse.failure(-1, null, new SocketTimeoutException("Request not started after " + queueTimeoutMs + "ms"));
+         }
+
+         // Does nothing if another thread already started it, its timeout then bounds the wait
+         run();
+         return getResponse();
+      }
+
+      HttpResponse getResponse() {
+         try {
+            return get();
+         } catch (CancellationException e) {
+            return HttpResponse.failure(-1, null, new SocketTimeoutException("Request timed out after " + getThreadTimeout(call.timeout) + "ms"));
+         } catch (ExecutionException e) {
+            return HttpResponse.failure(-1, null, e.getCause());
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return HttpResponse.failure(-1, null, e);
+         }
+      }
    }
-}
\ No newline at end of file
+}
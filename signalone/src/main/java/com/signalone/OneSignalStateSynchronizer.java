@@ -36,13 +36,14 @@ class OneSignalStateSynchronizer {
    private static UserStatePushSynchronizer userStatePushSynchronizer;
    private static UserStateEmailSynchronizer userStateEmailSynchronizer;
 
-   static UserStatePushSynchronizer getPushStateSynchronizer() {
+   // Synchronized as syncUserState can call these from two threads at once
+   static synchronized UserStatePushSynchronizer getPushStateSynchronizer() {
       if (userStatePushSynchronizer == null)
          userStatePushSynchronizer = new UserStatePushSynchronizer();
       return userStatePushSynchronizer;
    }
 
-   static UserStateEmailSynchronizer getEmailStateSynchronizer() {
+   static synchronized UserStateEmailSynchronizer getEmailStateSynchronizer() {
       if (userStateEmailSynchronizer == null)
          userStateEmailSynchronizer = new UserStateEmailSynchronizer();
       return userStateEmailSynchronizer;
@@ -67,9 +68,31 @@ class OneSignalStateSynchronizer {
       getEmailStateSynchronizer().initUserState();
    }
 
-   static void syncUserState(boolean fromSyncService) {
-      getPushStateSynchronizer().syncUserState(fromSyncService);
-      getEmailStateSynchronizer().syncUserState(fromSyncService);
+   // Returns once both the push and email syncs are done.
+   //   They run in parallel once the push player exists, before that the email player must wait for its id.
+   static void syncUserState(final boolean fromSyncService) {
+      if (SignalOne.getUserId() == null) {
+         getPushStateSynchronizer().syncUserState(fromSyncService);
+         getEmailStateSynchronizer().syncUserState(fromSyncService);
+         return;
+      }
+
+      OSScheduler.runNetworkInParallel("OS_EMAIL_SYNC", new Runnable() {
+         @Override
+         public void run() {
+            getEmailStateSynchronizer().syncUserState(fromSyncService);
+         }
+      }, new Runnable() {
+         @Override
+         public void run() {
+            getPushStateSynchronizer().syncUserState(fromSyncService);
+         }
+      });
+   }
+
+   static void flushPendingSyncs() {
+      getPushStateSynchronizer().flushPendingSync();
+      getEmailStateSynchronizer().flushPendingSync();
    }
 
    static void sendTags(JSONObject newTags, SignalOne.ChangeTagsUpdateHandler handler) {
@@ -129,6 +152,10 @@ class OneSignalStateSynchronizer {
       return getPushStateSynchronizer().getTags(fromServer);
    }
 
+   static OSTagStore getTagStore() {
+      return UserStatePushSynchronizer.getTagStore();
+   }
+
    static void resetCurrentState() {
       getPushStateSynchronizer().resetCurrentState();
       getEmailStateSynchronizer().resetCurrentState();
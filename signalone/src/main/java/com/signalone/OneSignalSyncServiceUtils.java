@@ -43,6 +43,7 @@ import android.support.annotation.RequiresApi;
 
 import com.signalone.AndroidSupportV4Compat.ContextCompat;
 
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 class OneSignalSyncServiceUtils {
@@ -58,6 +59,17 @@ class OneSignalSyncServiceUtils {
       scheduleSyncTask(context, delayMs);
    }
 
+   // Backs up a retry the caller also schedules in process, so failing to schedule the job
+   //   is logged instead of thrown into the caller's retry path
+   static void scheduleSyncTask(Context context, long delayMs, String reason) {
+      SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "scheduleSyncTask:" + reason + ":delayMs: " + delayMs);
+      try {
+         scheduleSyncTask(context, delayMs);
+      } catch (Throwable t) {
+         SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "Could not schedule sync task for " + reason, t);
+      }
+   }
+
    static void scheduleSyncTask(Context context) {
       SignalOne.Log(SignalOne.LOG_LEVEL.VERBOSE, "scheduleSyncTask:SYNC_AFTER_BG_DELAY_MS: " + SYNC_AFTER_BG_DELAY_MS);
       scheduleSyncTask(context, SYNC_AFTER_BG_DELAY_MS);
@@ -181,25 +193,25 @@ class OneSignalSyncServiceUtils {
       if (unsentTime < SignalOne.MIN_ON_FOCUS_TIME)
          return;
 
+      // Unsent time stays saved and keeps adding up until it is sent
+      if (OSRequestDeferral.shouldDefer(SignalOne.appContext, "on_focus"))
+         return;
+
       SignalOne.sendOnFocus(unsentTime, true);
    }
 
-   private static Thread syncBgThread;
+   private static Future<?> syncBgFuture;
    static void doBackgroundSync(Context context, SyncRunnable runnable) {
       SignalOne.setAppContext(context);
-      syncBgThread = new Thread(runnable, "OS_SYNCSRV_BG_SYNC");
-      syncBgThread.start();
+      syncBgFuture = OSScheduler.executeNetwork("OS_SYNCSRV_BG_SYNC", runnable);
    }
 
+   // Interrupts the sync if it is still running, the pool clears the interrupt before its thread's next task
    static boolean stopSyncBgThread() {
-      if (syncBgThread == null)
-         return false;
-
-      if (!syncBgThread.isAlive())
+      if (syncBgFuture == null)
          return false;
 
-      syncBgThread.interrupt();
-      return true;
+      return syncBgFuture.cancel(true);
    }
 
    /**
@@ -238,6 +250,9 @@ class OneSignalSyncServiceUtils {
                //   Thread is blocked until network calls are made or their retry limits are reached
                OneSignalStateSynchronizer.syncUserState(true);
                OneSignalSyncServiceUtils.syncOnFocusTime();
+               OneSignalOutbox.flushSync(SignalOne.appContext);
+               // The process may be killed once the sync service stops
+               SignalOnePrefs.flushNow();
                stopSync();
             }
          };
@@ -39,7 +39,7 @@ public class PushRegistratorADM implements PushRegistrator {
    @Override
    public void registerForPush(final Context context, String noKeyNeeded, final RegisteredHandler callback) {
       registeredCallback = callback;
-      new Thread(new Runnable() {
+      OSScheduler.executeNetwork("OS_ADM_REGISTER", new Runnable() {
          public void run() {
             final ADM adm = new ADM(context);
             String registrationId = adm.getRegistrationId();
@@ -49,17 +49,18 @@ public class PushRegistratorADM implements PushRegistrator {
                SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG,  "ADM Already registered with ID:" + registrationId);
                callback.complete(registrationId, 1);
             }
+         }
+      });
 
-            try {
-               Thread.sleep(30000);
-            } catch (InterruptedException e) {}
-            
+      // Checked after the wait instead of sleeping on a network thread
+      OSScheduler.scheduleNetwork("OS_ADM_REGISTER_TIMEOUT", new Runnable() {
+         public void run() {
             if (!callbackSuccessful) {
                SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "com.onesignal.ADMMessageHandler timed out, please check that your have the receiver, service, and your package name matches(NOTE: Case Sensitive) per the OneSignal instructions.");
                fireCallback(null);
             }
          }
-      }).start();
+      }, 30_000);
    }
 
    public static void fireCallback(String id) {
@@ -72,23 +72,32 @@ abstract class PushRegistratorAbstractGoogle implements PushRegistrator {
       }
    }
 
-   private Thread registerThread;
+   private final OSScheduler.SingleTask registerTask = new OSScheduler.SingleTask("OS_PUSH_REGISTER", true);
+   private boolean registering;
    private synchronized void registerInBackground(final String senderId) {
-      // If any thread is still running, don't create a new one
-      if (registerThread != null && registerThread.isAlive())
+      // If an attempt is still running or waiting to retry, don't start another
+      if (registering)
          return;
 
-      registerThread = new Thread(new Runnable() {
+      registering = true;
+      scheduleRegistration(senderId, 0, 0);
+   }
+
+   // Retries are scheduled after the backoff instead of sleeping on a network thread
+   private void scheduleRegistration(final String senderId, final int currentRetry, long delayMs) {
+      registerTask.schedule(new Runnable() {
          public void run() {
-            for (int currentRetry = 0; currentRetry < REGISTRATION_RETRY_COUNT; currentRetry++) {
-               boolean finished = attemptRegistration(senderId, currentRetry);
-               if (finished)
-                  return;
-               OSUtils.sleep(REGISTRATION_RETRY_BACKOFF_MS * (currentRetry + 1));
+            boolean finished = attemptRegistration(senderId, currentRetry);
+            if (!finished && currentRetry + 1 < REGISTRATION_RETRY_COUNT) {
+               scheduleRegistration(senderId, currentRetry + 1, REGISTRATION_RETRY_BACKOFF_MS * (currentRetry + 1));
+               return;
+            }
+
+            synchronized (PushRegistratorAbstractGoogle.this) {
+               registering = false;
             }
          }
-      });
-      registerThread.start();
+      }, delayMs);
    }
 
    private boolean firedCallback;
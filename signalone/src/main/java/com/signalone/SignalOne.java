@@ -57,14 +57,13 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -197,6 +196,16 @@ public class SignalOne {
       void onFailure(JSONObject response);
    }
 
+   /**
+    * Implement and pass to {@link SignalOne#setNetworkMetricsListener(NetworkMetricsListener)} to get
+    * the timings and sizes of every REST request the SDK makes.
+    * <br/><br/>
+    * <b>Note:</b> this callback does not run on the Main(UI) Thread.
+    */
+   public interface NetworkMetricsListener {
+      void onRequestCompleted(OSNetworkRequestMetrics metrics);
+   }
+
    public static class Builder {
       Context mContext;
       NotificationOpenedHandler mNotificationOpenedHandler;
@@ -206,6 +215,12 @@ public class SignalOne {
       // Default true in 4.0.0 release.
       boolean mUnsubscribeWhenNotificationsAreDisabled;
       boolean mFilterOtherGCMReceivers;
+      boolean mGzipRequestBodies;
+      boolean mDeferOnMetered, mDeferOnPoorNetwork, mDeferInDoze;
+      long mMaxDeferMs = OSRequestDeferral.DEFAULT_MAX_DEFER_MS;
+      long mSyncQuietPeriodMs = UserStateSynchronizer.DEFAULT_SYNC_QUIET_PERIOD_MS;
+      long mSyncMaxLatencyMs = UserStateSynchronizer.DEFAULT_SYNC_MAX_LATENCY_MS;
+      long mConnectionIdleTimeoutMs = OSConnectionPool.DEFAULT_IDLE_TIMEOUT_MS;
 
       // Exists to make wrapper SDKs simpler so they don't need to store their own variable before
       //  calling startInit().init()
@@ -326,6 +341,66 @@ public class SignalOne {
          return this;
       }
 
+      /**
+       * Compress larger REST request bodies, such as tag updates and purchase lists, with gzip.
+       * Reduces data used on metered connections at a small CPU cost.
+       * @param enable if {@code true} - request bodies over 1KB are sent gzip encoded<br/>
+       *               the default is {@code false}
+       * @return the builder you called this method on
+       */
+      public Builder gzipRequestBodies(boolean enable) {
+         mGzipRequestBodies = enable;
+         return this;
+      }
+
+      /**
+       * Hold requests that aren't time sensitive, such as app focus time, location and tag updates,
+       * while the device is on a metered or slow network or in doze. Held changes are combined and
+       * sent together once conditions improve, or once they have been held for {@code maxDeferMinutes}.
+       * Registration, subscription changes, notification opens and purchases are never held.
+       * <br/><br/>
+       * <b>Note:</b> {@link ChangeTagsUpdateHandler} callbacks for held tag updates fire once they are sent.
+       * @param onMetered hold while on a metered network such as mobile data
+       * @param onPoorNetwork hold while on a 2G mobile network
+       * @param inDoze hold while the device is in doze, Android 6.0 and newer
+       * @param maxDeferMinutes the longest a change is held, 60 minutes if {@code 0}
+       * @return the builder you called this method on
+       */
+      public Builder deferNonUrgentRequests(boolean onMetered, boolean onPoorNetwork, boolean inDoze, int maxDeferMinutes) {
+         mDeferOnMetered = onMetered;
+         mDeferOnPoorNetwork = onPoorNetwork;
+         mDeferInDoze = inDoze;
+         mMaxDeferMs = maxDeferMinutes * 60 * 1_000L;
+         return this;
+      }
+
+      /**
+       * Changes such as tags, email and external user id are combined and sent once no new change
+       * has been made for {@code quietPeriodSeconds}, but never later than {@code maxDelaySeconds}
+       * after the first of them. Pending changes are also sent when the app goes to the background.
+       * @param quietPeriodSeconds time without changes before they are sent, 5 seconds if {@code 0}
+       * @param maxDelaySeconds the longest a change waits to be sent, 30 seconds if {@code 0}
+       * @return the builder you called this method on
+       */
+      public Builder batchUserUpdates(int quietPeriodSeconds, int maxDelaySeconds) {
+         mSyncQuietPeriodMs = quietPeriodSeconds * 1_000L;
+         mSyncMaxLatencyMs = maxDelaySeconds * 1_000L;
+         return this;
+      }
+
+      /**
+       * Keep connections to SignalOne open between requests so requests made close together skip
+       * the TCP and TLS handshakes. Connections are closed once no request has been made for this long.
+       * Reuse is counted in {@link OSNetworkMetrics#getReusedConnectionCount()}.
+       * @param idleSeconds how long an unused connection is kept, 60 seconds by default<br/>
+       *                    {@code 0} closes each connection once its request completes
+       * @return the builder you called this method on
+       */
+      public Builder connectionIdleTimeout(int idleSeconds) {
+         mConnectionIdleTimeoutMs = idleSeconds * 1_000L;
+         return this;
+      }
+
       public void init() {
          SignalOne.init(this);
       }
@@ -344,8 +419,8 @@ public class SignalOne {
    static boolean initDone;
    private static boolean foreground;
 
-   // the concurrent queue in which we pin pending tasks upon finishing initialization
-   static ExecutorService pendingTaskExecutor;
+   // the queue in which we pin pending tasks upon finishing initialization, runs them in order on the network pool
+   static OSScheduler.SerialExecutor pendingTaskExecutor;
    public static ConcurrentLinkedQueue<Runnable> taskQueueWaitingForInit = new ConcurrentLinkedQueue<>();
    static AtomicLong lastTaskId = new AtomicLong();
 
@@ -379,7 +454,6 @@ public class SignalOne {
    private static HashSet<String> postedOpenedNotifIds = new HashSet<>();
 
    private static ArrayList<GetTagsHandler> pendingGetTagsHandlers = new ArrayList<>();
-   private static boolean getTagsCall;
 
    private static boolean waitingToPostStateSync;
 
@@ -524,8 +598,10 @@ public class SignalOne {
 
       // Prefs require a context to save
       // If the previous state of appContext was null, kick off write in-case it was waiting
-      if (wasAppContextNull)
+      if (wasAppContextNull) {
+         SignalOnePrefs.preload();
          SignalOnePrefs.startDelayedWrite();
+      }
    }
 
    /**
@@ -612,6 +688,10 @@ public class SignalOne {
       appId = oneSignalAppId;
 
       saveFilterOtherGCMReceivers(mInitBuilder.mFilterOtherGCMReceivers);
+      OneSignalRestClient.setGzipRequestBodies(mInitBuilder.mGzipRequestBodies);
+      OneSignalRestClient.setConnectionIdleTimeout(mInitBuilder.mConnectionIdleTimeoutMs);
+      OSRequestDeferral.setPolicy(mInitBuilder.mDeferOnMetered, mInitBuilder.mDeferOnPoorNetwork, mInitBuilder.mDeferInDoze, mInitBuilder.mMaxDeferMs);
+      UserStateSynchronizer.setSyncBatching(mInitBuilder.mSyncQuietPeriodMs, mInitBuilder.mSyncMaxLatencyMs);
 
       // NOTE: This must be called here, something above conflicts with the handlers internals
       //  causing a crash at OneSignal.deepClone()
@@ -754,17 +834,10 @@ public class SignalOne {
 
    private static void startPendingTasks() {
       if(!taskQueueWaitingForInit.isEmpty()) {
-         pendingTaskExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(@NonNull Runnable runnable) {
-               Thread newThread = new Thread(runnable);
-               newThread.setName("OS_PENDING_EXECUTOR_" + newThread.getId());
-               return newThread;
-            }
-         });
+         pendingTaskExecutor = new OSScheduler.SerialExecutor("OS_PENDING_EXECUTOR", true);
 
          while(!taskQueueWaitingForInit.isEmpty()) {
-            pendingTaskExecutor.submit(taskQueueWaitingForInit.poll());
+            pendingTaskExecutor.execute(taskQueueWaitingForInit.poll());
          }
       }
    }
@@ -780,7 +853,7 @@ public class SignalOne {
       else if(!pendingTaskExecutor.isShutdown()) {
          SignalOne.Log(LOG_LEVEL.INFO,"Executor is still running, add to the executor with ID: " + task.taskId);
          //if the executor isn't done with tasks, submit the task to the executor
-         pendingTaskExecutor.submit(task);
+         pendingTaskExecutor.execute(task);
       }
 
    }
@@ -964,6 +1037,24 @@ public class SignalOne {
       return false;
    }
 
+   /**
+    * Get the timings, sizes and outcome of each REST request the SDK makes, for example to
+    * forward to your own monitoring. Pass {@code null} to stop.
+    * @param listener the {@link NetworkMetricsListener} to call after each request
+    */
+   public static void setNetworkMetricsListener(@Nullable NetworkMetricsListener listener) {
+      OneSignalRestClient.metricsListener = listener;
+   }
+
+   /**
+    * Request counts, bytes and latency histograms per endpoint for the SDK's REST requests
+    * since the app process started.
+    * @return the live {@link OSNetworkMetrics}, call {@link OSNetworkMetrics#getSnapshot()} to read it
+    */
+   public static OSNetworkMetrics getNetworkMetrics() {
+      return OneSignalRestClient.networkMetrics;
+   }
+
    public static void setLogLevel(LOG_LEVEL inLogCatLevel, LOG_LEVEL inVisualLogLevel) {
       logCatLevel = inLogCatLevel; visualLogLevel = inVisualLogLevel;
    }
@@ -1087,6 +1178,9 @@ public class SignalOne {
       if (trackAmazonPurchase != null)
          trackAmazonPurchase.checkListener();
 
+      // Send batched user changes now, the app may not come back for a while
+      OneSignalStateSynchronizer.flushPendingSyncs();
+
       if (lastTrackedFocusTime == -1)
          return false;
 
@@ -1102,10 +1196,11 @@ public class SignalOne {
 
       boolean scheduleSyncService = scheduleSyncService();
 
-      long unSentActiveTime = GetUnsentActiveTime();
-      long totalTimeActive = unSentActiveTime + time_elapsed;
-
-      SaveUnsentActiveTime(totalTimeActive);
+      long totalTimeActive;
+      synchronized (activeTimeLock) {
+         totalTimeActive = GetUnsentActiveTime() + time_elapsed;
+         SaveUnsentActiveTime(totalTimeActive);
+      }
 
       if (totalTimeActive < MIN_ON_FOCUS_TIME || getUserId() == null)
          return totalTimeActive >= MIN_ON_FOCUS_TIME;
@@ -1114,7 +1209,13 @@ public class SignalOne {
       if (!scheduleSyncService)
          OneSignalSyncServiceUtils.scheduleSyncTask(appContext);
 
-      OneSignalSyncServiceUtils.syncOnFocusTime();
+      // Sent from the network pool so focus handling doesn't wait on it, the sync job above covers the app being killed first
+      OSScheduler.executeNetwork("OS_FOCUS_TIME_SYNC", new Runnable() {
+         @Override
+         public void run() {
+            OneSignalSyncServiceUtils.syncOnFocusTime();
+         }
+      });
 
       return false;
    }
@@ -1129,35 +1230,55 @@ public class SignalOne {
    }
 
    static void sendOnFocus(long totalTimeActive, boolean synchronous) {
+      // Handed off to each player below, time added since it was read stays unsent
+      synchronized (activeTimeLock) {
+         SaveUnsentActiveTime(Math.max(0, GetUnsentActiveTime() - totalTimeActive));
+      }
+
+      sendOnFocusToPlayer(getUserId(), SignalOnePrefs.PREFS_OS_UNSENT_PUSH_ACTIVE_TIME, totalTimeActive, synchronous);
+      String emailId = getEmailId();
+      if (emailId != null)
+         sendOnFocusToPlayer(emailId, SignalOnePrefs.PREFS_OS_UNSENT_EMAIL_ACTIVE_TIME, totalTimeActive, synchronous);
+
+      if (synchronous)
+         OneSignalOutbox.flushSync(appContext);
+      else
+         OneSignalOutbox.flush();
+   }
+
+   // A ping carries the new time plus any this player missed before, so each second is sent to each player once.
+   //   Saved to the outbox it is delivered from there. Otherwise it is sent directly and its time is kept
+   //   for this player's next ping only if that fails.
+   private static void sendOnFocusToPlayer(String userId, final String missedTimeKey, long activeTime, boolean synchronous) {
+      final long playerActiveTime = activeTime + takeActiveTime(missedTimeKey);
+      if (userId == null) {
+         addActiveTime(missedTimeKey, playerActiveTime);
+         return;
+      }
+
+      JSONObject jsonBody;
       try {
-         JSONObject jsonBody = new JSONObject()
+         jsonBody = new JSONObject()
             .put("app_id", appId)
             .put("type", 1)
             .put("state", "ping")
-            .put("active_time", totalTimeActive);
+            .put("active_time", playerActiveTime);
          addNetType(jsonBody);
-
-         sendOnFocusToPlayer(getUserId(), jsonBody, synchronous);
-         String emailId = getEmailId();
-         if (emailId != null)
-            sendOnFocusToPlayer(emailId, jsonBody, synchronous);
-
       } catch (Throwable t) {
          Log(LOG_LEVEL.ERROR, "Generating on_focus:JSON Failed.", t);
+         addActiveTime(missedTimeKey, playerActiveTime);
+         return;
       }
-   }
 
-   private static void sendOnFocusToPlayer(String userId, JSONObject jsonBody, boolean synchronous) {
       String url = "players/" + userId + "/on_focus";
+      if (OneSignalOutbox.savePost(appContext, url, jsonBody))
+         return;
+
       OneSignalRestClient.ResponseHandler responseHandler = new OneSignalRestClient.ResponseHandler() {
          @Override
          void onFailure(int statusCode, String response, Throwable throwable) {
             logHttpError("sending on_focus Failed", statusCode, throwable, response);
-         }
-
-         @Override
-         void onSuccess(String response) {
-            SaveUnsentActiveTime(0);
+            addActiveTime(missedTimeKey, playerActiveTime);
          }
       };
 
@@ -1167,6 +1288,21 @@ public class SignalOne {
          OneSignalRestClient.post(url, jsonBody, responseHandler);
    }
 
+   private static long takeActiveTime(String key) {
+      synchronized (activeTimeLock) {
+         long time = SignalOnePrefs.getLong(SignalOnePrefs.PREFS_ONESIGNAL, key, 0);
+         if (time != 0)
+            SignalOnePrefs.saveLong(SignalOnePrefs.PREFS_ONESIGNAL, key, 0);
+         return time;
+      }
+   }
+
+   private static void addActiveTime(String key, long time) {
+      synchronized (activeTimeLock) {
+         long missed = SignalOnePrefs.getLong(SignalOnePrefs.PREFS_ONESIGNAL, key, 0);
+         SignalOnePrefs.saveLong(SignalOnePrefs.PREFS_ONESIGNAL, key, missed + time);
+      }
+   }
 
    static void onAppFocus() {
       foreground = true;
@@ -1186,6 +1322,8 @@ public class SignalOne {
 
       NotificationRestorer.asyncRestore(appContext);
 
+      OneSignalOutbox.flush();
+
       getCurrentPermissionState(appContext).refreshAsTo();
 
       if (trackFirebaseAnalytics != null && getFirebaseAnalyticsEnabled(appContext))
@@ -1220,7 +1358,7 @@ public class SignalOne {
       if (!registerForPushFired || !locationFired || remoteParams == null)
          return;
 
-      new Thread(new Runnable() {
+      OSScheduler.executeNetwork("OS_REG_USER", new Runnable() {
          public void run() {
             try {
                registerUserTask();
@@ -1229,7 +1367,7 @@ public class SignalOne {
                Log(LOG_LEVEL.FATAL, "FATAL Error registering device!", t);
             }
          }
-      }, "OS_REG_USER").start();
+      });
    }
 
    private static void registerUserTask() throws JSONException {
@@ -1667,32 +1805,69 @@ public class SignalOne {
          return;
       }
 
-      new Thread(new Runnable() {
-         @Override
-         public void run() {
-            synchronized (pendingGetTagsHandlers) {
-               pendingGetTagsHandlers.add(getTagsHandler);
+      synchronized (pendingGetTagsHandlers) {
+         pendingGetTagsHandlers.add(getTagsHandler);
 
-               // if there is an existing in-flight request, we should return
-               // since there's no point in making a duplicate runnable
-               if (pendingGetTagsHandlers.size() > 1) return;
-            }
+         // if there is an existing in-flight request, we should return
+         // since there's no point in making a duplicate runnable
+         if (pendingGetTagsHandlers.size() > 1) return;
+      }
 
-            if (appContext == null) {
-               Log(LOG_LEVEL.ERROR, "You must initialize OneSignal before getting tags! " +
-                       "Moving this tag operation to a pending queue.");
-               taskQueueWaitingForInit.add(new Runnable() {
-                  @Override
-                  public void run() {
-                     runGetTags();
-                  }
-               });
-               return;
+      if (appContext == null) {
+         Log(LOG_LEVEL.ERROR, "You must initialize OneSignal before getting tags! " +
+                 "Moving this tag operation to a pending queue.");
+         taskQueueWaitingForInit.add(new Runnable() {
+            @Override
+            public void run() {
+               runGetTags();
             }
+         });
+         return;
+      }
 
-            runGetTags();
-         }
-      }, "OS_GETTAGS").start();
+      runGetTags();
+   }
+
+   /**
+    * Returns the value of a tag set on the user, or null if it isn't set.
+    * <br/><br/>
+    * Reads a local copy of the tags without blocking, so it is safe to call from the main thread as often as needed.
+    * It includes tags sent with {@link #sendTags(JSONObject)} that have not reached OneSignal yet.
+    * If the tags were last fetched from OneSignal more than a few minutes ago, they are fetched again in
+    * the background and later calls return the updated values.
+    * @param key Key of the tag.
+    * @return The tag's value, or null if the tag isn't set or OneSignal hasn't finished initializing yet.
+    */
+   public static String getTag(String key) {
+      OSTagStore tagStore = getTagStoreForRead();
+      return tagStore == null ? null : tagStore.get(key);
+   }
+
+   /**
+    * Returns all tags set on the user, read the same way as {@link #getTag(String)}.
+    * @return An unmodifiable map of tag keys to values, it doesn't change after being returned.
+    *         Empty if OneSignal hasn't finished initializing yet.
+    */
+   public static Map<String, String> getTagsSnapshot() {
+      OSTagStore tagStore = getTagStoreForRead();
+      return tagStore == null ? Collections.<String, String>emptyMap() : tagStore.getSnapshot();
+   }
+
+   // Null until init has loaded the saved user state, a read never loads it itself
+   private static OSTagStore getTagStoreForRead() {
+      OSTagStore tagStore = OneSignalStateSynchronizer.getTagStore();
+      if (!tagStore.isLoaded() || requiresUserPrivacyConsent())
+         return null;
+
+      if (getUserId() != null) {
+         tagStore.revalidate(new Runnable() {
+            @Override
+            public void run() {
+               OneSignalStateSynchronizer.getTags(true);
+            }
+         });
+      }
+      return tagStore;
    }
 
    private static void runGetTags() {
@@ -1708,11 +1883,11 @@ public class SignalOne {
          if (pendingGetTagsHandlers.size() == 0) return;
       }
 
-      new Thread(new Runnable() {
+      OSScheduler.executeNetwork("OS_GETTAGS_CALLBACK", new Runnable() {
          @Override
          public void run() {
-            final UserStateSynchronizer.GetTagsResult tags = OneSignalStateSynchronizer.getTags(!getTagsCall);
-            if (tags.serverSuccess) getTagsCall = true;
+            // Only goes to the server if the local tags weren't fetched recently
+            final UserStateSynchronizer.GetTagsResult tags = OneSignalStateSynchronizer.getTags(!OneSignalStateSynchronizer.getTagStore().isFresh());
 
             synchronized (pendingGetTagsHandlers) {
                for (GetTagsHandler handler : pendingGetTagsHandlers) {
@@ -1722,7 +1897,7 @@ public class SignalOne {
                pendingGetTagsHandlers.clear();
             }
          }
-      }, "OS_GETTAGS_CALLBACK").start();
+      });
    }
 
    /**
@@ -1873,9 +2048,9 @@ public class SignalOne {
             jsonBody.put("existing", true);
          jsonBody.put("purchases", purchases);
 
-         OneSignalRestClient.post("players/" + getUserId() + "/on_purchase", jsonBody, responseHandler);
+         OneSignalOutbox.post("players/" + getUserId() + "/on_purchase", jsonBody, responseHandler);
          if (getEmailId() != null)
-            OneSignalRestClient.post("players/" + getEmailId() + "/on_purchase", jsonBody, null);
+            OneSignalOutbox.post("players/" + getEmailId() + "/on_purchase", jsonBody, null);
       } catch (Throwable t) {
          Log(LOG_LEVEL.ERROR, "Failed to generate JSON for sendPurchases.", t);
       }
@@ -2053,7 +2228,7 @@ public class SignalOne {
             jsonBody.put("player_id", getSavedUserId(inContext));
             jsonBody.put("opened", true);
 
-            OneSignalRestClient.put("notifications/" + notificationId, jsonBody, new OneSignalRestClient.ResponseHandler() {
+            OneSignalOutbox.put("notifications/" + notificationId, jsonBody, new OneSignalRestClient.ResponseHandler() {
                @Override
                void  onFailure(int statusCode, String response, Throwable throwable) {
                   logHttpError("sending Notification Opened Failed", statusCode, throwable, response);
@@ -2761,6 +2936,9 @@ public class SignalOne {
       return status;
    }
 
+   // Guards the unsent focus time read-modify-writes, focus changes and the sync job both make them
+   private static final Object activeTimeLock = new Object();
+
    static long GetUnsentActiveTime() {
       if (unSentActiveTime == -1 && appContext != null) {
          unSentActiveTime = SignalOnePrefs.getLong(SignalOnePrefs.PREFS_ONESIGNAL,
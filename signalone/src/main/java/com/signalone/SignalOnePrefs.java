@@ -30,10 +30,15 @@ package com.signalone;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.util.Base64;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class SignalOnePrefs {
 
@@ -53,8 +58,12 @@ class SignalOnePrefs {
     public static final String PREFS_GT_PLAYER_ID = "GT_PLAYER_ID";
     public static final String PREFS_OS_EMAIL_ID = "OS_EMAIL_ID";
     public static final String PREFS_GT_UNSENT_ACTIVE_TIME = "GT_UNSENT_ACTIVE_TIME";
+    // Focus time handed off from GT_UNSENT_ACTIVE_TIME that one player has yet to receive, see SignalOne.sendOnFocus
+    public static final String PREFS_OS_UNSENT_PUSH_ACTIVE_TIME = "OS_UNSENT_PUSH_ACTIVE_TIME";
+    public static final String PREFS_OS_UNSENT_EMAIL_ACTIVE_TIME = "OS_UNSENT_EMAIL_ACTIVE_TIME";
     public static final String PREFS_ONESIGNAL_USERSTATE_DEPENDVALYES_ = "ONESIGNAL_USERSTATE_DEPENDVALYES_";
     public static final String PREFS_ONESIGNAL_USERSTATE_SYNCVALYES_ = "ONESIGNAL_USERSTATE_SYNCVALYES_";
+    public static final String PREFS_ONESIGNAL_USERSTATE_BINARY_ = "ONESIGNAL_USERSTATE_BINARY_";
     public static final String PREFS_ONESIGNAL_ACCEPTED_NOTIFICATION_LAST = "ONESIGNAL_ACCEPTED_NOTIFICATION_LAST";
     public static final String PREFS_ONESIGNAL_SUBSCRIPTION_LAST = "ONESIGNAL_SUBSCRIPTION_LAST";
     public static final String PREFS_ONESIGNAL_PLAYER_ID_LAST = "ONESIGNAL_PLAYER_ID_LAST";
@@ -67,96 +76,149 @@ class SignalOnePrefs {
     public static final String PREFS_ONESIGNAL_SYNCED_SUBSCRIPTION = "ONESIGNAL_SYNCED_SUBSCRIPTION";
     public static final String PREFS_GT_REGISTRATION_ID = "GT_REGISTRATION_ID";
     public static final String PREFS_ONESIGNAL_USER_PROVIDED_CONSENT = "ONESIGNAL_USER_PROVIDED_CONSENT";
+    // Only read to migrate responses cached by older versions into OSHttpCache
     public static final String PREFS_OS_ETAG_PREFIX = "PREFS_OS_ETAG_PREFIX_";
     public static final String PREFS_OS_HTTP_CACHE_PREFIX = "PREFS_OS_HTTP_CACHE_PREFIX_";
+    public static final String PREFS_OS_DEFERRED_SINCE = "OS_DEFERRED_SINCE";
+    public static final String PREFS_OS_USERSTATE_SYNC_FAILURES_ = "OS_USERSTATE_SYNC_FAILURES_";
 
     // PLAYER PURCHASE KEYS
     static final String PREFS_PURCHASE_TOKENS = "purchaseTokens";
     static final String PREFS_EXISTING_PURCHASES = "ExistingPurchases";
 
-    // Buffered writes to apply on WritePrefHandlerThread with a short delay
-    static HashMap<String, HashMap<String, Object>> prefsToApply;
-    public static WritePrefHandlerThread prefsHandler;
+    // Buffered writes to apply on OSScheduler with a short delay.
+    //   Concurrent maps so reads never wait on a writer or a flush.
+    static HashMap<String, ConcurrentHashMap<String, PendingWrite>> prefsToApply;
+    private static final Object REMOVED = new Object();
+    // Where flushed values are kept, see OSKeyValueStore. Only opening a store takes a lock, one per store.
+    private static final ConcurrentHashMap<String, OSKeyValueStore> stores = new ConcurrentHashMap<>();
+    private static final Set<String> storeFailed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final HashMap<String, Object> storeLocks = new HashMap<>();
+    public static WritePrefHandler prefsHandler;
 
     static {
         initializePool();
+        for (String prefsName : prefsToApply.keySet())
+            storeLocks.put(prefsName, new Object());
     }
 
-    public static class WritePrefHandlerThread extends HandlerThread {
-        public Handler mHandler;
-
+    public static class WritePrefHandler {
         private static final int WRITE_CALL_DELAY_TO_BUFFER_MS = 200;
-        private long lastSyncTime = 0L;
+        // Set while a flush is posted, saves made before it runs go out with it
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
 
-        WritePrefHandlerThread() {
-            super("OSH_WritePrefs");
-            start();
-            mHandler = new Handler(getLooper());
-        }
+        private final Runnable flushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flushBufferToDisk();
+            }
+        };
 
+        // Only the first save after a flush posts one, so no save waits more than WRITE_CALL_DELAY_TO_BUFFER_MS
         void startDelayedWrite() {
-            synchronized (mHandler) {
-                mHandler.removeCallbacksAndMessages(null);
-                if (lastSyncTime == 0)
-                    lastSyncTime = System.currentTimeMillis();
-
-                long delay = lastSyncTime - System.currentTimeMillis() + WRITE_CALL_DELAY_TO_BUFFER_MS;
-
-                mHandler.postDelayed(getNewRunnable(), delay);
-            }
+            if (flushScheduled.compareAndSet(false, true))
+                OSScheduler.schedule("OSH_WritePrefs", flushRunnable, WRITE_CALL_DELAY_TO_BUFFER_MS);
         }
 
-        private Runnable getNewRunnable() {
-            return new Runnable() {
-                @Override
-                public void run() {
-                    flushBufferToDisk();
-                }
-            };
-        }
+        // Synchronized so flushNow() and the scheduled flush don't write the same entries twice
+        private synchronized void flushBufferToDisk() {
+            // Saves from here on need a new flush
+            flushScheduled.set(false);
 
-        private void flushBufferToDisk() {
             // A flush will be triggered later once a context is set via OneSignal.setAppContext(...)
             if (SignalOne.appContext == null)
                 return;
 
             for (String pref : prefsToApply.keySet()) {
-                SharedPreferences prefsToWrite = getSharedPrefsByName(pref);
-                SharedPreferences.Editor editor = prefsToWrite.edit();
-                HashMap<String, Object> prefHash = prefsToApply.get(pref);
-                synchronized (prefHash) {
-                    for (String key : prefHash.keySet()) {
-                        Object value = prefHash.get(key);
-                        if (value instanceof String)
-                            editor.putString(key, (String)value);
-                        else if (value instanceof Boolean)
-                            editor.putBoolean(key, (Boolean)value);
-                        else if (value instanceof Integer)
-                            editor.putInt(key, (Integer)value);
-                        else if (value instanceof Long)
-                            editor.putLong(key, (Long)value);
+                OSKeyValueStore store = getStore(pref);
+                if (store == null) {
+                    flushToSharedPrefs(pref);
+                    continue;
+                }
+
+                // Each entry leaves the buffer only after it is in the store, and only if it wasn't
+                //   saved again in the meantime, so a read always finds the latest value in one of them
+                ConcurrentHashMap<String, PendingWrite> prefHash = prefsToApply.get(pref);
+                for (Map.Entry<String, PendingWrite> entry : prefHash.entrySet()) {
+                    PendingWrite write = entry.getValue();
+                    try {
+                        store.put(entry.getKey(), write.value == REMOVED ? null : write.value);
+                    } catch (IOException e) {
+                        // Kept in the buffer so reads still see it, the next flush tries it again
+                        SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "Failed to write " + pref + " to OSKeyValueStore", e);
+                        continue;
                     }
-                    prefHash.clear();
+                    prefHash.remove(entry.getKey(), write);
                 }
-                editor.apply();
             }
+        }
+
+        // Only used if the store for prefsName could not be opened
+        private void flushToSharedPrefs(String prefsName) {
+            SharedPreferences.Editor editor = getSharedPrefsByName(prefsName).edit();
+            ConcurrentHashMap<String, PendingWrite> prefHash = prefsToApply.get(prefsName);
+            for (Map.Entry<String, PendingWrite> entry : prefHash.entrySet()) {
+                String key = entry.getKey();
+                PendingWrite write = entry.getValue();
+                Object value = write.value;
+                if (value == REMOVED)
+                    editor.remove(key);
+                else if (value instanceof String)
+                    editor.putString(key, (String)value);
+                else if (value instanceof Boolean)
+                    editor.putBoolean(key, (Boolean)value);
+                else if (value instanceof Integer)
+                    editor.putInt(key, (Integer)value);
+                else if (value instanceof Long)
+                    editor.putLong(key, (Long)value);
+                else if (value instanceof byte[])
+                    editor.putString(key, Base64.encodeToString((byte[])value, Base64.NO_WRAP));
+                prefHash.remove(key, write);
+            }
+            editor.apply();
+        }
+    }
 
-            lastSyncTime = System.currentTimeMillis();
+    // One per save. Entries are compared by identity, so a flush only removes the exact save it wrote
+    //   and not a later save of an equal value.
+    static class PendingWrite {
+        final Object value;
+
+        PendingWrite(Object value) {
+            this.value = value;
         }
     }
 
     public static void initializePool() {
         prefsToApply = new HashMap<>();
-        prefsToApply.put(PREFS_ONESIGNAL, new HashMap<String, Object>());
-        prefsToApply.put(PREFS_PLAYER_PURCHASES, new HashMap<String, Object>());
+        prefsToApply.put(PREFS_ONESIGNAL, new ConcurrentHashMap<String, PendingWrite>());
+        prefsToApply.put(PREFS_PLAYER_PURCHASES, new ConcurrentHashMap<String, PendingWrite>());
 
-        prefsHandler = new WritePrefHandlerThread();
+        prefsHandler = new WritePrefHandler();
     }
 
     public static void startDelayedWrite() {
        prefsHandler.startDelayedWrite();
     }
 
+    // Writes everything saved so far before returning, for when the process may be killed soon after.
+    //   Does disk IO on the calling thread, don't call from the main thread.
+    static void flushNow() {
+        prefsHandler.flushBufferToDisk();
+    }
+
+    // Called once a context is set, loads the stores in the background so the first read
+    //   on the main thread finds them in memory instead of waiting on disk
+    static void preload() {
+        OSScheduler.execute("OSH_PreloadPrefs", new Runnable() {
+            @Override
+            public void run() {
+                for (String pref : prefsToApply.keySet())
+                    getStore(pref);
+            }
+        });
+    }
+
     public static void saveString(final String prefsName, final String key, final String value) {
         save(prefsName, key, value);
     }
@@ -173,63 +235,121 @@ class SignalOnePrefs {
         save(prefsName, key, value);
     }
 
+    // value is kept as is until flushed, callers must not modify it after saving
+    public static void saveBytes(String prefsName, String key, byte[] value) {
+        save(prefsName, key, value);
+    }
+
+    // Buffered like a save, the key is removed from disk on the next flush
+    public static void remove(String prefsName, String key) {
+        save(prefsName, key, null);
+    }
+
     static private void save(String prefsName, String key, Object value) {
-        HashMap<String, Object> pref = prefsToApply.get(prefsName);
-        synchronized (pref) {
-            pref.put(key, value);
-        }
+        prefsToApply.get(prefsName).put(key, new PendingWrite(value == null ? REMOVED : value));
         startDelayedWrite();
     }
 
     static String getString(String prefsName, String key, String defValue) {
-        return (String)get(prefsName, key, String.class, defValue);
+        PendingWrite pendingWrite = prefsToApply.get(prefsName).get(key);
+        if (pendingWrite != null)
+            return pendingWrite.value instanceof String ? (String)pendingWrite.value : defValue;
+
+        OSKeyValueStore store = getStore(prefsName);
+        if (store != null)
+            return store.getString(key, defValue);
+
+        SharedPreferences prefs = getSharedPrefsByName(prefsName);
+        return prefs != null ? prefs.getString(key, defValue) : defValue;
     }
 
     static boolean getBool(String prefsName, String key, boolean defValue) {
-        return (Boolean)get(prefsName, key, Boolean.class, defValue);
+        PendingWrite pendingWrite = prefsToApply.get(prefsName).get(key);
+        if (pendingWrite != null)
+            return pendingWrite.value instanceof Boolean ? (Boolean)pendingWrite.value : defValue;
+
+        OSKeyValueStore store = getStore(prefsName);
+        if (store != null)
+            return store.getBoolean(key, defValue);
+
+        SharedPreferences prefs = getSharedPrefsByName(prefsName);
+        return prefs != null ? prefs.getBoolean(key, defValue) : defValue;
     }
 
     static int getInt(String prefsName, String key, int defValue) {
-        return (Integer)get(prefsName, key, Integer.class, defValue);
+        PendingWrite pendingWrite = prefsToApply.get(prefsName).get(key);
+        if (pendingWrite != null)
+            return pendingWrite.value instanceof Integer ? (Integer)pendingWrite.value : defValue;
+
+        OSKeyValueStore store = getStore(prefsName);
+        if (store != null)
+            return store.getInt(key, defValue);
+
+        SharedPreferences prefs = getSharedPrefsByName(prefsName);
+        return prefs != null ? prefs.getInt(key, defValue) : defValue;
     }
 
     static long getLong(String prefsName, String key, long defValue) {
-        return (Long)get(prefsName, key, Long.class, defValue);
-    }
+        PendingWrite pendingWrite = prefsToApply.get(prefsName).get(key);
+        if (pendingWrite != null)
+            return pendingWrite.value instanceof Long ? (Long)pendingWrite.value : defValue;
+
+        OSKeyValueStore store = getStore(prefsName);
+        if (store != null)
+            return store.getLong(key, defValue);
 
-    // If type == Object then this is a contains check
-    private static Object get(String prefsName, String key, Class type, Object defValue) {
-        HashMap<String, Object> pref = prefsToApply.get(prefsName);
+        SharedPreferences prefs = getSharedPrefsByName(prefsName);
+        return prefs != null ? prefs.getLong(key, defValue) : defValue;
+    }
 
-        synchronized (pref) {
-            if (type.equals(Object.class) && pref.containsKey(key))
-                return true;
+    static byte[] getBytes(String prefsName, String key, byte[] defValue) {
+        PendingWrite pendingWrite = prefsToApply.get(prefsName).get(key);
+        if (pendingWrite != null)
+            return pendingWrite.value instanceof byte[] ? (byte[])pendingWrite.value : defValue;
 
-            Object cachedValue = pref.get(key);
-            if (cachedValue != null || pref.containsKey(key))
-                return cachedValue;
-        }
+        OSKeyValueStore store = getStore(prefsName);
+        if (store != null)
+            return store.getBytes(key, defValue);
 
         SharedPreferences prefs = getSharedPrefsByName(prefsName);
-        if (prefs != null ) {
-            if (type.equals(String.class))
-               return prefs.getString(key, (String)defValue);
-            else if (type.equals(Boolean.class))
-                return prefs.getBoolean(key, (Boolean)defValue);
-            else if (type.equals(Integer.class))
-                return prefs.getInt(key, (Integer)defValue);
-            else if (type.equals(Long.class))
-                return prefs.getLong(key, (Long)defValue);
-            else if (type.equals(Object.class))
-                return prefs.contains(key);
+        String encoded = prefs != null ? prefs.getString(key, null) : null;
+        return encoded == null ? defValue : Base64.decode(encoded, Base64.NO_WRAP);
+    }
 
-            return null;
-        }
+    // Returns null if there is no context yet or the store can't be opened, callers then use SharedPreferences
+    private static OSKeyValueStore getStore(String prefsName) {
+        OSKeyValueStore store = stores.get(prefsName);
+        if (store != null || SignalOne.appContext == null)
+            return store;
+
+        return openStore(prefsName);
+    }
 
-        return defValue;
+    // Opened on first use, moving over anything saved to SharedPreferences by older versions.
+    //   Locks only this store, so a read of the other one doesn't wait on this one loading.
+    private static OSKeyValueStore openStore(String prefsName) {
+        synchronized (storeLocks.get(prefsName)) {
+            OSKeyValueStore store = stores.get(prefsName);
+            if (store != null || storeFailed.contains(prefsName))
+                return store;
+
+            SharedPreferences legacyPrefs = getSharedPrefsByName(prefsName);
+            if (legacyPrefs == null)
+                return null;
+
+            try {
+                store = OSKeyValueStore.open(SignalOne.appContext.getFilesDir(), prefsName, legacyPrefs);
+                stores.put(prefsName, store);
+            } catch (IOException e) {
+                SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "Could not open OSKeyValueStore for " + prefsName + ", using SharedPreferences", e);
+                storeFailed.add(prefsName);
+            }
+            return store;
+        }
     }
 
-    private static synchronized SharedPreferences getSharedPrefsByName(String prefsName) {
+    // getSharedPreferences is thread safe and caches the instance, no lock needed
+    private static SharedPreferences getSharedPrefsByName(String prefsName) {
         if (SignalOne.appContext == null) {
             String msg = "OneSignal.appContext null, could not read " + prefsName + " from getSharedPreferences.";
             SignalOne.Log(SignalOne.LOG_LEVEL.WARN, msg, new Throwable());
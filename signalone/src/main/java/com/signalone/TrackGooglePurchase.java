@@ -134,7 +134,8 @@ class TrackGooglePurchase {
       if (isWaitingForPurchasesRequest)
          return;
 
-      new Thread(new Runnable() {
+      // Billing service calls are blocking IPC
+      OSScheduler.executeNetwork("OS_TRACK_PURCHASES", new Runnable() {
          public void run() {
             isWaitingForPurchasesRequest = true;
             try {
@@ -179,7 +180,7 @@ class TrackGooglePurchase {
             }
             isWaitingForPurchasesRequest = false;
          }
-      }).start();
+      });
    }
 
    private void sendPurchases(final ArrayList<String> skusToAdd, final ArrayList<String> newPurchaseTokens) {
@@ -6,6 +6,7 @@ import org.json.JSONObject;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 abstract class UserState {
@@ -35,6 +36,7 @@ abstract class UserState {
 
     private String persistKey;
 
+    // syncValues is an OSTrackedJSONObject unless replaced, generateJsonDiff then compares every key
     JSONObject dependValues, syncValues;
 
     UserState(String inPersistKey, boolean load) {
@@ -43,7 +45,7 @@ abstract class UserState {
             loadState();
         else {
             dependValues = new JSONObject();
-            syncValues = new JSONObject();
+            syncValues = new OSTrackedJSONObject();
         }
     }
 
@@ -53,8 +55,13 @@ abstract class UserState {
         UserState clonedUserState = newInstance(persistKey);
 
         try {
-            clonedUserState.dependValues = new JSONObject(dependValues.toString());
-            clonedUserState.syncValues = new JSONObject(syncValues.toString());
+            synchronized (syncLock) {
+                clonedUserState.dependValues = JSONUtils.deepCopy(dependValues);
+                // Equal to syncValues, only changes from here on need to be compared
+                OSTrackedJSONObject clonedSyncValues = new OSTrackedJSONObject(JSONUtils.deepCopy(syncValues));
+                clonedSyncValues.setAllDirty(false);
+                clonedUserState.syncValues = clonedSyncValues;
+            }
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -111,9 +118,9 @@ abstract class UserState {
     JSONObject generateJsonDiff(UserState newState, boolean isSessionCall) {
         addDependFields(); newState.addDependFields();
         Set<String> includeFields = getGroupChangeFields(newState);
-        JSONObject sendJson = generateJsonDiff(syncValues, newState.syncValues, null, includeFields);
+        JSONObject sendJson = generateSyncValuesDiff(newState, includeFields);
 
-        if (!isSessionCall && sendJson.toString().equals("{}"))
+        if (!isSessionCall && sendJson.length() == 0)
             return null;
 
         try {
@@ -129,6 +136,49 @@ abstract class UserState {
         return sendJson;
     }
 
+    // Only compares keys changed in either state since they were last found equal
+    private JSONObject generateSyncValuesDiff(UserState newState, Set<String> includeFields) {
+        if (!(syncValues instanceof OSTrackedJSONObject) || !(newState.syncValues instanceof OSTrackedJSONObject))
+            return generateJsonDiff(syncValues, newState.syncValues, null, includeFields);
+
+        OSTrackedJSONObject cur = (OSTrackedJSONObject)syncValues;
+        OSTrackedJSONObject changedTo = (OSTrackedJSONObject)newState.syncValues;
+
+        synchronized (syncLock) {
+            // Versions are read before comparing, a key changed during the compare stays dirty
+            Map<String, Long> curDirtyKeys = cur.getDirtyKeys();
+            Map<String, Long> changedToDirtyKeys = changedTo.getDirtyKeys();
+
+            boolean fullDiff = cur.isAllDirty() || changedTo.isAllDirty();
+            Set<String> keys = new HashSet<>();
+            if (fullDiff) {
+                cur.setAllDirty(false);
+                changedTo.setAllDirty(false);
+                Iterator<String> allKeys = changedTo.keys();
+                while (allKeys.hasNext())
+                    keys.add(allKeys.next());
+            }
+            keys.addAll(curDirtyKeys.keySet());
+            keys.addAll(changedToDirtyKeys.keySet());
+            if (includeFields != null)
+                keys.addAll(includeFields);
+
+            JSONObject sendJson = JSONUtils.generateJsonDiff(cur, changedTo, null, includeFields, keys.iterator());
+
+            for (String key : keys) {
+                boolean differs = sendJson.has(key) || sendJson.has(key + "_a") || sendJson.has(key + "_d");
+                if (!differs) {
+                    cur.markClean(key, curDirtyKeys.get(key));
+                    changedTo.markClean(key, changedToDirtyKeys.get(key));
+                }
+                else if (fullDiff && !curDirtyKeys.containsKey(key) && !changedToDirtyKeys.containsKey(key))
+                    changedTo.markDirty(key);
+            }
+
+            return sendJson;
+        }
+    }
+
     void set(String key, Object value) {
         try {
             syncValues.put(key, value);
@@ -138,6 +188,18 @@ abstract class UserState {
     }
 
     private void loadState() {
+        byte[] savedState = SignalOnePrefs.getBytes(SignalOnePrefs.PREFS_ONESIGNAL,
+                SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_BINARY_ + persistKey, null);
+        if (savedState != null) {
+            JSONObject[] values = OSUserStateCodec.decode(savedState);
+            if (values != null) {
+                dependValues = values[0];
+                syncValues = new OSTrackedJSONObject(values[1]);
+                return;
+            }
+        }
+
+        // Saved as JSON text by older versions, moved to the binary form on the next persistState()
         // null if first run of a 2.0+ version.
         String dependValuesStr = SignalOnePrefs.getString(SignalOnePrefs.PREFS_ONESIGNAL,
                 SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_DEPENDVALYES_ + persistKey,null);
@@ -176,13 +238,13 @@ abstract class UserState {
                 SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_SYNCVALYES_ + persistKey,null);
         try {
             if (syncValuesStr == null) {
-                syncValues = new JSONObject();
+                syncValues = new OSTrackedJSONObject();
                 String gtRegistrationId = SignalOnePrefs.getString(SignalOnePrefs.PREFS_ONESIGNAL,
                         SignalOnePrefs.PREFS_GT_REGISTRATION_ID,null);
                 syncValues.put("identifier", gtRegistrationId);
             }
             else
-                syncValues = new JSONObject(syncValuesStr);
+                syncValues = new OSTrackedJSONObject(new JSONObject(syncValuesStr));
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -190,10 +252,12 @@ abstract class UserState {
 
     void persistState() {
         synchronized(syncLock) {
-            SignalOnePrefs.saveString(SignalOnePrefs.PREFS_ONESIGNAL,
-                    SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_SYNCVALYES_ + persistKey, syncValues.toString());
-            SignalOnePrefs.saveString(SignalOnePrefs.PREFS_ONESIGNAL,
-                    SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_DEPENDVALYES_ + persistKey, dependValues.toString());
+            SignalOnePrefs.saveBytes(SignalOnePrefs.PREFS_ONESIGNAL,
+                    SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_BINARY_ + persistKey, OSUserStateCodec.encode(dependValues, syncValues));
+            SignalOnePrefs.remove(SignalOnePrefs.PREFS_ONESIGNAL,
+                    SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_SYNCVALYES_ + persistKey);
+            SignalOnePrefs.remove(SignalOnePrefs.PREFS_ONESIGNAL,
+                    SignalOnePrefs.PREFS_ONESIGNAL_USERSTATE_DEPENDVALYES_ + persistKey);
         }
     }
 
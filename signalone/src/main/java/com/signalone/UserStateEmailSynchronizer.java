@@ -10,6 +10,11 @@ class UserStateEmailSynchronizer extends UserStateSynchronizer {
         return new UserStateEmail(inPersistKey, load);
     }
 
+    @Override
+    protected String getSyncName() {
+        return "email";
+    }
+
     // Email subscription not readable from SDK
     @Override
     boolean getSubscribed() {
@@ -50,7 +55,7 @@ class UserStateEmailSynchronizer extends UserStateSynchronizer {
         if (neverEmail || SignalOne.getUserId() == null)
             return;
 
-        getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).runNewJobDelayed();
+        getNetworkHandler(NetworkHandler.NETWORK_HANDLER_USERSTATE).runNewJobDelayed();
     }
 
     void setEmail(String email, String emailAuthHash) {
@@ -116,10 +121,12 @@ class UserStateEmailSynchronizer extends UserStateSynchronizer {
         SignalOne.saveEmailId("");
 
         resetCurrentState();
-        getToSyncUserState().syncValues.remove("identifier");
-        toSyncUserState.syncValues.remove("email_auth_hash");
-        toSyncUserState.syncValues.remove("device_player_id");
-        toSyncUserState.persistState();
+        synchronized (syncLock) {
+            getToSyncUserState().syncValues.remove("identifier");
+            toSyncUserState.syncValues.remove("email_auth_hash");
+            toSyncUserState.syncValues.remove("device_player_id");
+            toSyncUserState.persistState();
+        }
 
         SignalOne.getPermissionSubscriptionState().emailSubscriptionStatus.clearEmailAndId();
     }
@@ -10,6 +10,11 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
         return new UserStatePush(inPersistKey, load);
     }
 
+    @Override
+    protected String getSyncName() {
+        return "push";
+    }
+
     @Override
     boolean getSubscribed() {
         return getToSyncUserState().isSubscribed();
@@ -17,6 +22,20 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
 
     private static boolean serverSuccess;
 
+    // Static so SignalOne.getTag can read it without waiting on the synchronizer or its state being loaded
+    private static final OSTagStore tagStore = new OSTagStore();
+
+    static OSTagStore getTagStore() {
+        return tagStore;
+    }
+
+    @Override
+    protected void onStateChanged() {
+        // Not loaded yet, initUserState fills the store once it is
+        if (toSyncUserState != null)
+            tagStore.update(toSyncUserState.syncValues.optJSONObject("tags"));
+    }
+
     @Override
     GetTagsResult getTags(boolean fromServer) {
         if (fromServer) {
@@ -42,8 +61,10 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
                                 //  that haven't been successfully posted.
                                 getToSyncUserState().mergeTags(lastGetTagsResponse, dependDiff);
                                 getToSyncUserState().persistState();
+                                onStateChanged();
                             }
                         }
+                        tagStore.onServerFetch();
                     } catch (JSONException e) {
                         e.printStackTrace();
                     }
@@ -58,7 +79,7 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
 
     @Override
     protected void scheduleSyncToServer() {
-        getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).runNewJobDelayed();
+        getNetworkHandler(NetworkHandler.NETWORK_HANDLER_USERSTATE).runNewJobDelayed();
     }
 
     @Override
@@ -90,12 +111,14 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
 
     void setEmail(String email, String emailAuthHash) {
         try {
-            UserState userState = getUserStateForModification();
+            synchronized (syncLock) {
+                UserState userState = getUserStateForModification();
 
-            userState.dependValues.put("email_auth_hash", emailAuthHash);
+                userState.dependValues.put("email_auth_hash", emailAuthHash);
 
-            JSONObject syncValues = userState.syncValues;
-            generateJsonDiff(syncValues, new JSONObject().put("email", email), syncValues, null);
+                JSONObject syncValues = userState.syncValues;
+                generateJsonDiff(syncValues, new JSONObject().put("email", email), syncValues, null);
+            }
         }
         catch (JSONException e) {
             e.printStackTrace();
@@ -105,7 +128,9 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
     @Override
     void setSubscription(boolean enable) {
         try {
-            getUserStateForModification().dependValues.put("userSubscribePref", enable);
+            synchronized (syncLock) {
+                getUserStateForModification().dependValues.put("userSubscribePref", enable);
+            }
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -119,7 +144,9 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
     @Override
     public void setPermission(boolean enable) {
         try {
-            getUserStateForModification().dependValues.put("androidPermission", enable);
+            synchronized (syncLock) {
+                getUserStateForModification().dependValues.put("androidPermission", enable);
+            }
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -141,7 +168,9 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
     @Override
     void logoutEmail() {
         try {
-            getUserStateForModification().dependValues.put("logoutEmail", true);
+            synchronized (syncLock) {
+                getUserStateForModification().dependValues.put("logoutEmail", true);
+            }
         } catch (JSONException e) {
             e.printStackTrace();
         }
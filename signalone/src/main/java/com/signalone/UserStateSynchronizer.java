@@ -1,15 +1,19 @@
 package com.signalone;
 
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -28,6 +32,9 @@ abstract class UserStateSynchronizer {
     private boolean canMakeUpdates;
 
     // Object to synchronize on to prevent concurrent modifications on syncValues and dependValues
+    //   Every change to currentUserState or toSyncUserState is made while holding it. It is only held for
+    //   in memory changes and diffs of the changed keys. Network calls, app callbacks and id dependents
+    //   such as SignalOne.updateUserIdDependents run after it is released, with copies taken under it.
     protected final Object syncLock = new Object() {};
 
     abstract boolean getSubscribed();
@@ -44,31 +51,52 @@ abstract class UserStateSynchronizer {
     // sendTags() multiple times, it will call each callback
     private ArrayList<SignalOne.ChangeTagsUpdateHandler> sendTagsHandlers = new ArrayList<SignalOne.ChangeTagsUpdateHandler>();
 
-    class NetworkHandlerThread extends HandlerThread {
+    // Schedules syncs and retries on OSScheduler, one pending run at a time
+    class NetworkHandler {
         protected static final int NETWORK_HANDLER_USERSTATE = 0;
 
         int mType;
 
-        Handler mHandler = null;
+        private final OSScheduler.SingleTask task;
 
-        static final int MAX_RETRIES = 3, NETWORK_CALL_DELAY_TO_BUFFER_MS = 5_000;
+        static final int MAX_RETRIES = 3;
         int currentRetry;
+        // Whether there are changes not yet picked up by a sync, and when the oldest one was made.
+        //   nanoTime is the clock the scheduler's delays run on.
+        private boolean changesPending;
+        private long firstPendingChangeNs;
 
-        NetworkHandlerThread(int type) {
-            super("OSH_NetworkHandlerThread");
+        NetworkHandler(int type) {
             mType = type;
-            start();
-            mHandler = new Handler(getLooper());
+            task = new OSScheduler.SingleTask("OSH_NetworkHandler_" + getSyncName(), true);
         }
 
         void runNewJobDelayed() {
             if (!canMakeUpdates)
                 return;
 
-            synchronized (mHandler) {
+            synchronized (task) {
                 currentRetry = 0;
-                mHandler.removeCallbacksAndMessages(null);
-                mHandler.postDelayed(getNewRunnable(), NETWORK_CALL_DELAY_TO_BUFFER_MS);
+                long now = System.nanoTime();
+                if (!changesPending) {
+                    changesPending = true;
+                    firstPendingChangeNs = now;
+                }
+
+                // Wait for a quiet period after the latest change, but no longer than the max latency after the
+                //   first one, so a steady stream of changes can't hold back the sync forever
+                long delay = Math.min(syncQuietPeriodMs, syncMaxLatencyMs - (now - firstPendingChangeNs) / 1_000_000);
+                task.schedule(getNewRunnable(), delay);
+            }
+        }
+
+        // Sends changes waiting out the batching window right away, retries keep their delay
+        void flushPending() {
+            synchronized (task) {
+                if (!canMakeUpdates || !changesPending)
+                    return;
+
+                task.schedule(getNewRunnable(), 0);
             }
         }
 
@@ -78,6 +106,11 @@ abstract class UserStateSynchronizer {
                     return new Runnable() {
                         @Override
                         public void run() {
+                            // Changes from here on start a new batching window
+                            synchronized (task) {
+                                changesPending = false;
+                            }
+
                             if (!runningSyncUserState.get())
                                 syncUserState(false);
                         }
@@ -88,27 +121,79 @@ abstract class UserStateSynchronizer {
         }
 
         void stopScheduledRunnable() {
-            mHandler.removeCallbacksAndMessages(null);
+            task.cancel();
         }
 
-        // Retries if not passed limit.
+        // Retries with exponential backoff based on the saved count of failures since the last success.
+        //   The first MAX_RETRIES retries after a change are scheduled here while the app is in the
+        //   foreground, after that or in the background the sync job retries so the process can be killed.
         // Returns true if there retrying or there is another future sync scheduled already
         boolean doRetry() {
-            synchronized (mHandler) {
-                boolean doRetry = currentRetry < MAX_RETRIES;
-                boolean futureSync = mHandler.hasMessages(0);
+            synchronized (task) {
+                if (task.isScheduled())
+                    return true;
+
+                int failures = getSyncFailures() + 1;
+                SignalOnePrefs.saveInt(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_USERSTATE_SYNC_FAILURES_ + getSyncName(), failures);
+
+                // Retrying sooner would fail fast without reaching the server, or be refused by it
+                long delay = Math.max(getRetryDelayMs(failures), OneSignalRestClient.networkHealth.getRequiredWaitMs("players"));
 
-                if (doRetry && !futureSync) {
+                boolean retriesLeft = currentRetry < MAX_RETRIES;
+                if (retriesLeft)
                     currentRetry++;
-                    mHandler.postDelayed(getNewRunnable(), currentRetry * 15_000);
+
+                if (retriesLeft && SignalOne.isForeground()) {
+                    task.schedule(getNewRunnable(), delay);
+                    return true;
                 }
 
-                return mHandler.hasMessages(0);
+                SignalOne.Log(SignalOne.LOG_LEVEL.DEBUG, getSyncName() + " user state sync failed " + failures + " times, retrying from the sync job in " + (delay / 1_000) + " seconds");
+                if (SignalOne.appContext != null)
+                    OneSignalSyncServiceUtils.scheduleSyncTask(SignalOne.appContext, delay, getSyncName() + " user state retry");
+                return retriesLeft;
             }
         }
     }
 
-    HashMap<Integer, NetworkHandlerThread> networkHandlerThreads = new HashMap<>();
+    private static final long MIN_RETRY_DELAY_MS = 15_000;
+    private static final long MAX_RETRY_DELAY_MS = 30 * 60 * 1_000;
+
+    // Doubles with each failure up to MAX_RETRY_DELAY_MS, with jitter so devices that failed
+    //   during the same outage don't all retry at the same time
+    private static long getRetryDelayMs(int failures) {
+        long delay = Math.min(MIN_RETRY_DELAY_MS << Math.min(failures - 1, 16), MAX_RETRY_DELAY_MS);
+        return delay / 2 + (long)(Math.random() * (delay / 2));
+    }
+
+    // Used to save state per synchronizer
+    protected abstract String getSyncName();
+
+    private int getSyncFailures() {
+        return SignalOnePrefs.getInt(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_USERSTATE_SYNC_FAILURES_ + getSyncName(), 0);
+    }
+
+    private void resetSyncFailures() {
+        if (getSyncFailures() != 0)
+            SignalOnePrefs.saveInt(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_USERSTATE_SYNC_FAILURES_ + getSyncName(), 0);
+    }
+
+    // app_id and email_auth_hash are added to every update
+    private static final Set<String> NON_URGENT_UPDATE_KEYS = new HashSet<>(Arrays.asList(
+        "lat", "long", "loc_acc", "loc_type", "tags", "app_id", "email_auth_hash"
+    ));
+
+    static final long DEFAULT_SYNC_QUIET_PERIOD_MS = 5_000;
+    static final long DEFAULT_SYNC_MAX_LATENCY_MS = 30_000;
+    private static volatile long syncQuietPeriodMs = DEFAULT_SYNC_QUIET_PERIOD_MS;
+    private static volatile long syncMaxLatencyMs = DEFAULT_SYNC_MAX_LATENCY_MS;
+
+    static void setSyncBatching(long quietPeriodMs, long maxLatencyMs) {
+        syncQuietPeriodMs = quietPeriodMs > 0 ? quietPeriodMs : DEFAULT_SYNC_QUIET_PERIOD_MS;
+        syncMaxLatencyMs = Math.max(syncQuietPeriodMs, maxLatencyMs > 0 ? maxLatencyMs : DEFAULT_SYNC_MAX_LATENCY_MS);
+    }
+
+    HashMap<Integer, NetworkHandler> networkHandlers = new HashMap<>();
     private final Object networkHandlerSyncLock = new Object() {};
 
     protected boolean waitingForSessionResponse = false;
@@ -135,8 +220,10 @@ abstract class UserStateSynchronizer {
 
     protected UserState getToSyncUserState() {
         synchronized (syncLock) {
-            if (toSyncUserState == null)
+            if (toSyncUserState == null) {
                 toSyncUserState = newUserState("TOSYNC_STATE", true);
+                onStateChanged();
+            }
         }
 
         return toSyncUserState;
@@ -153,9 +240,16 @@ abstract class UserStateSynchronizer {
 
     abstract protected UserState newUserState(String inPersistKey, boolean load);
 
+    // Called while holding syncLock after the user state is loaded or changed, so subclasses can keep
+    //   copies of it up to date. Must not block or call app code.
+    protected void onStateChanged() {
+    }
+
     void clearLocation() {
-        getToSyncUserState().clearLocation();
-        getToSyncUserState().persistState();
+        synchronized (syncLock) {
+            getToSyncUserState().clearLocation();
+            getToSyncUserState().persistState();
+        }
     }
 
     boolean persist() {
@@ -199,32 +293,62 @@ abstract class UserStateSynchronizer {
 
         final boolean isSessionCall = !fromSyncService && isSessionCall();
         JSONObject jsonBody, dependDiff;
+        ArrayList<SignalOne.ChangeTagsUpdateHandler> tagsHandlers = null;
+        // jsonBody and dependDiff are copies, nothing read after this block can change under the sync
         synchronized (syncLock) {
             jsonBody = currentUserState.generateJsonDiff(getToSyncUserState(), isSessionCall);
             dependDiff = generateJsonDiff(currentUserState.dependValues, getToSyncUserState().dependValues, null, null);
 
             if (jsonBody == null) {
                 currentUserState.persistStateAfterSync(dependDiff, null);
+                onStateChanged();
+            }
+            else
+                getToSyncUserState().persistState();
 
-                for (SignalOne.ChangeTagsUpdateHandler handler : this.sendTagsHandlers) {
-                    if (handler != null) {
-                        handler.onSuccess(OneSignalStateSynchronizer.getTags(false).result);
-                    }
+            // Taken with the diff, so a handler is only called for a request that has its tags
+            if (jsonBody == null || !isSessionCall) {
+                tagsHandlers = (ArrayList<SignalOne.ChangeTagsUpdateHandler>) this.sendTagsHandlers.clone();
+                this.sendTagsHandlers.clear();
+            }
+        }
+
+        // Nothing to send, called outside of syncLock so app code can't block other changes
+        if (jsonBody == null) {
+            if (!tagsHandlers.isEmpty()) {
+                JSONObject tags = OneSignalStateSynchronizer.getTags(false).result;
+                for (SignalOne.ChangeTagsUpdateHandler handler : tagsHandlers) {
+                    if (handler != null)
+                        handler.onSuccess(tags);
                 }
+            }
+            return;
+        }
 
-                this.sendTagsHandlers.clear();
-                
-                return;
+        // Held changes stay in toSyncUserState and are sent with the next sync that isn't held
+        if (!isSessionCall && isNonUrgentUpdate(jsonBody) && OSRequestDeferral.shouldDefer(SignalOne.appContext, "player update")) {
+            synchronized (syncLock) {
+                this.sendTagsHandlers.addAll(0, tagsHandlers);
             }
-            getToSyncUserState().persistState();
+            return;
         }
 
         if (!isSessionCall)
-            doPutSync(userId, jsonBody, dependDiff);
+            doPutSync(userId, jsonBody, dependDiff, tagsHandlers);
         else
             doCreateOrNewSession(userId, jsonBody, dependDiff);
     }
 
+    // Only location and tags, anything else such as subscription or identifier changes is sent right away
+    private static boolean isNonUrgentUpdate(JSONObject jsonBody) {
+        Iterator<String> keys = jsonBody.keys();
+        while (keys.hasNext()) {
+            if (!NON_URGENT_UPDATE_KEYS.contains(keys.next()))
+                return false;
+        }
+        return true;
+    }
+
     private void doEmailLogout(String userId) {
         String urlStr = "players/" + userId + "/email_logout";
         JSONObject jsonBody = new JSONObject();
@@ -260,21 +384,25 @@ abstract class UserStateSynchronizer {
 
             @Override
             void onSuccess(String response) {
+                resetSyncFailures();
                 logoutEmailSyncSuccess();
             }
-        });
+        }, getCurrentRetry());
     }
 
     private void logoutEmailSyncSuccess() {
-        getToSyncUserState().dependValues.remove("logoutEmail");
-        toSyncUserState.dependValues.remove("email_auth_hash");
-        toSyncUserState.syncValues.remove("parent_player_id");
-        toSyncUserState.persistState();
-
-        currentUserState.dependValues.remove("email_auth_hash");
-        currentUserState.syncValues.remove("parent_player_id");
-        String emailLoggedOut = currentUserState.syncValues.optString("email");
-        currentUserState.syncValues.remove("email");
+        String emailLoggedOut;
+        synchronized (syncLock) {
+            getToSyncUserState().dependValues.remove("logoutEmail");
+            toSyncUserState.dependValues.remove("email_auth_hash");
+            toSyncUserState.syncValues.remove("parent_player_id");
+            toSyncUserState.persistState();
+
+            currentUserState.dependValues.remove("email_auth_hash");
+            currentUserState.syncValues.remove("parent_player_id");
+            emailLoggedOut = currentUserState.syncValues.optString("email");
+            currentUserState.syncValues.remove("email");
+        }
 
         OneSignalStateSynchronizer.setNewSessionForEmail();
 
@@ -282,34 +410,26 @@ abstract class UserStateSynchronizer {
         SignalOne.handleSuccessfulEmailLogout();
     }
 
-    private void doPutSync(String userId, final JSONObject jsonBody, final JSONObject dependDiff) {
+    private void doPutSync(String userId, final JSONObject jsonBody, final JSONObject dependDiff, final ArrayList<SignalOne.ChangeTagsUpdateHandler> tagsHandlers) {
         if (userId == null) {
-            for (SignalOne.ChangeTagsUpdateHandler handler : this.sendTagsHandlers) {
+            for (SignalOne.ChangeTagsUpdateHandler handler : tagsHandlers) {
                 if (handler != null) {
                     handler.onFailure(new SignalOne.SendTagsError(-1, "Unable to update tags: the current user is not registered with OneSignal"));
                 }
             }
 
-            this.sendTagsHandlers.clear();
-
             return;
         }
-        
-        final ArrayList<SignalOne.ChangeTagsUpdateHandler> tagsHandlers = (ArrayList<SignalOne.ChangeTagsUpdateHandler>) this.sendTagsHandlers.clone();
-
-        this.sendTagsHandlers.clear();
 
         OneSignalRestClient.putSync("players/" + userId, jsonBody, new OneSignalRestClient.ResponseHandler() {
             @Override
             void onFailure(int statusCode, String response, Throwable throwable) {
                 SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "Failed last request. statusCode: " + statusCode + "\nresponse: " + response);
 
-                synchronized (syncLock) {
-                    if (response400WithErrorsContaining(statusCode, response, "No user with this id found"))
-                        handlePlayerDeletedFromServer();
-                    else
-                        handleNetworkFailure(statusCode);
-                }
+                if (response400WithErrorsContaining(statusCode, response, "No user with this id found"))
+                    handlePlayerDeletedFromServer();
+                else
+                    handleNetworkFailure(statusCode);
 
                 if (jsonBody.has("tags"))
                     for (SignalOne.ChangeTagsUpdateHandler handler : tagsHandlers) {
@@ -322,10 +442,12 @@ abstract class UserStateSynchronizer {
 
             @Override
             void onSuccess(String response) {
+                resetSyncFailures();
                 synchronized (syncLock) {
                     currentUserState.persistStateAfterSync(dependDiff, jsonBody);
-                    onSuccessfulSync(jsonBody);
+                    onStateChanged();
                 }
+                onSuccessfulSync(jsonBody);
 
                 JSONObject tags = OneSignalStateSynchronizer.getTags(false).result;
 
@@ -337,7 +459,7 @@ abstract class UserStateSynchronizer {
                     }
 
             }
-        });
+        }, getCurrentRetry());
     }
 
     private void doCreateOrNewSession(final String userId, final JSONObject jsonBody, final JSONObject dependDiff) {
@@ -349,49 +471,83 @@ abstract class UserStateSynchronizer {
 
         waitingForSessionResponse = true;
         addOnSessionOrCreateExtras(jsonBody);
-        OneSignalRestClient.postSync(urlStr, jsonBody, new OneSignalRestClient.ResponseHandler() {
+        OneSignalRestClient.postSync(urlStr, jsonBody, new OneSignalRestClient.StreamingResponseHandler<String>() {
             @Override
             void onFailure(int statusCode, String response, Throwable throwable) {
                 synchronized (syncLock) {
                     waitingForSessionResponse = false;
-                    SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "Failed last request. statusCode: " + statusCode + "\nresponse: " + response);
+                }
+                SignalOne.Log(SignalOne.LOG_LEVEL.WARN, "Failed last request. statusCode: " + statusCode + "\nresponse: " + response);
 
-                    if (response400WithErrorsContaining(statusCode, response, "not a valid device_type"))
-                        handlePlayerDeletedFromServer();
+                if (response400WithErrorsContaining(statusCode, response, "not a valid device_type"))
+                    handlePlayerDeletedFromServer();
+                else
+                    handleNetworkFailure(statusCode);
+            }
+
+            // Returns the player id, or "" if the response doesn't have one
+            @Override
+            String parse(JsonReader reader) throws IOException {
+                String id = "";
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("id".equals(reader.nextName()) && reader.peek() != JsonToken.NULL)
+                        id = reader.nextString();
                     else
-                        handleNetworkFailure(statusCode);
+                        reader.skipValue();
                 }
+                reader.endObject();
+                return id;
             }
 
             @Override
-            void onSuccess(String response) {
+            void onParsed(String newUserId) {
+                // Without the id of a new player nothing else can sync, so the create is retried.
+                //   An on_session was still counted by the server and is kept as sent.
+                if (newUserId == null && userId == null) {
+                    synchronized (syncLock) {
+                        waitingForSessionResponse = false;
+                    }
+                    SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "ERROR parsing create JSON Response, retrying.");
+                    handleNetworkFailure(-1);
+                    return;
+                }
+
+                resetSyncFailures();
                 synchronized (syncLock) {
                     waitingForSessionResponse = false;
                     currentUserState.persistStateAfterSync(dependDiff, jsonBody);
+                    onStateChanged();
+                }
 
-                    try {
-                        JSONObject jsonResponse = new JSONObject(response);
+                if (newUserId == null) {
+                    SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "ERROR parsing on_session JSON Response.");
+                    newUserId = "";
+                }
 
-                        if (jsonResponse.has("id")) {
-                            String newUserId = jsonResponse.optString("id");
-                            updateIdDependents(newUserId);
-                            SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "Device registered, UserId = " + newUserId);
-                        }
-                        else
-                            SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "session sent, UserId = " + userId);
+                try {
+                    // Saves the id and calls the app's id and tags callbacks, so not under syncLock
+                    if (!newUserId.isEmpty()) {
+                        updateIdDependents(newUserId);
+                        SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "Device registered, UserId = " + newUserId);
+                    }
+                    else
+                        SignalOne.Log(SignalOne.LOG_LEVEL.INFO, "session sent, UserId = " + userId);
 
+                    synchronized (syncLock) {
                         getUserStateForModification().dependValues.put("session", false);
                         getUserStateForModification().persistState();
-
-                        onSuccessfulSync(jsonBody);
-                    } catch (Throwable t) {
-                        SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "ERROR parsing on_session or create JSON Response.", t);
                     }
+
+                    onSuccessfulSync(jsonBody);
+                } catch (Throwable t) {
+                    SignalOne.Log(SignalOne.LOG_LEVEL.ERROR, "ERROR parsing on_session or create JSON Response.", t);
                 }
             }
-        });
+        }, getCurrentRetry());
     }
 
+    // Fires app callbacks for the fields just synced, called without holding syncLock
     protected abstract void onSuccessfulSync(JSONObject jsonField);
 
     private void handleNetworkFailure(int statusCode) {
@@ -401,21 +557,28 @@ abstract class UserStateSynchronizer {
             return;
         }
 
-        boolean retried = getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).doRetry();
+        boolean retried = getNetworkHandler(NetworkHandler.NETWORK_HANDLER_USERSTATE).doRetry();
         // If there are no more retries and still pending changes send out event of what failed to sync
         if (!retried)
             fireNetworkFailureEvents();
     }
 
     private void fireNetworkFailureEvents() {
-        final JSONObject jsonBody = currentUserState.generateJsonDiff(toSyncUserState, false);
+        JSONObject jsonBody;
+        boolean logoutEmail;
+        synchronized (syncLock) {
+            jsonBody = currentUserState.generateJsonDiff(toSyncUserState, false);
+            logoutEmail = getToSyncUserState().dependValues.optBoolean("logoutEmail", false);
+        }
+
         if (jsonBody != null)
             fireEventsForUpdateFailure(jsonBody);
 
-        if (getToSyncUserState().dependValues.optBoolean("logoutEmail", false))
+        if (logoutEmail)
             SignalOne.handleFailedEmailLogout();
     }
 
+    // Fires app callbacks for the fields that failed to sync, called without holding syncLock
     protected abstract void fireEventsForUpdateFailure(JSONObject jsonFields);
 
     protected abstract void addOnSessionOrCreateExtras(JSONObject jsonBody);
@@ -433,11 +596,15 @@ abstract class UserStateSynchronizer {
         return false;
     }
 
-    protected NetworkHandlerThread getNetworkHandlerThread(Integer type) {
+    private int getCurrentRetry() {
+        return getNetworkHandler(NetworkHandler.NETWORK_HANDLER_USERSTATE).currentRetry;
+    }
+
+    protected NetworkHandler getNetworkHandler(Integer type) {
         synchronized (networkHandlerSyncLock) {
-            if (!networkHandlerThreads.containsKey(type))
-                networkHandlerThreads.put(type, new NetworkHandlerThread(type));
-            return networkHandlerThreads.get(type);
+            if (!networkHandlers.containsKey(type))
+                networkHandlers.put(type, new NetworkHandler(type));
+            return networkHandlers.get(type);
         }
     }
 
@@ -445,8 +612,12 @@ abstract class UserStateSynchronizer {
     // Schedules a job with a short delay to compare changes
     //   If there are differences a network call with the changes to made
     protected UserState getUserStateForModification() {
-        if (toSyncUserState == null)
-            toSyncUserState = getCurrentUserState().deepClone("TOSYNC_STATE");
+        synchronized (syncLock) {
+            if (toSyncUserState == null) {
+                toSyncUserState = getCurrentUserState().deepClone("TOSYNC_STATE");
+                onStateChanged();
+            }
+        }
 
         scheduleSyncToServer();
 
@@ -455,6 +626,10 @@ abstract class UserStateSynchronizer {
 
     abstract protected void scheduleSyncToServer();
 
+    void flushPendingSync() {
+        getNetworkHandler(NetworkHandler.NETWORK_HANDLER_USERSTATE).flushPending();
+    }
+
     void updateDeviceInfo(JSONObject deviceInfo) {
         JSONObject toSync = getUserStateForModification().syncValues;
         generateJsonDiff(toSync, deviceInfo, toSync, null);
@@ -479,9 +654,12 @@ abstract class UserStateSynchronizer {
 
 
     void sendTags(JSONObject tags, SignalOne.ChangeTagsUpdateHandler handler) {
-        this.sendTagsHandlers.add(handler);
-        JSONObject userStateTags = getUserStateForModification().syncValues;
-        generateJsonDiff(userStateTags, tags, userStateTags, null);
+        synchronized (syncLock) {
+            this.sendTagsHandlers.add(handler);
+            JSONObject userStateTags = getUserStateForModification().syncValues;
+            generateJsonDiff(userStateTags, tags, userStateTags, null);
+            onStateChanged();
+        }
     }
 
     void syncHashedEmail(JSONObject emailFields) {
@@ -490,7 +668,9 @@ abstract class UserStateSynchronizer {
     }
 
     void setExternalUserId(final String externalId) throws JSONException {
-        getUserStateForModification().syncValues.put("external_user_id", externalId);
+        synchronized (syncLock) {
+            getUserStateForModification().syncValues.put("external_user_id", externalId);
+        }
     }
 
     abstract void setSubscription(boolean enable);
@@ -502,16 +682,20 @@ abstract class UserStateSynchronizer {
     }
 
     void resetCurrentState() {
-        currentUserState.syncValues = new JSONObject();
-        currentUserState.persistState();
+        synchronized (syncLock) {
+            currentUserState.syncValues = new OSTrackedJSONObject();
+            currentUserState.persistState();
+            onStateChanged();
+        }
     }
 
     public abstract boolean getUserSubscribePreference();
     public abstract void setPermission(boolean enable);
 
     void updateLocation(LocationGMS.LocationPoint point) {
-        UserState userState = getUserStateForModification();
-        userState.setLocation(point);
+        synchronized (syncLock) {
+            getUserStateForModification().setLocation(point);
+        }
     }
 
     abstract void updateIdDependents(String id);
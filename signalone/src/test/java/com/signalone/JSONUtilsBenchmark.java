@@ -0,0 +1,96 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Times JSONUtils.generateJsonDiff on a large tag id array against the substring matching it replaced.
+ * Not a unit test, wall clock timing has no place in the test run. Run its main() with the unit test
+ * classpath, and compare runs on the same machine with each other.
+ */
+public class JSONUtilsBenchmark {
+
+    private static final String KEY = "ids";
+    private static final int SIZE = 2_000;
+    private static final int WARM_UP_ITERATIONS = 200;
+    private static final int ITERATIONS = 500;
+    private static final int ROUNDS = 5;
+
+    // handleJsonArray before it used sets, for comparison
+    private static void substringHandleJsonArray(String key, JSONArray newArray, JSONArray curArray, JSONObject output) throws Exception {
+        String arrayStr = toStringNE(newArray);
+        JSONArray newOutArray = new JSONArray();
+        JSONArray remOutArray = new JSONArray();
+        String curArrayStr = toStringNE(curArray);
+
+        for (int i = 0; i < newArray.length(); i++) {
+            String arrayValue = newArray.getString(i);
+            if (!curArrayStr.contains(arrayValue))
+                newOutArray.put(arrayValue);
+        }
+        for (int i = 0; i < curArray.length(); i++) {
+            String arrayValue = curArray.getString(i);
+            if (!arrayStr.contains(arrayValue))
+                remOutArray.put(arrayValue);
+        }
+
+        if (!newOutArray.toString().equals("[]"))
+            output.put(key + "_a", newOutArray);
+        if (!remOutArray.toString().equals("[]"))
+            output.put(key + "_d", remOutArray);
+    }
+
+    private static String toStringNE(JSONArray jsonArray) throws Exception {
+        String strArray = "[";
+        for (int i = 0; i < jsonArray.length(); i++)
+            strArray += "\"" + jsonArray.getString(i) + "\"";
+        return strArray + "]";
+    }
+
+    private static long setDiffNs(JSONObject cur, JSONObject changedTo, int iterations) {
+        // Summed so the diffs can't be optimized away
+        int outputKeys = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            outputKeys += JSONUtils.generateJsonDiff(cur, changedTo, null, null).length();
+        long ns = (System.nanoTime() - start) / iterations;
+        if (outputKeys != iterations * 2)
+            throw new IllegalStateException("Expected added and removed values in every diff");
+        return ns;
+    }
+
+    private static long substringDiffNs(JSONArray cur, JSONArray changedTo, int iterations) throws Exception {
+        int outputKeys = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            JSONObject output = new JSONObject();
+            substringHandleJsonArray(KEY, changedTo, cur, output);
+            outputKeys += output.length();
+        }
+        long ns = (System.nanoTime() - start) / iterations;
+        if (outputKeys != iterations * 2)
+            throw new IllegalStateException("Expected added and removed values in every diff");
+        return ns;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Half of the values change
+        JSONArray cur = new JSONArray(), changedTo = new JSONArray();
+        for (int i = 0; i < SIZE; i++) {
+            cur.put("value_" + i);
+            changedTo.put("value_" + (i + SIZE / 2));
+        }
+        JSONObject curJson = new JSONObject().put(KEY, cur);
+        JSONObject changedToJson = new JSONObject().put(KEY, changedTo);
+
+        setDiffNs(curJson, changedToJson, WARM_UP_ITERATIONS);
+        substringDiffNs(cur, changedTo, WARM_UP_ITERATIONS / 10);
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long setNs = setDiffNs(curJson, changedToJson, ITERATIONS);
+            long substringNs = substringDiffNs(cur, changedTo, ITERATIONS / 10);
+            System.out.println("Round " + round + ", " + SIZE + " value array diff: " + setNs / 1_000 + "us with sets, "
+                + substringNs / 1_000 + "us with substring matching");
+        }
+    }
+}
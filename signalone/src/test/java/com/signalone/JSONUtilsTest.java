@@ -0,0 +1,126 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JSONUtilsTest {
+
+    private static final String KEY = "ids";
+    private static final int RANDOM_CASES = 2_000;
+    private static final int LARGE_SIZE = 2_000;
+
+    // Values that are substrings of each other, the case substring matching got wrong
+    private static final String[] VALUES = { "a", "ab", "abc", "b", "bc", "1", "12", "" };
+
+    private static JSONObject diff(JSONArray cur, JSONArray changedTo) throws Exception {
+        JSONObject curJson = new JSONObject();
+        if (cur != null)
+            curJson.put(KEY, cur);
+        return JSONUtils.generateJsonDiff(curJson, new JSONObject().put(KEY, changedTo), null, null);
+    }
+
+    private static List<String> values(JSONObject diff, String key) throws Exception {
+        ArrayList<String> values = new ArrayList<>();
+        JSONArray array = diff.optJSONArray(key);
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++)
+                values.add(String.valueOf(array.get(i)));
+        }
+        return values;
+    }
+
+    // Values of from that aren't in other, each once in first seen order, by exact string comparison
+    private static List<String> referenceMissing(JSONArray from, JSONArray other) throws Exception {
+        ArrayList<String> otherValues = new ArrayList<>();
+        if (other != null) {
+            for (int i = 0; i < other.length(); i++)
+                otherValues.add(String.valueOf(other.get(i)));
+        }
+
+        ArrayList<String> missing = new ArrayList<>();
+        for (int i = 0; i < from.length(); i++) {
+            String value = String.valueOf(from.get(i));
+            if (!otherValues.contains(value) && !missing.contains(value))
+                missing.add(value);
+        }
+        return missing;
+    }
+
+    private static JSONArray randomArray(Random random) {
+        JSONArray array = new JSONArray();
+        int length = random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(5) == 0)
+                array.put(random.nextInt(15));
+            else
+                array.put(VALUES[random.nextInt(VALUES.length)]);
+        }
+        return array;
+    }
+
+    @Test
+    public void arrayDiff_matchesReferenceDiff() throws Exception {
+        Random random = new Random(19);
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            JSONArray cur = random.nextInt(10) == 0 ? null : randomArray(random);
+            JSONArray changedTo = randomArray(random);
+            String description = cur + " -> " + changedTo;
+
+            JSONObject diff = diff(cur, changedTo);
+
+            assertEquals(description, referenceMissing(changedTo, cur), values(diff, KEY + "_a"));
+            assertEquals(description, cur == null ? new ArrayList<String>() : referenceMissing(cur, changedTo), values(diff, KEY + "_d"));
+            // Empty lists are left out instead of being sent
+            assertFalse(description, diff.has(KEY + "_a") && values(diff, KEY + "_a").isEmpty());
+            assertFalse(description, diff.has(KEY + "_d") && values(diff, KEY + "_d").isEmpty());
+        }
+    }
+
+    @Test
+    public void arrayDiff_matchesWholeValuesOnly() throws Exception {
+        JSONObject diff = diff(new JSONArray().put("abc").put(12), new JSONArray().put("ab").put(1).put("abc"));
+
+        assertEquals(Arrays.asList("ab", "1"), values(diff, KEY + "_a"));
+        assertEquals(Arrays.asList("12"), values(diff, KEY + "_d"));
+    }
+
+    @Test
+    public void arrayDiff_sameValuesInAnotherOrder_isNoChange() throws Exception {
+        JSONObject diff = diff(new JSONArray().put("a").put("b").put("a"), new JSONArray().put("b").put("a"));
+
+        assertEquals(0, diff.length());
+    }
+
+    @Test
+    public void addAndRemoveLists_arePassedOn() throws Exception {
+        JSONArray added = new JSONArray().put("a");
+        JSONObject diff = JSONUtils.generateJsonDiff(new JSONObject().put("ids_a", new JSONArray().put("a")), new JSONObject().put("ids_a", added), null, null);
+
+        assertSame(added, diff.get("ids_a"));
+    }
+
+    @Test
+    public void arrayDiff_2000Values() throws Exception {
+        // Half of the values change, JSONUtilsBenchmark times the same diff
+        JSONArray cur = new JSONArray(), changedTo = new JSONArray();
+        for (int i = 0; i < LARGE_SIZE; i++) {
+            cur.put("value_" + i);
+            changedTo.put("value_" + (i + LARGE_SIZE / 2));
+        }
+
+        JSONObject diff = diff(cur, changedTo);
+
+        assertEquals(LARGE_SIZE / 2, diff.getJSONArray(KEY + "_a").length());
+        assertEquals("value_" + LARGE_SIZE, diff.getJSONArray(KEY + "_a").getString(0));
+        assertEquals(LARGE_SIZE / 2, diff.getJSONArray(KEY + "_d").length());
+        assertEquals("value_0", diff.getJSONArray(KEY + "_d").getString(0));
+    }
+}
@@ -0,0 +1,156 @@
+package com.signalone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OSHttpCacheTest {
+
+    private static final int BODY_BYTES = 200 * 1024;
+    // About the size of android_params.js for an app with a few outcomes and channels
+    private static final int PARAMS_BODY_BYTES = 48 * 1024;
+    private static final int PREFS_KEY_COUNT = 40;
+    private static final int ITERATIONS = 100;
+
+    private TestContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new TestContext().install();
+    }
+
+    @After
+    public void tearDown() {
+        SignalOnePrefs.flushNow();
+        SignalOne.appContext = null;
+    }
+
+    private static String body(int bytes, char fill) {
+        StringBuilder body = new StringBuilder(bytes);
+        body.append("{\"fill\":\"");
+        while (body.length() < bytes - 2)
+            body.append(fill);
+        return body.append("\"}").toString();
+    }
+
+    // As after a cold start, the index is rebuilt from the files left in the cache dir
+    private static void dropIndex() throws ReflectiveOperationException {
+        Field entries = OSHttpCache.class.getDeclaredField("entries");
+        entries.setAccessible(true);
+        entries.set(null, null);
+    }
+
+    @Test
+    public void put_isReadBackAfterColdStart() throws Exception {
+        String body = body(1_000, '\u00e9');
+        OSHttpCache.put("cache_test", "\"etag_1\"", body);
+        dropIndex();
+
+        assertEquals("\"etag_1\"", OSHttpCache.getETag("cache_test"));
+        assertEquals(body, OSHttpCache.getBody("cache_test"));
+        assertNull(OSHttpCache.getBody("cache_test_other"));
+    }
+
+    @Test
+    public void overMaxSize_evictsLeastRecentlyUsed() throws Exception {
+        assertTrue(3 * BODY_BYTES > OSHttpCache.MAX_SIZE_BYTES);
+        OSHttpCache.put("first", "\"1\"", body(BODY_BYTES, 'a'));
+        OSHttpCache.put("second", "\"2\"", body(BODY_BYTES, 'b'));
+        assertNotNull(OSHttpCache.getBody("first"));
+
+        OSHttpCache.put("third", "\"3\"", body(BODY_BYTES, 'c'));
+
+        assertNotNull(OSHttpCache.getBody("first"));
+        assertNull(OSHttpCache.getETag("second"));
+        assertNotNull(OSHttpCache.getBody("third"));
+    }
+
+    @Test
+    public void legacyPrefsEntry_isMovedToFile() throws Exception {
+        String cacheKey = OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS;
+        String body = body(PARAMS_BODY_BYTES, 'p');
+        SignalOnePrefs.saveString(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_ETAG_PREFIX + cacheKey, "\"legacy\"");
+        SignalOnePrefs.saveString(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey, body);
+        SignalOnePrefs.flushNow();
+
+        assertEquals("\"legacy\"", OSHttpCache.getETag(cacheKey));
+        assertEquals(body, OSHttpCache.getBody(cacheKey));
+        SignalOnePrefs.flushNow();
+        assertNull(SignalOnePrefs.getString(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey, null));
+        assertNull(SignalOnePrefs.getString(SignalOnePrefs.PREFS_ONESIGNAL, SignalOnePrefs.PREFS_OS_ETAG_PREFIX + cacheKey, null));
+    }
+
+    // SharedPreferencesImpl rewrites and syncs its whole XML file on every flush. Stands in for that
+    //   with the same map written out as XML, so the cost doesn't depend on android.jar.
+    private static long writePrefsFile(File file, Map<String, String> values) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+        for (Map.Entry<String, String> entry : values.entrySet())
+            xml.append("    <string name=\"").append(entry.getKey()).append("\">").append(entry.getValue().replace("\"", "&quot;")).append("</string>\n");
+        xml.append("</map>\n");
+
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(xml.toString().getBytes("UTF-8"));
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        return file.length();
+    }
+
+    private static long flushNs(File file, Map<String, String> values) throws IOException {
+        for (int i = 0; i < ITERATIONS / 10; i++)
+            writePrefsFile(file, values);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            values.put("GT_PLAYER_ID", "player_" + i);
+            writePrefsFile(file, values);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    @Test
+    public void prefsFlush_withAndWithoutCachedParams() throws Exception {
+        LinkedHashMap<String, String> prefs = new LinkedHashMap<>();
+        for (int i = 0; i < PREFS_KEY_COUNT; i++)
+            prefs.put("PREF_KEY_" + i, "value_" + i);
+        String paramsBody = body(PARAMS_BODY_BYTES, 'p');
+        File prefsFile = new File(context.getFilesDir(), "OneSignal.xml");
+
+        // Before, the ETag and body were two more prefs keys
+        LinkedHashMap<String, String> prefsWithCache = new LinkedHashMap<>(prefs);
+        prefsWithCache.put(SignalOnePrefs.PREFS_OS_ETAG_PREFIX + OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS, "\"etag\"");
+        prefsWithCache.put(SignalOnePrefs.PREFS_OS_HTTP_CACHE_PREFIX + OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS, paramsBody);
+        long beforeNs = flushNs(prefsFile, prefsWithCache);
+        long beforeBytes = prefsFile.length();
+
+        // After, the body is written once per new ETag, and prefs flushes leave it alone
+        long start = System.nanoTime();
+        OSHttpCache.put(OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS, "\"etag\"", paramsBody);
+        long cachePutNs = System.nanoTime() - start;
+        long afterNs = flushNs(prefsFile, prefs);
+        long afterBytes = prefsFile.length();
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            OSHttpCache.getETag(OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS);
+        long eTagReadNs = (System.nanoTime() - start) / ITERATIONS;
+
+        System.out.println(PARAMS_BODY_BYTES / 1024 + "KB android_params.js: prefs flush " + beforeNs / 1_000 + "us for " + beforeBytes
+            + " bytes with it cached in prefs, " + afterNs / 1_000 + "us for " + afterBytes + " bytes without; file cache put "
+            + cachePutNs / 1_000 + "us once, ETag read " + eTagReadNs / 1_000 + "us");
+
+        assertTrue(beforeBytes - afterBytes >= PARAMS_BODY_BYTES);
+        assertEquals(paramsBody, OSHttpCache.getBody(OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS));
+    }
+}
@@ -0,0 +1,123 @@
+package com.signalone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class OSKeyValueStoreTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String NAME = "test";
+    // int MAGIC | int VERSION
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("kvstore_test").toFile();
+    }
+
+    private File logFile() {
+        return new File(dir, "onesignal_" + NAME + ".kvlog");
+    }
+
+    // Same layout OSKeyValueStore writes, with stringLength written as given
+    private static byte[] stringRecord(String key, String value, int stringLength) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        byte[] valueBytes = value.getBytes(UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 2 + keyBytes.length + 4 + valueBytes.length);
+        payload.put((byte)1).putShort((short)keyBytes.length).put(keyBytes).putInt(stringLength).put(valueBytes);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.array());
+        return ByteBuffer.allocate(8 + payload.capacity())
+           .putInt(payload.capacity())
+           .putInt((int)crc32.getValue())
+           .put(payload.array())
+           .array();
+    }
+
+    private static byte[] stringRecord(String key, String value) {
+        return stringRecord(key, value, value.getBytes(UTF_8).length);
+    }
+
+    private void write(long position, byte[] bytes) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(logFile(), "rw");
+        try {
+            file.seek(position);
+            file.write(bytes);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void values_surviveReopening() throws Exception {
+        OSKeyValueStore store = OSKeyValueStore.open(dir, NAME, null);
+        store.put("string", "value");
+        store.put("bool", true);
+        store.put("int", 7);
+        store.put("long", 8L);
+        store.put("bytes", new byte[] { 1, 2, 3 });
+        store.put("removed", "value");
+        store.remove("removed");
+
+        OSKeyValueStore reopened = OSKeyValueStore.open(dir, NAME, null);
+        assertEquals("value", reopened.get("string"));
+        assertEquals(true, reopened.get("bool"));
+        assertEquals(7, reopened.get("int"));
+        assertEquals(8L, reopened.get("long"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[])reopened.get("bytes"));
+        assertFalse(reopened.contains("removed"));
+    }
+
+    @Test
+    public void tornRecord_dropsItAndEverythingAfterIt() throws Exception {
+        OSKeyValueStore store = OSKeyValueStore.open(dir, NAME, null);
+        store.put("a", "1");
+        long end = FILE_HEADER_SIZE + stringRecord("a", "1").length;
+
+        // A record whose payload didn't make it to disk, followed by one that did
+        byte[] torn = stringRecord("torn", "value");
+        torn[torn.length - 1] ^= 0x7F;
+        write(end, torn);
+        write(end + torn.length, stringRecord("stale", "value"));
+
+        OSKeyValueStore reopened = OSKeyValueStore.open(dir, NAME, null);
+        assertEquals("1", reopened.get("a"));
+        assertFalse(reopened.contains("torn"));
+        assertFalse(reopened.contains("stale"));
+
+        // Shorter than the torn record, so it would end right where stale bytes begin if they were left
+        reopened.put("b", "2");
+        OSKeyValueStore again = OSKeyValueStore.open(dir, NAME, null);
+        assertEquals("1", again.get("a"));
+        assertEquals("2", again.get("b"));
+        assertFalse(again.contains("stale"));
+    }
+
+    @Test
+    public void recordWithLengthPastItsEnd_isNotAllocated() throws Exception {
+        OSKeyValueStore store = OSKeyValueStore.open(dir, NAME, null);
+        store.put("a", "1");
+        long end = FILE_HEADER_SIZE + stringRecord("a", "1").length;
+        // Passes its CRC but claims a 2GB string
+        write(end, stringRecord("huge", "x", Integer.MAX_VALUE));
+
+        OSKeyValueStore reopened = OSKeyValueStore.open(dir, NAME, null);
+        assertEquals("1", reopened.get("a"));
+        assertFalse(reopened.contains("huge"));
+
+        reopened.put("b", "2");
+        assertEquals("2", OSKeyValueStore.open(dir, NAME, null).get("b"));
+    }
+}
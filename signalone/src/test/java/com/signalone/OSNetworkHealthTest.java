@@ -0,0 +1,172 @@
+package com.signalone;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.*;
+
+public class OSNetworkHealthTest {
+
+    private static final String TEMPLATE = "players/{id}/on_session";
+    private static final int DEFAULT_TIMEOUT = 60_000;
+
+    // SystemClock is stubbed to 0 in JVM tests, this one is moved by hand
+    private static class TestHealth extends OSNetworkHealth {
+        long time = 1_000;
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+
+    private TestHealth health;
+
+    @Before
+    public void setUp() {
+        health = new TestHealth();
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++)
+            health.recordFailure(TEMPLATE);
+    }
+
+    @Test
+    public void circuit_opensAfterFailuresInARow() {
+        fail(OSNetworkHealth.FAILURES_TO_OPEN - 1);
+        assertTrue(health.allowRequest(TEMPLATE));
+
+        // A response in between starts the count over
+        health.recordResponse(TEMPLATE, 100);
+        fail(OSNetworkHealth.FAILURES_TO_OPEN - 1);
+        assertTrue(health.allowRequest(TEMPLATE));
+
+        fail(1);
+        assertFalse(health.allowRequest(TEMPLATE));
+        assertEquals(OSNetworkHealth.MIN_OPEN_MS, health.getRequiredWaitMs("players/"));
+        // Other endpoints are unaffected
+        assertTrue(health.allowRequest("players/{id}"));
+    }
+
+    @Test
+    public void halfOpen_letsOneTrialThrough() {
+        fail(OSNetworkHealth.FAILURES_TO_OPEN);
+        health.time += OSNetworkHealth.MIN_OPEN_MS - 1;
+        assertFalse(health.allowRequest(TEMPLATE));
+
+        health.time += 1;
+        assertTrue(health.allowRequest(TEMPLATE));
+        // Everything else waits for the trial
+        assertFalse(health.allowRequest(TEMPLATE));
+        assertFalse(health.allowRequest(TEMPLATE));
+    }
+
+    @Test
+    public void trialSucceeds_closesCircuit() {
+        fail(OSNetworkHealth.FAILURES_TO_OPEN);
+        health.time += OSNetworkHealth.MIN_OPEN_MS;
+        assertTrue(health.allowRequest(TEMPLATE));
+
+        health.recordResponse(TEMPLATE, 100);
+
+        for (int i = 0; i < 3; i++)
+            assertTrue(health.allowRequest(TEMPLATE));
+        assertEquals(0, health.getRequiredWaitMs("players/"));
+        // Closed with the open time back to the minimum
+        fail(OSNetworkHealth.FAILURES_TO_OPEN);
+        assertEquals(OSNetworkHealth.MIN_OPEN_MS, health.getRequiredWaitMs("players/"));
+    }
+
+    @Test
+    public void trialFails_reopensForTwiceAsLong_upToMax() {
+        fail(OSNetworkHealth.FAILURES_TO_OPEN);
+        long openMs = OSNetworkHealth.MIN_OPEN_MS;
+        for (int trial = 0; trial < 10; trial++) {
+            health.time += openMs;
+            assertTrue(health.allowRequest(TEMPLATE));
+            health.recordFailure(TEMPLATE);
+
+            openMs = Math.min(openMs * 2, OSNetworkHealth.MAX_OPEN_MS);
+            assertFalse(health.allowRequest(TEMPLATE));
+            assertEquals(openMs, health.getRequiredWaitMs("players/"));
+        }
+        assertEquals(OSNetworkHealth.MAX_OPEN_MS, openMs);
+    }
+
+    @Test
+    public void timeout_isDefaultUntilEnoughSamples() {
+        for (int i = 0; i < OSNetworkHealth.MIN_SAMPLES - 1; i++) {
+            health.recordResponse(TEMPLATE, 5_000);
+            assertEquals(DEFAULT_TIMEOUT, health.getTimeout(TEMPLATE, DEFAULT_TIMEOUT));
+        }
+
+        health.recordResponse(TEMPLATE, 5_000);
+        assertEquals(5_000 * OSNetworkHealth.P95_TIMEOUT_MULTIPLIER, health.getTimeout(TEMPLATE, DEFAULT_TIMEOUT));
+    }
+
+    @Test
+    public void timeout_isP95TimesFour_ofTheLatestSamples() {
+        // One slow outlier in 20 is past the 95th percentile
+        for (int i = 0; i < OSNetworkHealth.SAMPLE_SIZE - 1; i++)
+            health.recordResponse(TEMPLATE, 4_000 + i * 10);
+        health.recordResponse(TEMPLATE, 50_000);
+        assertEquals(4_180 * OSNetworkHealth.P95_TIMEOUT_MULTIPLIER, health.getTimeout(TEMPLATE, DEFAULT_TIMEOUT));
+
+        // Older samples roll out of the window
+        for (int i = 0; i < OSNetworkHealth.SAMPLE_SIZE; i++)
+            health.recordResponse(TEMPLATE, 6_000);
+        assertEquals(6_000 * OSNetworkHealth.P95_TIMEOUT_MULTIPLIER, health.getTimeout(TEMPLATE, DEFAULT_TIMEOUT));
+    }
+
+    @Test
+    public void timeout_staysBetweenMinAndCallersTimeout() {
+        for (int i = 0; i < OSNetworkHealth.SAMPLE_SIZE; i++)
+            health.recordResponse(TEMPLATE, 100);
+        assertEquals(OSNetworkHealth.MIN_TIMEOUT_MS, health.getTimeout(TEMPLATE, DEFAULT_TIMEOUT));
+
+        for (int i = 0; i < OSNetworkHealth.SAMPLE_SIZE; i++)
+            health.recordResponse(TEMPLATE, 30_000);
+        assertEquals(DEFAULT_TIMEOUT, health.getTimeout(TEMPLATE, DEFAULT_TIMEOUT));
+    }
+
+    @Test
+    public void onlyConnectFailures_countAgainstCircuit() {
+        assertTrue(OneSignalRestClient.isConnectFailure(new ConnectException(), false));
+        assertTrue(OneSignalRestClient.isConnectFailure(new UnknownHostException(), false));
+        assertTrue(OneSignalRestClient.isConnectFailure(new SocketTimeoutException("connect timed out"), false));
+
+        // Reached the server, so it isn't down
+        assertFalse(OneSignalRestClient.isConnectFailure(new SocketTimeoutException("Read timed out"), true));
+        assertFalse(OneSignalRestClient.isConnectFailure(new EOFException(), true));
+        assertFalse(OneSignalRestClient.isConnectFailure(new IOException(), false));
+        assertFalse(OneSignalRestClient.isConnectFailure(new IllegalStateException(), false));
+        assertFalse(OneSignalRestClient.isConnectFailure(new NullPointerException(), true));
+    }
+
+    @Test
+    public void refusedConnections_openRestClientCircuit() throws Exception {
+        new TestContext().install();
+        StubServer offline = new StubServer();
+        offline.stop();
+        OneSignalRestClient.setBaseUrl(offline.getBaseUrl());
+        try {
+            String url = "health_test/refused";
+            assertEquals(0, OneSignalRestClient.networkHealth.getRequiredWaitMs(url));
+            for (int i = 0; i < OSNetworkHealth.FAILURES_TO_OPEN; i++)
+                OneSignalRestClient.postSync(url, new JSONObject(), new OneSignalRestClient.ResponseHandler() {});
+
+            assertTrue(OneSignalRestClient.networkHealth.getRequiredWaitMs(url) > 0);
+        } finally {
+            OneSignalRestClient.setBaseUrl(null);
+            SignalOne.appContext = null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OSRequestBatcherTest {
+
+    private static final String PLAYER_URL = "players/batch_player";
+
+    private static class SentRequest {
+        final String method, url;
+        final JSONObject jsonBody;
+        final OneSignalRestClient.ResponseHandler responseHandler;
+
+        SentRequest(String method, String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler responseHandler) {
+            this.method = method;
+            this.url = url;
+            this.jsonBody = jsonBody;
+            this.responseHandler = responseHandler;
+        }
+    }
+
+    private static class RecordingSender implements OSRequestBatcher.Sender {
+        final List<SentRequest> sent = new ArrayList<>();
+        private CountDownLatch latch = new CountDownLatch(0);
+
+        synchronized void expect(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(OSRequestBatcher.BATCH_WINDOW_MS * 10, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void send(String method, String url, JSONObject jsonBody, OneSignalRestClient.ResponseHandler responseHandler) {
+            sent.add(new SentRequest(method, url, jsonBody, responseHandler));
+            latch.countDown();
+        }
+    }
+
+    private static class RecordingHandler extends OneSignalRestClient.ResponseHandler {
+        String success;
+        int failureStatus;
+
+        @Override
+        void onSuccess(String response) {
+            success = response;
+        }
+
+        @Override
+        void onFailure(int statusCode, String response, Throwable throwable) {
+            failureStatus = statusCode;
+        }
+    }
+
+    @Test
+    public void isBatchable_onlyPlayerUpdatesFocusAndPurchases() {
+        assertTrue(OSRequestBatcher.isBatchable("PUT", "players/abc"));
+        assertTrue(OSRequestBatcher.isBatchable("POST", "players/abc/on_focus"));
+        assertTrue(OSRequestBatcher.isBatchable("POST", "players/abc/on_purchase"));
+
+        assertFalse(OSRequestBatcher.isBatchable("POST", "players"));
+        assertFalse(OSRequestBatcher.isBatchable("POST", "players/abc/on_session"));
+        assertFalse(OSRequestBatcher.isBatchable("PUT", "players/abc/email_logout"));
+        assertFalse(OSRequestBatcher.isBatchable("PUT", "notifications/abc"));
+        assertFalse(OSRequestBatcher.isBatchable(null, "players/abc"));
+    }
+
+    @Test
+    public void playerUpdates_mergeTagsKeyByKey_laterValuesWin() throws Exception {
+        JSONObject first = new JSONObject()
+            .put("app_id", "app")
+            .put("language", "en")
+            .put("tags", new JSONObject().put("a", "1").put("b", "1"));
+        JSONObject second = new JSONObject()
+            .put("app_id", "app")
+            .put("language", "fr")
+            .put("tags", new JSONObject().put("b", "2").put("c", ""));
+        String firstText = first.toString(), secondText = second.toString();
+
+        JSONObject merged = OSRequestBatcher.merge(PLAYER_URL, first, second);
+
+        assertEquals("fr", merged.getString("language"));
+        JSONObject tags = merged.getJSONObject("tags");
+        assertEquals(3, tags.length());
+        assertEquals("1", tags.getString("a"));
+        assertEquals("2", tags.getString("b"));
+        // An empty value deletes the tag, so it must still be sent
+        assertEquals("", tags.getString("c"));
+        assertEquals(firstText, first.toString());
+        assertEquals(secondText, second.toString());
+    }
+
+    @Test
+    public void playerUpdates_withArrayDiffsInBoth_dontMerge() throws Exception {
+        JSONObject first = new JSONObject().put("ids_a", new JSONArray().put("x"));
+        JSONObject second = new JSONObject().put("ids_a", new JSONArray().put("y"));
+
+        assertNull(OSRequestBatcher.merge(PLAYER_URL, first, second));
+        // Only in one of them is fine
+        JSONObject merged = OSRequestBatcher.merge(PLAYER_URL, new JSONObject().put("language", "en"), first);
+        assertEquals("x", merged.getJSONArray("ids_a").getString(0));
+    }
+
+    @Test
+    public void onFocus_addsUpIncrementalPings() throws Exception {
+        JSONObject first = new JSONObject().put("app_id", "app").put("state", "ping").put("type", 1).put("active_time", 30);
+        JSONObject second = new JSONObject().put("app_id", "app").put("state", "ping").put("type", 1).put("active_time", 20);
+        JSONObject third = new JSONObject(second.toString()).put("active_time", 45);
+
+        JSONObject merged = OSRequestBatcher.merge(PLAYER_URL + "/on_focus", OSRequestBatcher.merge(PLAYER_URL + "/on_focus", first, second), third);
+
+        assertEquals(95, merged.getLong("active_time"));
+        assertEquals(30, first.getLong("active_time"));
+        assertNull(OSRequestBatcher.merge(PLAYER_URL + "/on_focus", first, new JSONObject(second.toString()).put("type", 2)));
+    }
+
+    @Test
+    public void onPurchase_appendsPurchases() throws Exception {
+        JSONObject first = new JSONObject().put("app_id", "app")
+            .put("purchases", new JSONArray().put(new JSONObject().put("sku", "a")));
+        JSONObject second = new JSONObject().put("app_id", "app")
+            .put("purchases", new JSONArray().put(new JSONObject().put("sku", "b")).put(new JSONObject().put("sku", "c")));
+
+        JSONObject merged = OSRequestBatcher.merge(PLAYER_URL + "/on_purchase", first, second);
+
+        JSONArray purchases = merged.getJSONArray("purchases");
+        assertEquals(3, purchases.length());
+        assertEquals("a", purchases.getJSONObject(0).getString("sku"));
+        assertEquals("c", purchases.getJSONObject(2).getString("sku"));
+        assertEquals(1, first.getJSONArray("purchases").length());
+        // Restored purchases are sent on their own
+        assertNull(OSRequestBatcher.merge(PLAYER_URL + "/on_purchase", first, new JSONObject(second.toString()).put("existing", true)));
+    }
+
+    @Test
+    public void addsInWindow_sendOneRequest_andEveryHandlerGetsTheResponse() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        OSRequestBatcher batcher = new OSRequestBatcher(sender);
+        sender.expect(1);
+        List<RecordingHandler> handlers = Arrays.asList(new RecordingHandler(), new RecordingHandler(), new RecordingHandler());
+
+        for (int i = 0; i < handlers.size(); i++)
+            assertTrue(batcher.add("PUT", PLAYER_URL, new JSONObject().put("tags", new JSONObject().put("tag_" + i, "v")), handlers.get(i)));
+        assertTrue(batcher.add("PUT", PLAYER_URL, new JSONObject().put("language", "de"), null));
+
+        assertTrue(sender.await());
+        Thread.sleep(OSRequestBatcher.BATCH_WINDOW_MS);
+        assertEquals(1, sender.sent.size());
+        SentRequest request = sender.sent.get(0);
+        assertEquals("PUT", request.method);
+        assertEquals(PLAYER_URL, request.url);
+        assertEquals(3, request.jsonBody.getJSONObject("tags").length());
+        assertEquals("de", request.jsonBody.getString("language"));
+
+        request.responseHandler.onSuccess("{\"success\":true}");
+        for (RecordingHandler handler : handlers)
+            assertEquals("{\"success\":true}", handler.success);
+        request.responseHandler.onFailure(500, null, null);
+        for (RecordingHandler handler : handlers)
+            assertEquals(500, handler.failureStatus);
+    }
+
+    @Test
+    public void unmergeableAdd_sendsPendingBatchRightAway() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        OSRequestBatcher batcher = new OSRequestBatcher(sender);
+        sender.expect(1);
+
+        batcher.add("PUT", PLAYER_URL, new JSONObject().put("ids_a", new JSONArray().put("x")), null);
+        batcher.add("PUT", PLAYER_URL, new JSONObject().put("ids_a", new JSONArray().put("y")), null);
+        batcher.add("PUT", PLAYER_URL, new JSONObject().put("language", "en"), null);
+
+        // The first is sent without waiting for the window, the third joins the second
+        assertEquals(1, sender.sent.size());
+        assertEquals("x", sender.sent.get(0).jsonBody.getJSONArray("ids_a").getString(0));
+
+        sender.expect(1);
+        assertTrue(sender.await());
+        assertEquals(2, sender.sent.size());
+        JSONObject second = sender.sent.get(1).jsonBody;
+        assertEquals("y", second.getJSONArray("ids_a").getString(0));
+        assertEquals("en", second.getString("language"));
+    }
+
+    @Test
+    public void otherPlayersAndNonBatchableRequests_arentMerged() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        OSRequestBatcher batcher = new OSRequestBatcher(sender);
+        sender.expect(2);
+
+        assertFalse(batcher.add("POST", "players", new JSONObject(), null));
+        assertFalse(batcher.add("PUT", PLAYER_URL, null, null));
+        assertTrue(batcher.add("PUT", "players/player_1", new JSONObject().put("language", "en"), null));
+        assertTrue(batcher.add("PUT", "players/player_2", new JSONObject().put("language", "en"), null));
+
+        assertTrue(sender.await());
+        assertEquals(2, sender.sent.size());
+    }
+
+    @Test
+    public void restClientPuts_reachServerAsOneRequest() throws Exception {
+        StubServer server = new StubServer().install();
+        try {
+            final CountDownLatch done = new CountDownLatch(3);
+            OneSignalRestClient.ResponseHandler handler = new OneSignalRestClient.ResponseHandler() {
+                @Override
+                void onSuccess(String response) {
+                    done.countDown();
+                }
+            };
+            for (int i = 0; i < 3; i++)
+                OneSignalRestClient.put(PLAYER_URL, new JSONObject().put("tags", new JSONObject().put("tag_" + i, "v")), handler);
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(1, server.count("PUT", PLAYER_URL));
+            assertEquals(3, new JSONObject(server.getRequests().get(0).body).getJSONObject("tags").length());
+        } finally {
+            server.stop();
+        }
+    }
+}
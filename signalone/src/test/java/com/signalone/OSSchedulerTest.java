@@ -0,0 +1,270 @@
+package com.signalone;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OSSchedulerTest {
+
+    private static final long SYNC_DELAY_MS = 300;
+
+    private static Runnable await(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void blockedNetworkTasks_dontHoldBackLocalTasks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch networkStarted = new CountDownLatch(8);
+        // Twice what the network pool can run at once
+        assertEquals(4, OSScheduler.MAX_NETWORK_THREADS);
+        for (int i = 0; i < 8; i++)
+            OSScheduler.executeNetwork("test_network_" + i, await(networkStarted, release));
+
+        final CountDownLatch localRan = new CountDownLatch(1);
+        OSScheduler.execute("test_local", new Runnable() {
+            @Override
+            public void run() {
+                localRan.countDown();
+            }
+        });
+
+        try {
+            assertTrue(localRan.await(2, TimeUnit.SECONDS));
+            assertFalse("network pool should be full", networkStarted.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            release.countDown();
+        }
+        assertTrue(networkStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void threadCount_staysBounded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(40);
+        for (int i = 0; i < 20; i++) {
+            OSScheduler.execute("test_local_" + i, await(started, release));
+            OSScheduler.executeNetwork("test_network_" + i, await(started, release));
+        }
+
+        Thread.sleep(200);
+        int threadCount = OSScheduler.getThreadCount();
+        release.countDown();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        System.out.println("OSScheduler threads with 40 blocking tasks queued: " + threadCount);
+        assertTrue(threadCount <= OSScheduler.MAX_THREADS + OSScheduler.MAX_NETWORK_THREADS);
+    }
+
+    @Test
+    public void taskPassedToExecute_runsOnThreadNamedAfterIt() throws Exception {
+        final String[] name = new String[1];
+        final CountDownLatch ran = new CountDownLatch(1);
+        OSScheduler.execute("test_named_task", new Runnable() {
+            @Override
+            public void run() {
+                name[0] = Thread.currentThread().getName();
+                ran.countDown();
+            }
+        });
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        assertEquals("test_named_task", name[0]);
+    }
+
+    @Test
+    public void singleTask_scheduleReplacesPendingRun() throws Exception {
+        OSScheduler.SingleTask task = new OSScheduler.SingleTask("test_single", false);
+        final AtomicInteger firstRuns = new AtomicInteger();
+        final CountDownLatch secondRan = new CountDownLatch(1);
+
+        task.schedule(new Runnable() {
+            @Override
+            public void run() {
+                firstRuns.incrementAndGet();
+            }
+        }, 200);
+        assertTrue(task.isScheduled());
+        task.schedule(new Runnable() {
+            @Override
+            public void run() {
+                secondRan.countDown();
+            }
+        }, 0);
+
+        assertTrue(secondRan.await(2, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertEquals(0, firstRuns.get());
+        assertFalse(task.isScheduled());
+    }
+
+    @Test
+    public void singleTask_dueWhileRunning_runsAgainAfterOnSameThread() throws Exception {
+        final OSScheduler.SingleTask task = new OSScheduler.SingleTask("test_single_rerun", true);
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final CountDownLatch secondRan = new CountDownLatch(1);
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        task.schedule(new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread());
+                firstStarted.countDown();
+                try {
+                    releaseFirst.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 0);
+        assertTrue(firstStarted.await(2, TimeUnit.SECONDS));
+        assertFalse(task.isScheduled());
+
+        task.schedule(new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread());
+                secondRan.countDown();
+            }
+        }, 0);
+
+        // Becomes due while the first run is still going, it is only marked
+        Thread.sleep(200);
+        assertTrue(task.isScheduled());
+        assertEquals(1, threads.size());
+
+        releaseFirst.countDown();
+        assertTrue(secondRan.await(2, TimeUnit.SECONDS));
+        assertEquals(2, threads.size());
+        assertSame(threads.get(0), threads.get(1));
+        assertFalse(task.isScheduled());
+    }
+
+    @Test
+    public void singleTask_cancel_stopsPendingRun() throws Exception {
+        OSScheduler.SingleTask task = new OSScheduler.SingleTask("test_single_cancel", false);
+        final AtomicInteger runs = new AtomicInteger();
+        task.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 100);
+        task.cancel();
+
+        Thread.sleep(300);
+        assertEquals(0, runs.get());
+        assertFalse(task.isScheduled());
+    }
+
+    private static Runnable sleep(final long ms) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(ms);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    // A player update against a server that takes delayMs to answer, as the push and email syncs make
+    private static Runnable slowSync(final String playerId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OneSignalRestClient.putSync("players/" + playerId + "/parallel_sync", new JSONObject().put("app_id", "parallel_app"), null);
+                } catch (JSONException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void runNetworkInParallel_takesAsLongAsTheSlowerSync() throws Exception {
+        StubServer server = new StubServer().install().respondSlowly("PUT", "/parallel_sync", SYNC_DELAY_MS);
+        try {
+            // Opens a connection outside of the timing, the route without a delay answers right away
+            OneSignalRestClient.putSync("players/parallel_warm_up", new JSONObject(), null);
+
+            long start = System.nanoTime();
+            OSScheduler.runNetworkInParallel("test_parallel", slowSync("parallel_email"), slowSync("parallel_push"));
+            long parallelMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            slowSync("serial_push").run();
+            slowSync("serial_email").run();
+            long serialMs = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.println("Two syncs with a " + SYNC_DELAY_MS + "ms server: " + parallelMs + "ms in parallel, " + serialMs + "ms one after the other");
+            assertEquals(4, server.count("PUT", "/parallel_sync"));
+            assertEquals(2, server.getMaxRunning());
+            assertTrue(parallelMs < SYNC_DELAY_MS * 2);
+            assertTrue(serialMs >= SYNC_DELAY_MS * 2);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void runNetworkInParallel_runsBackgroundOnce() {
+        final AtomicInteger backgroundRuns = new AtomicInteger();
+        OSScheduler.runNetworkInParallel("test_parallel_once", new Runnable() {
+            @Override
+            public void run() {
+                backgroundRuns.incrementAndGet();
+                sleep(100).run();
+            }
+        }, sleep(100));
+
+        assertEquals(1, backgroundRuns.get());
+    }
+
+    @Test
+    public void runNetworkInParallel_withFullPool_runsBackgroundOnCallingThread() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(OSScheduler.MAX_NETWORK_THREADS);
+        for (int i = 0; i < OSScheduler.MAX_NETWORK_THREADS; i++)
+            OSScheduler.executeNetwork("test_fill_" + i, await(started, release));
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+
+        final Thread caller = Thread.currentThread();
+        final Thread[] backgroundThread = new Thread[1];
+        try {
+            OSScheduler.runNetworkInParallel("test_parallel_full", new Runnable() {
+                @Override
+                public void run() {
+                    backgroundThread[0] = Thread.currentThread();
+                }
+            }, sleep(50));
+        } finally {
+            release.countDown();
+        }
+
+        assertSame(caller, backgroundThread[0]);
+    }
+}
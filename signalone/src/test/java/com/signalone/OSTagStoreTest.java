@@ -0,0 +1,55 @@
+package com.signalone;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OSTagStoreTest {
+
+    @Test
+    public void notLoaded_readsReturnNothing() {
+        OSTagStore store = new OSTagStore();
+        assertFalse(store.isLoaded());
+        assertNull(store.get("key"));
+        assertTrue(store.getSnapshot().isEmpty());
+    }
+
+    @Test
+    public void update_leavesOutPendingDeletes() throws Exception {
+        OSTagStore store = new OSTagStore();
+        store.update(new JSONObject().put("level", "5").put("removed", ""));
+
+        assertTrue(store.isLoaded());
+        assertEquals("5", store.get("level"));
+        assertNull(store.get("removed"));
+        assertEquals(1, store.getSnapshot().size());
+    }
+
+    @Test
+    public void snapshot_doesntChangeAfterUpdate() throws Exception {
+        OSTagStore store = new OSTagStore();
+        store.update(new JSONObject().put("level", "5"));
+        Map<String, String> snapshot = store.getSnapshot();
+
+        store.update(new JSONObject().put("level", "6"));
+
+        assertEquals("5", snapshot.get("level"));
+        assertEquals("6", store.get("level"));
+        try {
+            snapshot.put("level", "7");
+            fail("snapshot should be unmodifiable");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void update_withNoTags_isLoadedAndEmpty() {
+        OSTagStore store = new OSTagStore();
+        store.update(null);
+        assertTrue(store.isLoaded());
+        assertTrue(store.getSnapshot().isEmpty());
+    }
+}
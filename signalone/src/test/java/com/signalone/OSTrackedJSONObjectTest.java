@@ -0,0 +1,196 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class OSTrackedJSONObjectTest {
+
+    private static final int RANDOM_ROUNDS = 2_000;
+    private static final String[] KEYS = { "language", "timezone", "sdk", "external_user_id", "email" };
+    private static final String[] TAG_KEYS = { "level", "coins", "team" };
+    // Each key keeps one type, generateJsonDiff can't compare an Integer to a String
+    private static final Object[][] VALUES = { { "en", "fr", "" }, { 0, 3_600, -7_200 }, { "031000", "031001" }, { "a", "b", "" }, { "x@y.z", "" } };
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+    }
+
+    @After
+    public void tearDown() {
+        SignalOnePrefs.flushNow();
+        SignalOne.appContext = null;
+    }
+
+    // The current state as after a sync, and the state to sync with nothing changed yet
+    private static UserState[] syncedStates() throws Exception {
+        UserState current = new UserStatePush("TRACKED_TEST_CURRENT", false);
+        current.syncValues.put("app_id", "tracked_app");
+        current.syncValues.put("language", "en");
+        current.syncValues.put("tags", new JSONObject().put("level", "1"));
+        UserState toSync = current.deepClone("TRACKED_TEST_TO_SYNC");
+        // Nothing differs yet, the first compare clears the keys loaded with the state
+        assertNull(current.generateJsonDiff(toSync, false));
+        return new UserState[] { current, toSync };
+    }
+
+    @Test
+    public void markClean_withVersionFromBeforeAChange_keepsKeyDirty() throws Exception {
+        OSTrackedJSONObject json = new OSTrackedJSONObject();
+        json.put("language", "en");
+        Map<String, Long> versions = json.getDirtyKeys();
+
+        // Changed while a sync with the versions read above is in flight
+        json.put("language", "fr");
+        json.markClean("language", versions.get("language"));
+        assertTrue(json.getDirtyKeys().containsKey("language"));
+
+        json.markClean("language", json.getDirtyKeys().get("language"));
+        assertFalse(json.getDirtyKeys().containsKey("language"));
+    }
+
+    @Test
+    public void putOfAnEqualValue_isntDirty_butNestedValuesAlwaysAre() throws Exception {
+        OSTrackedJSONObject json = new OSTrackedJSONObject();
+        JSONObject tags = new JSONObject().put("level", "1");
+        json.put("language", "en");
+        json.put("tags", tags);
+        for (Map.Entry<String, Long> entry : json.getDirtyKeys().entrySet())
+            json.markClean(entry.getKey(), entry.getValue());
+
+        json.put("language", "en");
+        assertTrue(json.getDirtyKeys().isEmpty());
+
+        // The same object, changed in place before being put back
+        tags.put("level", "2");
+        json.put("tags", tags);
+        assertTrue(json.getDirtyKeys().containsKey("tags"));
+
+        json.remove("language");
+        json.remove("missing");
+        assertEquals(2, json.getDirtyKeys().size());
+    }
+
+    @Test
+    public void keyChangedDuringSync_isSentOnTheNextOne() throws Exception {
+        UserState[] states = syncedStates();
+        UserState current = states[0], toSync = states[1];
+
+        toSync.set("language", "fr");
+        JSONObject sent = current.generateJsonDiff(toSync, false);
+        assertEquals("fr", sent.getString("language"));
+
+        // Changed back while the request is in flight, then the request succeeds
+        toSync.set("language", "en");
+        current.persistStateAfterSync(null, sent);
+
+        JSONObject next = current.generateJsonDiff(toSync, false);
+        assertNotNull(next);
+        assertEquals("en", next.getString("language"));
+
+        current.persistStateAfterSync(null, next);
+        assertNull(current.generateJsonDiff(toSync, false));
+    }
+
+    @Test
+    public void nestedTagChange_isFound() throws Exception {
+        UserState[] states = syncedStates();
+        UserState current = states[0], toSync = states[1];
+
+        // As sendTags does, diffed into syncValues in place
+        JSONUtils.generateJsonDiff(toSync.syncValues, new JSONObject().put("tags", new JSONObject().put("coins", "5")), toSync.syncValues, null);
+
+        JSONObject sent = current.generateJsonDiff(toSync, false);
+        assertEquals("5", sent.getJSONObject("tags").getString("coins"));
+        assertFalse(sent.getJSONObject("tags").has("level"));
+
+        current.persistStateAfterSync(null, sent);
+        assertNull(current.generateJsonDiff(toSync, false));
+
+        // Changing a tag object held by toSync and putting it back
+        JSONObject tags = toSync.syncValues.getJSONObject("tags");
+        tags.put("level", "2");
+        toSync.set("tags", tags);
+        assertEquals("2", current.generateJsonDiff(toSync, false).getJSONObject("tags").getString("level"));
+    }
+
+    private static void randomChange(Random random, UserState tracked, UserState untracked) throws Exception {
+        int op = random.nextInt(3);
+        if (op == 0) {
+            int key = random.nextInt(KEYS.length);
+            Object value = VALUES[key][random.nextInt(VALUES[key].length)];
+            tracked.set(KEYS[key], value);
+            untracked.set(KEYS[key], value);
+        }
+        else if (op == 1) {
+            String key = KEYS[random.nextInt(KEYS.length)];
+            tracked.syncValues.remove(key);
+            untracked.syncValues.remove(key);
+        }
+        else {
+            JSONObject tags = new JSONObject().put(TAG_KEYS[random.nextInt(TAG_KEYS.length)], String.valueOf(random.nextInt(3)));
+            JSONUtils.generateJsonDiff(tracked.syncValues, new JSONObject().put("tags", tags), tracked.syncValues, null);
+            JSONUtils.generateJsonDiff(untracked.syncValues, new JSONObject().put("tags", new JSONObject(tags.toString())), untracked.syncValues, null);
+        }
+    }
+
+    // Key order of JSONObject isn't defined, so compare with keys sorted
+    private static Object canonical(Object value) throws Exception {
+        if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject)value;
+            TreeMap<String, Object> sorted = new TreeMap<>();
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                sorted.put(key, canonical(json.get(key)));
+            }
+            return sorted.toString();
+        }
+        if (value instanceof JSONArray)
+            return value.toString();
+        return String.valueOf(value);
+    }
+
+    @Test
+    public void trackedDiff_matchesFullCompare() throws Exception {
+        Random random = new Random(18);
+        UserState[] trackedStates = syncedStates();
+        UserState[] untrackedStates = syncedStates();
+        // Plain JSONObjects aren't tracked, so every key is compared like before
+        for (UserState state : untrackedStates)
+            state.syncValues = new JSONObject(state.syncValues.toString());
+
+        int sent = 0;
+        for (int round = 0; round < RANDOM_ROUNDS; round++) {
+            for (int i = random.nextInt(3); i >= 0; i--)
+                randomChange(random, trackedStates[1], untrackedStates[1]);
+
+            JSONObject trackedDiff = trackedStates[0].generateJsonDiff(trackedStates[1], false);
+            JSONObject fullDiff = untrackedStates[0].generateJsonDiff(untrackedStates[1], false);
+            assertEquals("round " + round, canonical(fullDiff), canonical(trackedDiff));
+            if (trackedDiff == null)
+                continue;
+
+            // Sometimes changed again while in flight
+            if (random.nextBoolean())
+                randomChange(random, trackedStates[1], untrackedStates[1]);
+            // Sometimes the request fails and the same changes are compared again
+            if (random.nextInt(4) > 0) {
+                trackedStates[0].persistStateAfterSync(null, trackedDiff);
+                untrackedStates[0].persistStateAfterSync(null, fullDiff);
+                sent++;
+            }
+        }
+        assertTrue(sent > RANDOM_ROUNDS / 4);
+    }
+}
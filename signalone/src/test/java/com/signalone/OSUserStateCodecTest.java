@@ -0,0 +1,144 @@
+package com.signalone;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class OSUserStateCodecTest {
+
+    private static final int TAG_COUNT = 200;
+    private static final int ITERATIONS = 1_000;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+    }
+
+    @After
+    public void tearDown() {
+        SignalOnePrefs.flushNow();
+        SignalOne.appContext = null;
+    }
+
+    private static JSONObject tags(int count) throws Exception {
+        JSONObject tags = new JSONObject();
+        for (int i = 0; i < count; i++)
+            tags.put("tag_key_" + i, "tag_value_" + i);
+        return tags;
+    }
+
+    // Same values and the same value classes, JSONObject.equals is identity
+    private static void assertSameJson(Object expected, Object actual) throws Exception {
+        if (expected instanceof JSONObject) {
+            assertTrue(actual instanceof JSONObject);
+            JSONObject expectedObject = (JSONObject)expected, actualObject = (JSONObject)actual;
+            assertEquals(expectedObject.length(), actualObject.length());
+            Iterator<String> keys = expectedObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                assertTrue(key, actualObject.has(key));
+                assertSameJson(expectedObject.get(key), actualObject.get(key));
+            }
+        }
+        else if (expected instanceof JSONArray) {
+            assertTrue(actual instanceof JSONArray);
+            JSONArray expectedArray = (JSONArray)expected, actualArray = (JSONArray)actual;
+            assertEquals(expectedArray.length(), actualArray.length());
+            for (int i = 0; i < expectedArray.length(); i++)
+                assertSameJson(expectedArray.get(i), actualArray.get(i));
+        }
+        else {
+            assertEquals(expected, actual);
+            assertEquals(expected.getClass(), actual.getClass());
+        }
+    }
+
+    @Test
+    public void encodeDecode_keepsValuesAndTheirTypes() throws Exception {
+        JSONObject dependValues = new JSONObject()
+            .put("subscribableStatus", 1)
+            .put("userSubscribePref", false)
+            .put("loc_time_stamp", 1_500_000_000_000L)
+            .put("lat", 37.7749)
+            .put("email_auth_hash", JSONObject.NULL)
+            .put("ids", new JSONArray().put("a").put(2).put(new JSONObject().put("nested", true)));
+        JSONObject syncValues = new JSONObject()
+            .put("identifier", "token_\u00e9\u4e2d\ud83d\ude00")
+            .put("tags", tags(TAG_COUNT))
+            .put("empty", new JSONObject());
+
+        JSONObject[] decoded = OSUserStateCodec.decode(OSUserStateCodec.encode(dependValues, syncValues));
+
+        assertNotNull(decoded);
+        assertSameJson(dependValues, decoded[0]);
+        assertSameJson(syncValues, decoded[1]);
+    }
+
+    @Test
+    public void unknownVersionOrTruncatedData_decodesToNull() throws Exception {
+        byte[] encoded = OSUserStateCodec.encode(new JSONObject().put("a", 1), new JSONObject().put("tags", tags(3)));
+
+        byte[] newerVersion = encoded.clone();
+        newerVersion[0]++;
+        assertNull(OSUserStateCodec.decode(newerVersion));
+        assertNull(OSUserStateCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertNull(OSUserStateCodec.decode(new byte[0]));
+    }
+
+    @Test
+    public void persistState_loadsBackFromStore() throws Exception {
+        UserStatePush state = new UserStatePush("CODEC_TEST", false);
+        state.dependValues.put("subscribableStatus", 1).put("loc_time_stamp", 1_500_000_000_000L);
+        state.syncValues.put("identifier", "codec_token").put("tags", tags(TAG_COUNT));
+        state.persistState();
+        SignalOnePrefs.flushNow();
+
+        UserStatePush loaded = new UserStatePush("CODEC_TEST", true);
+        assertSameJson(state.dependValues, loaded.dependValues);
+        assertSameJson(state.syncValues, loaded.syncValues);
+    }
+
+    // Compared with the JSON text form persistState and deepClone used before
+    @Test
+    public void persistStateAndDeepClone_200Tags() throws Exception {
+        UserStatePush state = new UserStatePush("CODEC_BENCHMARK", false);
+        state.dependValues.put("subscribableStatus", 1).put("userSubscribePref", true);
+        state.syncValues.put("identifier", "benchmark_token").put("tags", tags(TAG_COUNT));
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            state.persistState();
+            state.deepClone("CODEC_BENCHMARK_CLONE");
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            state.persistState();
+        long persistNs = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            state.deepClone("CODEC_BENCHMARK_CLONE");
+        long cloneNs = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            String dependText = state.dependValues.toString(), syncText = state.syncValues.toString();
+            new JSONObject(dependText);
+            new JSONObject(syncText);
+        }
+        long jsonTextNs = (System.nanoTime() - start) / ITERATIONS;
+
+        int binaryBytes = OSUserStateCodec.encode(state.dependValues, state.syncValues).length;
+        int jsonBytes = (state.dependValues.toString() + state.syncValues.toString()).getBytes("UTF-8").length;
+        System.out.println(TAG_COUNT + " tags: persistState " + persistNs / 1_000 + "us, deepClone " + cloneNs / 1_000
+            + "us, JSON text round trip " + jsonTextNs / 1_000 + "us; " + binaryBytes + " bytes binary, " + jsonBytes + " bytes JSON");
+
+        assertSameJson(state.syncValues, state.deepClone("CODEC_BENCHMARK_CLONE").syncValues);
+    }
+}
@@ -0,0 +1,314 @@
+package com.signalone;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OneSignalOutboxTest {
+
+    // Stands in for the outbox table, SQLite needs a device
+    static class MemoryStore implements OneSignalOutbox.Store {
+        static class Row {
+            final String method, url, jsonBody;
+            final long createdTime = System.currentTimeMillis() / 1_000L;
+            int attempts;
+            long nextAttemptTime;
+
+            Row(String method, String url, String jsonBody) {
+                this.method = method;
+                this.url = url;
+                this.jsonBody = jsonBody;
+            }
+        }
+
+        private final LinkedHashMap<Long, Row> rows = new LinkedHashMap<>();
+        private long nextId = 1;
+
+        @Override
+        public synchronized long insert(Context context, String method, String url, String jsonBody) {
+            rows.put(nextId, new Row(method, url, jsonBody));
+            return nextId++;
+        }
+
+        @Override
+        public synchronized ArrayList<OneSignalOutbox.OutboxRequest> next(Context context, int limit) {
+            ArrayList<OneSignalOutbox.OutboxRequest> requests = new ArrayList<>();
+            for (Long id : rows.keySet()) {
+                if (requests.size() == limit)
+                    break;
+                Row row = rows.get(id);
+                OneSignalOutbox.OutboxRequest request = new OneSignalOutbox.OutboxRequest();
+                request.id = id;
+                request.method = row.method;
+                request.url = row.url;
+                request.attempts = row.attempts;
+                request.nextAttemptTime = row.nextAttemptTime;
+                request.createdTime = row.createdTime;
+                try {
+                    request.jsonBody = new JSONObject(row.jsonBody);
+                } catch (Exception e) {}
+                requests.add(request);
+            }
+            return requests;
+        }
+
+        @Override
+        public synchronized void markAttempt(Context context, long id, int attempts, long nextAttemptTime) {
+            Row row = rows.get(id);
+            if (row != null) {
+                row.attempts = attempts;
+                row.nextAttemptTime = nextAttemptTime;
+            }
+        }
+
+        @Override
+        public synchronized void delete(Context context, long id) {
+            rows.remove(id);
+        }
+
+        @Override
+        public synchronized int count(Context context) {
+            return rows.size();
+        }
+
+        synchronized List<Row> getRows() {
+            return new ArrayList<>(rows.values());
+        }
+
+        // As if the backoff of every row ran out
+        synchronized void makeAllDue() {
+            for (Row row : rows.values())
+                row.nextAttemptTime = 0;
+        }
+    }
+
+    private TestContext context;
+    private MemoryStore store;
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new TestContext().install();
+        store = new MemoryStore();
+        OneSignalOutbox.setStore(store);
+        server = new StubServer().install();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        OneSignalOutbox.setStore(null);
+        SignalOne.appContext = null;
+    }
+
+    private static JSONObject body(int i) throws Exception {
+        return new JSONObject().put("app_id", "outbox_app").put("i", i);
+    }
+
+    private List<String> requestPaths() {
+        ArrayList<String> paths = new ArrayList<>();
+        for (StubServer.Request request : server.getRequests())
+            paths.add(request.path);
+        return paths;
+    }
+
+    @Test
+    public void savedRequests_replayInSavedOrder() throws Exception {
+        for (int i = 0; i < 3; i++)
+            assertTrue(OneSignalOutbox.savePost(context, "outbox_test/order_" + i, body(i)));
+        assertEquals(0, server.getRequests().size());
+        assertEquals(3, OneSignalOutbox.getQueueDepth());
+
+        OneSignalOutbox.flushSync(context);
+
+        assertEquals(Arrays.asList("/outbox_test/order_0", "/outbox_test/order_1", "/outbox_test/order_2"), requestPaths());
+        assertEquals(0, store.getRows().size());
+        assertEquals(0, OneSignalOutbox.getQueueDepth());
+    }
+
+    @Test
+    public void retryableFailure_keepsRowAndStopsReplay() throws Exception {
+        server.respond("POST", "outbox_test/unavailable", 503, "{}");
+        OneSignalOutbox.savePost(context, "outbox_test/unavailable", body(0));
+        OneSignalOutbox.savePost(context, "outbox_test/after", body(1));
+
+        long before = System.currentTimeMillis();
+        OneSignalOutbox.flushSync(context);
+
+        // The second waits so requests stay in order
+        assertEquals(Arrays.asList("/outbox_test/unavailable"), requestPaths());
+        List<MemoryStore.Row> rows = store.getRows();
+        assertEquals(2, rows.size());
+        assertEquals(1, rows.get(0).attempts);
+        long delayMs = rows.get(0).nextAttemptTime - before;
+        assertTrue(delayMs + "ms", delayMs >= OneSignalOutbox.BASE_RETRY_DELAY_MS / 2 && delayMs <= OneSignalOutbox.BASE_RETRY_DELAY_MS + 1_000);
+        assertEquals(0, rows.get(1).attempts);
+
+        // Not due yet, so nothing more is sent
+        OneSignalOutbox.flushSync(context);
+        assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void rejectedRequest_isDropped_andReplayGoesOn() throws Exception {
+        server.respond("POST", "outbox_test/rejected", 400, "{\"errors\":[\"bad\"]}");
+        final CountDownLatch done = new CountDownLatch(2);
+        final int[] statusCodes = new int[2];
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            OneSignalOutbox.post(i == 0 ? "outbox_test/rejected" : "outbox_test/accepted", body(i), new OneSignalRestClient.ResponseHandler() {
+                @Override
+                void onSuccess(String response) {
+                    statusCodes[index] = 200;
+                    done.countDown();
+                }
+
+                @Override
+                void onFailure(int statusCode, String response, Throwable throwable) {
+                    statusCodes[index] = statusCode;
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(400, statusCodes[0]);
+        assertEquals(200, statusCodes[1]);
+        assertEquals(0, store.getRows().size());
+    }
+
+    @Test
+    public void isRetryable_noResponseTimeoutThrottlingAndServerErrors() {
+        for (int statusCode : new int[] { -1, 0, 408, 429, 500, 502, 503 })
+            assertTrue(String.valueOf(statusCode), OneSignalOutbox.isRetryable(statusCode));
+        for (int statusCode : new int[] { 400, 401, 403, 404, 409, 410 })
+            assertFalse(String.valueOf(statusCode), OneSignalOutbox.isRetryable(statusCode));
+    }
+
+    @Test
+    public void retryDelay_doublesWithJitter_upToMax() {
+        for (int attempt = 1; attempt <= OneSignalOutbox.MAX_ATTEMPTS + 10; attempt++) {
+            long full = Math.min(OneSignalOutbox.BASE_RETRY_DELAY_MS << Math.min(attempt - 1, 20), OneSignalOutbox.MAX_RETRY_DELAY_MS);
+            long min = Long.MAX_VALUE, max = 0;
+            for (int i = 0; i < 200; i++) {
+                long delay = OneSignalOutbox.getRetryDelay(attempt);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue("attempt " + attempt + " min " + min, min >= full / 2);
+            assertTrue("attempt " + attempt + " max " + max, max <= full);
+            // Spread out, not all retrying at the same moment
+            assertTrue("attempt " + attempt, max - min > full / 10);
+        }
+    }
+
+    @Test
+    public void requestOutOfAttempts_isDropped() throws Exception {
+        server.respond("POST", "outbox_test/always_failing", 500, "{}");
+        OneSignalOutbox.savePost(context, "outbox_test/always_failing", body(0));
+        OneSignalOutbox.savePost(context, "outbox_test/next", body(1));
+        store.markAttempt(context, 1, OneSignalOutbox.MAX_ATTEMPTS - 1, 0);
+
+        OneSignalOutbox.flushSync(context);
+
+        assertEquals(Arrays.asList("/outbox_test/always_failing", "/outbox_test/next"), requestPaths());
+        assertEquals(0, store.getRows().size());
+    }
+
+    @Test
+    public void drainWhileDraining_returnsRightAway_andRunningDrainSendsTheNewRequest() throws Exception {
+        server.hold();
+        OneSignalOutbox.savePost(context, "outbox_test/first", body(0));
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                OneSignalOutbox.flushSync(context);
+            }
+        });
+        drainer.start();
+        assertTrue(server.awaitRunning(1, 5_000));
+
+        OneSignalOutbox.savePost(context, "outbox_test/second", body(1));
+        OneSignalOutbox.flushSync(context);
+
+        // Returned without sending, or waiting for the first request
+        assertEquals(1, server.getRequests().size());
+        assertTrue(drainer.isAlive());
+
+        server.release();
+        drainer.join(10_000);
+        assertEquals(Arrays.asList("/outbox_test/first", "/outbox_test/second"), requestPaths());
+        assertEquals(0, store.getRows().size());
+    }
+
+    @Test
+    public void concurrentFlushes_sendEachRequestOnce() throws Exception {
+        final int requests = 20;
+        for (int i = 0; i < requests; i++)
+            OneSignalOutbox.savePost(context, "outbox_test/concurrent_" + i, body(i));
+
+        final CountDownLatch go = new CountDownLatch(1);
+        final AtomicInteger finished = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    OneSignalOutbox.flushSync(context);
+                    finished.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        go.countDown();
+        for (Thread thread : threads)
+            thread.join(10_000);
+
+        assertEquals(threads.length, finished.get());
+        assertEquals(requests, server.getRequests().size());
+        for (int i = 0; i < requests; i++)
+            assertEquals("/outbox_test/concurrent_" + i, server.getRequests().get(i).path);
+    }
+
+    @Test
+    public void offlineOnFocusPings_replayAsOne_withTheirTotal() throws Exception {
+        String url = "players/outbox_player/on_focus";
+        long[] pings = { 30, 20, 45 };
+
+        // Nothing listening, each ping is saved and its first attempt fails
+        StubServer offline = new StubServer();
+        offline.stop();
+        OneSignalRestClient.setBaseUrl(offline.getBaseUrl());
+        for (long activeTime : pings) {
+            assertTrue(OneSignalOutbox.savePost(context, url, new JSONObject().put("app_id", "outbox_app").put("type", 1).put("state", "ping").put("active_time", activeTime)));
+            OneSignalOutbox.flushSync(context);
+        }
+        assertEquals(pings.length, store.getRows().size());
+
+        server.install();
+        store.makeAllDue();
+        OneSignalOutbox.flushSync(context);
+
+        assertEquals(1, server.count("POST", url));
+        assertEquals(95, new JSONObject(server.getRequests().get(0).body).getLong("active_time"));
+        assertEquals(0, store.getRows().size());
+    }
+}
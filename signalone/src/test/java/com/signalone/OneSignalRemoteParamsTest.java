@@ -0,0 +1,120 @@
+package com.signalone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class OneSignalRemoteParamsTest {
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+        server = new StubServer().install();
+        SignalOne.saveUserId(null);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        OneSignalRemoteParams.setMinWaitBetweenRetries(0);
+        SignalOne.saveUserId(null);
+        SignalOne.appId = null;
+        SignalOne.appContext = null;
+    }
+
+    // GETs of the same URL share a response for a few seconds, so each test uses its own app id
+    private static OneSignalRemoteParams.Params request(String appId) throws InterruptedException {
+        SignalOne.appId = appId;
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final AtomicReference<OneSignalRemoteParams.Params> result = new AtomicReference<>();
+        OneSignalRemoteParams.makeAndroidParamsRequest(new OneSignalRemoteParams.CallBack() {
+            @Override
+            public void complete(OneSignalRemoteParams.Params params) {
+                result.set(params);
+                loaded.countDown();
+            }
+        });
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void booleans_areReadLikeOptBoolean() throws Exception {
+        server.respond("GET", "params_strings/android_params.js", 200,
+            "{\"enterp\":\"true\",\"use_email_auth\":\"TRUE\",\"fba\":\"false\",\"restore_ttl_filter\":\"False\",\"android_sender_id\":123}");
+        server.respond("GET", "params_numbers/android_params.js", 200,
+            "{\"enterp\":1,\"use_email_auth\":0,\"fba\":\"yes\",\"restore_ttl_filter\":0}");
+
+        OneSignalRemoteParams.Params params = request("params_strings");
+        assertTrue(params.enterprise);
+        assertTrue(params.useEmailAuth);
+        assertFalse(params.firebaseAnalytics);
+        assertFalse(params.restoreTTLFilter);
+        assertEquals("123", params.googleProjectNumber);
+
+        // Numbers and other strings aren't booleans, each key keeps its default
+        params = request("params_numbers");
+        assertFalse(params.enterprise);
+        assertFalse(params.useEmailAuth);
+        assertFalse(params.firebaseAnalytics);
+        assertTrue(params.restoreTTLFilter);
+        assertNull(params.googleProjectNumber);
+    }
+
+    @Test
+    public void unknownAndNestedFields_areSkipped() throws Exception {
+        server.respond("GET", "params_nested/android_params.js", 200,
+            "{\"awl_list\":{\"a\":{\"b\":[1,{\"c\":null}],\"enterp\":false}},"
+            + "\"unknown\":[[1,2],[\"fba\",true]],"
+            + "\"outcomes\":{\"direct\":{\"enabled\":true},\"indirect\":{\"notification_attribution\":{\"minutes_since_displayed\":60}}},"
+            + "\"chnl_lst\":[{\"id\":\"channel\",\"dscr\":{\"en\":\"x\"},\"grp\":null}],"
+            + "\"fba\":null,"
+            + "\"enterp\":true,"
+            + "\"android_sender_id\":\"456\","
+            + "\"trailing\":\"after\"}");
+
+        OneSignalRemoteParams.Params params = request("params_nested");
+        assertTrue(params.enterprise);
+        assertFalse(params.firebaseAnalytics);
+        assertEquals("456", params.googleProjectNumber);
+        assertEquals(1, params.notificationChannels.length());
+        assertEquals("channel", params.notificationChannels.getJSONObject(0).getString("id"));
+        assertEquals("x", params.notificationChannels.getJSONObject(0).getJSONObject("dscr").getString("en"));
+    }
+
+    @Test
+    public void notModified_isParsedFromTheCachedBody() throws Exception {
+        server.respondWithETag("GET", "params_cached/android_params.js", "{\"enterp\":true,\"android_sender_id\":\"789\"}", "\"params_etag\"");
+        assertTrue(request("params_cached").enterprise);
+        assertEquals("\"params_etag\"", OSHttpCache.getETag(OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS));
+
+        // A player id makes it a new URL, so the request is sent with the ETag instead of sharing the last response
+        SignalOne.saveUserId("params_cached_player");
+        OneSignalRemoteParams.Params params = request("params_cached");
+
+        assertEquals(2, server.count("GET", "params_cached/android_params.js"));
+        assertTrue(params.enterprise);
+        assertEquals("789", params.googleProjectNumber);
+    }
+
+    @Test
+    public void unparsableBody_isRetried_andNotCached() throws Exception {
+        OneSignalRemoteParams.setMinWaitBetweenRetries(50);
+        server.respondWithETag("GET", "params_retry/android_params.js", "{\"enterp\":true}", "\"good_etag\"");
+        server.respondOnce("GET", "params_retry/android_params.js", 200, "{\"enterp\":tru");
+
+        OneSignalRemoteParams.Params params = request("params_retry");
+
+        assertEquals(2, server.count("GET", "params_retry/android_params.js"));
+        assertTrue(params.enterprise);
+        assertEquals("\"good_etag\"", OSHttpCache.getETag(OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS));
+    }
+}
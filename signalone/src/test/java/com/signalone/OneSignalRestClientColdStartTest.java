@@ -0,0 +1,98 @@
+package com.signalone;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times a cold start's android_params.js and player create while a backlog of slow background
+ * requests from the last session is already queued, as when outbox requests are retried on launch.
+ */
+public class OneSignalRestClientColdStartTest {
+
+    private static final String APP_ID = "cold_start_app";
+    private static final String PLAYER_ID = "cold_start_player";
+    private static final int BACKGROUND_COUNT = 40;
+    private static final long BACKGROUND_MS = 300;
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+        server = new StubServer().install()
+            .respond("POST", "/players", 200, "{\"success\":true,\"id\":\"" + PLAYER_ID + "\"}")
+            .respond("GET", "/android_params.js", 200, "{\"awl_list\":{},\"android_sender_id\":\"123\",\"enterp\":false,\"use_email_auth\":false}")
+            .respondSlowly("PUT", "/background", BACKGROUND_MS);
+        SignalOne.appId = APP_ID;
+        SignalOne.saveUserId(null);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        SignalOne.saveUserId(null);
+        SignalOne.appId = null;
+        SignalOne.appContext = null;
+    }
+
+    @Test
+    public void playerCreate_isntQueuedBehindBackgroundRequests() throws Exception {
+        final CountDownLatch backgroundDone = new CountDownLatch(BACKGROUND_COUNT);
+        for (int i = 0; i < BACKGROUND_COUNT; i++) {
+            OneSignalRestClient.put("players/old_player_" + i + "/background", new JSONObject(), new OneSignalRestClient.ResponseHandler() {
+                @Override
+                void onSuccess(String response) {
+                    backgroundDone.countDown();
+                }
+
+                @Override
+                void onFailure(int statusCode, String response, Throwable throwable) {
+                    backgroundDone.countDown();
+                }
+            });
+        }
+        assertTrue(server.awaitRunning(OneSignalRestClient.Priority.BACKGROUND.maxRunning, 5_000));
+
+        long start = System.nanoTime();
+        final CountDownLatch paramsLoaded = new CountDownLatch(1);
+        OneSignalRemoteParams.makeAndroidParamsRequest(new OneSignalRemoteParams.CallBack() {
+            @Override
+            public void complete(OneSignalRemoteParams.Params params) {
+                SignalOne.remoteParams = params;
+                paramsLoaded.countDown();
+            }
+        });
+        assertTrue(paramsLoaded.await(5, TimeUnit.SECONDS));
+        long paramsMs = (System.nanoTime() - start) / 1_000_000;
+
+        UserStatePushSynchronizer synchronizer = new UserStatePushSynchronizer();
+        synchronizer.initUserState();
+        synchronizer.updateDeviceInfo(new JSONObject()
+            .put("app_id", APP_ID)
+            .put("device_type", 1)
+            .put("identifier", "cold_start_token"));
+        synchronizer.syncUserState(false);
+        long playerIdMs = (System.nanoTime() - start) / 1_000_000;
+        long backgroundLeft = backgroundDone.getCount();
+
+        assertEquals(PLAYER_ID, SignalOne.getUserId());
+        // In arrival order on the whole pool they would have waited for most of the backlog
+        long fifoWaitMs = BACKGROUND_COUNT * BACKGROUND_MS / OneSignalRestClient.NETWORK_POOL_SIZE;
+        assertTrue("Player id after " + playerIdMs + "ms", playerIdMs < BACKGROUND_MS * 2);
+        assertTrue(backgroundLeft > BACKGROUND_COUNT / 2);
+
+        assertTrue(backgroundDone.await(30, TimeUnit.SECONDS));
+        assertEquals(BACKGROUND_COUNT, server.count("PUT", "/background"));
+        assertTrue(server.getMaxRunning() <= OneSignalRestClient.NETWORK_POOL_SIZE);
+
+        System.out.println("Cold start with " + BACKGROUND_COUNT + " queued " + BACKGROUND_MS + "ms background requests: android_params "
+            + paramsMs + "ms, player id " + playerIdMs + "ms, about " + fifoWaitMs + "ms behind them in arrival order");
+    }
+}
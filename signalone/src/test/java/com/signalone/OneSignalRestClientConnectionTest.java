@@ -0,0 +1,81 @@
+package com.signalone;
+
+import android.util.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class OneSignalRestClientConnectionTest {
+
+    // Whitespace after the JSON value is left unread by the parser and has to be drained
+    private static final String BODY = "{\"key\":\"value\"}\n\n";
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+        server = new StubServer().install();
+    }
+
+    @After
+    public void tearDown() {
+        OneSignalRestClient.setConnectionIdleTimeout(OSConnectionPool.DEFAULT_IDLE_TIMEOUT_MS);
+        server.stop();
+        SignalOne.appContext = null;
+    }
+
+    private static String getParsed(String url, String cacheKey) {
+        final String[] result = new String[1];
+        OneSignalRestClient.getSync(url, new OneSignalRestClient.StreamingResponseHandler<String>() {
+            @Override
+            String parse(JsonReader reader) throws IOException {
+                reader.beginObject();
+                reader.nextName();
+                String value = reader.nextString();
+                reader.endObject();
+                return value;
+            }
+
+            @Override
+            void onParsed(String parsed) {
+                result[0] = parsed;
+            }
+        }, cacheKey);
+        return result[0];
+    }
+
+    // GETs of the same URL share a response for a few seconds, so each test uses its own
+    private void respondToGets(String appIdPrefix, int count) {
+        for (int i = 0; i < count; i++)
+            server.respondWithETag("GET", "apps/" + appIdPrefix + i + "/android_params.js", BODY, "\"etag_" + i + "\"");
+    }
+
+    @Test
+    public void cachedResponses_reuseOneConnection() {
+        respondToGets("cached_", 3);
+        for (int i = 0; i < 3; i++)
+            assertEquals("value", getParsed("apps/cached_" + i + "/android_params.js", "test_connection_" + i));
+
+        assertEquals(3, server.getRequests().size());
+        assertEquals(1, server.getConnectionCount());
+        // Cached while the response was read, not by reading it twice
+        assertEquals("\"etag_2\"", OSHttpCache.getETag("test_connection_2"));
+        assertEquals(BODY, OSHttpCache.getBody("test_connection_2"));
+    }
+
+    @Test
+    public void noIdleTimeout_closesEachConnection() {
+        OneSignalRestClient.setConnectionIdleTimeout(0);
+        respondToGets("close_", 3);
+        for (int i = 0; i < 3; i++)
+            assertEquals("value", getParsed("apps/close_" + i + "/android_params.js", "test_connection_close_" + i));
+
+        assertEquals(3, server.getConnectionCount());
+    }
+}
@@ -0,0 +1,100 @@
+package com.signalone;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OneSignalRestClientGzipTest {
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer().install();
+        OneSignalRestClient.networkMetrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        OneSignalRestClient.setGzipRequestBodies(false);
+        server.stop();
+    }
+
+    // A player update with tags, the largest body the SDK sends
+    private static JSONObject tagsBody(int tagCount) throws Exception {
+        JSONObject tags = new JSONObject();
+        for (int i = 0; i < tagCount; i++)
+            tags.put("tag_key_" + i, "tag_value_" + i);
+        return new JSONObject().put("app_id", "gzip_app").put("tags", tags);
+    }
+
+    private static OSNetworkMetrics.EndpointStats stats(String endpoint) {
+        for (OSNetworkMetrics.EndpointStats stats : OneSignalRestClient.networkMetrics.getSnapshot()) {
+            if (stats.endpoint.equals(endpoint))
+                return stats;
+        }
+        fail("No metrics for " + endpoint);
+        return null;
+    }
+
+    @Test
+    public void largeBody_withGzipOn_isSentCompressed() throws Exception {
+        OneSignalRestClient.setGzipRequestBodies(true);
+        JSONObject body = tagsBody(200);
+        int plainBytes = body.toString().getBytes("UTF-8").length;
+
+        OneSignalRestClient.putSync("gzip_test/large", body, null);
+
+        StubServer.Request request = server.getRequests().get(0);
+        assertTrue(request.gzipBody);
+        assertEquals(body.toString(), new JSONObject(request.body).toString());
+        assertTrue(request.wireBytes + " of " + plainBytes, request.wireBytes < plainBytes / 3);
+        assertEquals(request.wireBytes, stats("PUT gzip_test/large").requestBytes);
+        System.out.println("200 tag body: " + plainBytes + " bytes, " + request.wireBytes + " gzipped");
+    }
+
+    @Test
+    public void largeBody_withGzipOff_isSentAsIs() throws Exception {
+        JSONObject body = tagsBody(200);
+
+        OneSignalRestClient.putSync("gzip_test/off", body, null);
+
+        StubServer.Request request = server.getRequests().get(0);
+        assertFalse(request.gzipBody);
+        assertEquals(body.toString().getBytes("UTF-8").length, request.wireBytes);
+    }
+
+    @Test
+    public void smallBody_isSentAsIs() throws Exception {
+        OneSignalRestClient.setGzipRequestBodies(true);
+        JSONObject body = tagsBody(2);
+        assertTrue(body.toString().length() < OneSignalRestClient.GZIP_MIN_BODY_BYTES);
+
+        OneSignalRestClient.putSync("gzip_test/small", body, null);
+
+        StubServer.Request request = server.getRequests().get(0);
+        assertFalse(request.gzipBody);
+        assertEquals(body.toString().getBytes("UTF-8").length, request.wireBytes);
+    }
+
+    @Test
+    public void gzippedResponse_isDecoded_andCountedAsReceived() throws Exception {
+        final String responseBody = tagsBody(200).toString();
+        server.respondGzipped("GET", "gzip_test/response", responseBody);
+        final String[] received = new String[1];
+
+        OneSignalRestClient.getSync("gzip_test/response", new OneSignalRestClient.ResponseHandler() {
+            @Override
+            void onSuccess(String response) {
+                received[0] = response;
+            }
+        }, "test_gzip_response");
+
+        assertEquals(responseBody, received[0]);
+        long responseBytes = stats("GET gzip_test/response").responseBytes;
+        assertEquals(StubServer.gzip(responseBody.getBytes("UTF-8")).length, responseBytes);
+    }
+}
@@ -0,0 +1,253 @@
+package com.signalone;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OneSignalRestClientPoolTest {
+
+    private static final int REQUEST_COUNT = 200;
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer().install();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private static int countThreads(String namePrefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith(namePrefix))
+                count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void concurrentRequests_neverUseMoreThreadsThanThePool() throws Exception {
+        server.hold();
+        final CountDownLatch done = new CountDownLatch(REQUEST_COUNT);
+        final AtomicInteger failures = new AtomicInteger();
+        int threadsBefore = Thread.activeCount();
+
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            // android_params is in the registration lane, which may use the whole pool
+            OneSignalRestClient.get("apps/" + i + "/android_params.js", new OneSignalRestClient.ResponseHandler() {
+                @Override
+                void onSuccess(String response) {
+                    done.countDown();
+                }
+
+                @Override
+                void onFailure(int statusCode, String response, Throwable throwable) {
+                    failures.incrementAndGet();
+                    done.countDown();
+                }
+            }, "test_pool_" + i);
+        }
+
+        assertTrue(server.awaitRunning(OneSignalRestClient.NETWORK_POOL_SIZE, 5_000));
+        Thread.sleep(200);
+        assertEquals(OneSignalRestClient.NETWORK_POOL_SIZE, server.getRunningCount());
+        int peakThreads = Thread.activeCount() - threadsBefore;
+
+        server.release();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertEquals(REQUEST_COUNT, server.getRequests().size());
+        assertEquals(OneSignalRestClient.NETWORK_POOL_SIZE, server.getMaxRunning());
+
+        System.out.println(REQUEST_COUNT + " concurrent requests, " + peakThreads + " new threads at peak");
+        // Requests, callbacks and timeouts all run on OSScheduler's two pools, plus the stub server's own thread
+        assertTrue(countThreads("OS_") <= OSScheduler.MAX_THREADS + OSScheduler.MAX_NETWORK_THREADS);
+        assertTrue(OSScheduler.getThreadCount() <= OSScheduler.MAX_THREADS + OSScheduler.MAX_NETWORK_THREADS);
+        assertTrue(peakThreads <= OSScheduler.MAX_THREADS + OSScheduler.MAX_NETWORK_THREADS + 1);
+    }
+
+    @Test
+    public void syncRequest_onNetworkThread_doesntUseAnotherThread() throws Exception {
+        server.hold();
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] handlerThread = new String[1];
+        OSScheduler.executeNetwork("OS_SYNC_CALLER", new Runnable() {
+            @Override
+            public void run() {
+                OneSignalRestClient.putSync("apps/sync_caller/test", new JSONObject(), new OneSignalRestClient.ResponseHandler() {
+                    @Override
+                    void onSuccess(String response) {
+                        handlerThread[0] = Thread.currentThread().getName();
+                        done.countDown();
+                    }
+                });
+            }
+        });
+
+        assertTrue(server.awaitRunning(1, 5_000));
+        // The caller's thread makes the request itself instead of waiting on one that does
+        assertEquals(1, countThreads("OS_SYNC_CALLER"));
+        assertEquals(0, countThreads("OS_HTTPRequest"));
+
+        server.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("OS_SYNC_CALLER", handlerThread[0]);
+    }
+
+    @Test
+    public void syncCallersFillingNetworkPool_runRequestsQueuedBehindThem() throws Exception {
+        final int syncCallers = OSScheduler.MAX_NETWORK_THREADS;
+        final CountDownLatch callersStarted = new CountDownLatch(syncCallers);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(syncCallers + 2);
+        final AtomicInteger failures = new AtomicInteger();
+        final OneSignalRestClient.ResponseHandler handler = new OneSignalRestClient.ResponseHandler() {
+            @Override
+            void onSuccess(String response) {
+                done.countDown();
+            }
+
+            @Override
+            void onFailure(int statusCode, String response, Throwable throwable) {
+                failures.incrementAndGet();
+                done.countDown();
+            }
+        };
+
+        for (int i = 0; i < syncCallers; i++) {
+            final int caller = i;
+            OSScheduler.executeNetwork("OS_SYNC_CALLER", new Runnable() {
+                @Override
+                public void run() {
+                    callersStarted.countDown();
+                    try {
+                        go.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    OneSignalRestClient.putSync("apps/full_pool/sync_" + caller, new JSONObject(), handler);
+                }
+            });
+        }
+        assertTrue(callersStarted.await(5, TimeUnit.SECONDS));
+
+        // Take the whole background lane while no network thread is free to run them
+        OneSignalRestClient.put("apps/full_pool/async_0", new JSONObject(), handler);
+        OneSignalRestClient.put("apps/full_pool/async_1", new JSONObject(), handler);
+        go.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertEquals(syncCallers + 2, server.getRequests().size());
+    }
+
+    @Test
+    public void syncRequest_callsHandlerOnCallingThread() {
+        final Thread caller = Thread.currentThread();
+        final Thread[] handlerThread = new Thread[1];
+        OneSignalRestClient.putSync("players/123", new JSONObject(), new OneSignalRestClient.ResponseHandler() {
+            @Override
+            void onSuccess(String response) {
+                handlerThread[0] = Thread.currentThread();
+            }
+        });
+
+        assertSame(caller, handlerThread[0]);
+    }
+
+    @Test
+    public void concurrentGets_makeOneRequest() throws Exception {
+        final int callers = 20;
+        server.respond("GET", "players/single_flight", 200, "{\"tags\":{}}");
+        server.hold();
+        final CountDownLatch done = new CountDownLatch(callers);
+        final AtomicInteger successes = new AtomicInteger();
+
+        for (int i = 0; i < callers; i++) {
+            final boolean sync = i % 2 == 0;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    OneSignalRestClient.ResponseHandler handler = new OneSignalRestClient.ResponseHandler() {
+                        @Override
+                        void onSuccess(String response) {
+                            successes.incrementAndGet();
+                            done.countDown();
+                        }
+
+                        @Override
+                        void onFailure(int statusCode, String response, Throwable throwable) {
+                            done.countDown();
+                        }
+                    };
+                    if (sync)
+                        OneSignalRestClient.getSync("players/single_flight", handler, "test_single_flight");
+                    else
+                        OneSignalRestClient.get("players/single_flight", handler, "test_single_flight");
+                }
+            }).start();
+        }
+
+        assertTrue(server.awaitRequests(1, 5_000));
+        Thread.sleep(200);
+        server.release();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(callers, successes.get());
+        assertEquals(1, server.count("GET", "players/single_flight"));
+    }
+
+    @Test
+    public void freshResponseHandler_doesntBlockOtherGets() throws Exception {
+        OneSignalRestClient.getSync("players/fresh_a", null, "test_fresh_a");
+        final CountDownLatch inHandler = new CountDownLatch(1);
+        final CountDownLatch releaseHandler = new CountDownLatch(1);
+
+        // The second GET is answered from the fresh response on this thread and blocks in its handler
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                OneSignalRestClient.getSync("players/fresh_a", new OneSignalRestClient.ResponseHandler() {
+                    @Override
+                    void onSuccess(String response) {
+                        inHandler.countDown();
+                        try {
+                            releaseHandler.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, "test_fresh_a");
+            }
+        });
+        blocked.start();
+        assertTrue(inHandler.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch otherDone = new CountDownLatch(1);
+        OneSignalRestClient.get("players/fresh_b", new OneSignalRestClient.ResponseHandler() {
+            @Override
+            void onSuccess(String response) {
+                otherDone.countDown();
+            }
+        }, "test_fresh_b");
+
+        try {
+            assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+        } finally {
+            releaseHandler.countDown();
+            blocked.join();
+        }
+        assertEquals(1, server.count("GET", "players/fresh_a"));
+    }
+}
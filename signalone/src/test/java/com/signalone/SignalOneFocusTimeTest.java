@@ -0,0 +1,102 @@
+package com.signalone;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SignalOneFocusTimeTest {
+
+    private static final String PUSH_ID = "focus_push_player";
+    private static final String EMAIL_ID = "focus_email_player";
+
+    // Can't save pings for the email player while refusing, as when the database is locked or full
+    private static class RefusingStore extends OneSignalOutboxTest.MemoryStore {
+        volatile boolean refuseEmail;
+
+        @Override
+        public long insert(Context context, String method, String url, String jsonBody) {
+            if (refuseEmail && url.contains(EMAIL_ID))
+                return -1;
+            return super.insert(context, method, url, jsonBody);
+        }
+    }
+
+    private RefusingStore store;
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+        store = new RefusingStore();
+        OneSignalOutbox.setStore(store);
+        server = new StubServer().install();
+        SignalOne.appId = "focus_app";
+        SignalOne.saveUserId(PUSH_ID);
+        SignalOne.saveEmailId(EMAIL_ID);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        OneSignalOutbox.setStore(null);
+        SignalOne.saveEmailId("");
+        SignalOne.saveUserId(null);
+        SignalOne.appId = null;
+        SignalOne.appContext = null;
+    }
+
+    private List<Long> sentActiveTimes(String playerId) throws Exception {
+        ArrayList<Long> times = new ArrayList<>();
+        for (StubServer.Request request : server.getRequests()) {
+            if (request.path.endsWith("players/" + playerId + "/on_focus"))
+                times.add(new JSONObject(request.body).getLong("active_time"));
+        }
+        return times;
+    }
+
+    private static long sum(List<Long> times) {
+        long sum = 0;
+        for (long time : times)
+            sum += time;
+        return sum;
+    }
+
+    @Test
+    public void onePlayerNotSaved_otherPlayerIsntSentTheTimeAgain() throws Exception {
+        server.respond("POST", "players/" + EMAIL_ID + "/on_focus", 503, "{}");
+        store.refuseEmail = true;
+        SignalOne.sendOnFocus(30, true);
+
+        // Push saved and delivered, email sent directly and failed
+        assertEquals(30, sum(sentActiveTimes(PUSH_ID)));
+        assertEquals(1, sentActiveTimes(EMAIL_ID).size());
+
+        store.refuseEmail = false;
+        SignalOne.sendOnFocus(20, true);
+
+        assertEquals(50, sum(sentActiveTimes(PUSH_ID)));
+        // The email player's next ping carries the time it missed
+        List<Long> emailTimes = sentActiveTimes(EMAIL_ID);
+        assertEquals(Long.valueOf(50), emailTimes.get(emailTimes.size() - 1));
+    }
+
+    @Test
+    public void directSendSucceeds_timeIsntCarriedOver() throws Exception {
+        store.refuseEmail = true;
+        SignalOne.sendOnFocus(30, true);
+        store.refuseEmail = false;
+        SignalOne.sendOnFocus(20, true);
+
+        assertEquals(50, sum(sentActiveTimes(PUSH_ID)));
+        assertEquals(50, sum(sentActiveTimes(EMAIL_ID)));
+        assertEquals(0, store.getRows().size());
+    }
+}
@@ -0,0 +1,181 @@
+package com.signalone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SignalOnePrefsTest {
+
+    private static final int SAVE_COUNT = 10_000;
+    private static final int WRITERS = 4;
+    private static final int SAVES_PER_WRITER = 5_000;
+    private static final int KEYS_PER_WRITER = 50;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+    }
+
+    @After
+    public void tearDown() {
+        SignalOnePrefs.flushNow();
+        SignalOne.appContext = null;
+    }
+
+    @Test
+    public void saveString_10k() throws Exception {
+        String prefs = SignalOnePrefs.PREFS_PLAYER_PURCHASES;
+        // Opens the store outside of the timing
+        SignalOnePrefs.getString(prefs, "warm_up", null);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SAVE_COUNT; i++)
+            SignalOnePrefs.saveString(prefs, "save_" + (i % 100), "value_" + i);
+        long savedNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SignalOnePrefs.flushNow();
+        long flushedNs = System.nanoTime() - start;
+
+        System.out.println(SAVE_COUNT + " saveString calls: " + savedNs / 1_000 + "us, then flush: " + flushedNs / 1_000 + "us");
+
+        for (int i = 0; i < 100; i++)
+            assertEquals("value_" + (SAVE_COUNT - 100 + i), SignalOnePrefs.getString(prefs, "save_" + i, null));
+
+        OSKeyValueStore reopened = OSKeyValueStore.open(SignalOne.appContext.getFilesDir(), prefs, null);
+        assertEquals("value_" + (SAVE_COUNT - 1), reopened.get("save_99"));
+        // Saves only buffer, they must not do disk IO on the calling thread
+        assertTrue("saves took " + savedNs / 1_000_000 + "ms", savedNs < 2_000_000_000L);
+    }
+
+    // Few distinct values, so a key often gets saved again with a value equal to one a flush is writing
+    private static String writerValue(int save) {
+        return "value_" + save % 3;
+    }
+
+    @Test
+    public void concurrentWritersAndFlushes_keepEveryLastValue() throws Exception {
+        final String prefs = SignalOnePrefs.PREFS_PLAYER_PURCHASES;
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final AtomicBoolean stopFlushing = new AtomicBoolean();
+        final AtomicInteger staleReads = new AtomicInteger(), errors = new AtomicInteger();
+
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopFlushing.get())
+                    SignalOnePrefs.flushNow();
+            }
+        });
+        flusher.start();
+
+        long start = System.nanoTime();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < SAVES_PER_WRITER; i++) {
+                            String key = "w" + writer + "_" + i % KEYS_PER_WRITER;
+                            SignalOnePrefs.saveString(prefs, key, writerValue(i));
+                            SignalOnePrefs.saveInt(prefs, "shared", i);
+                            // Only this thread writes the key, so it must read back what it just saved
+                            if (!writerValue(i).equals(SignalOnePrefs.getString(prefs, key, null)))
+                                staleReads.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                        errors.incrementAndGet();
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        assertTrue(writersDone.await(30, TimeUnit.SECONDS));
+        long writtenMs = (System.nanoTime() - start) / 1_000_000;
+        stopFlushing.set(true);
+        flusher.join(10_000);
+        SignalOnePrefs.flushNow();
+        System.out.println(WRITERS + " writers x " + SAVES_PER_WRITER + " saves with a flushing thread: " + writtenMs + "ms");
+
+        assertEquals(0, errors.get());
+        assertEquals(0, staleReads.get());
+
+        OSKeyValueStore reopened = OSKeyValueStore.open(SignalOne.appContext.getFilesDir(), prefs, null);
+        for (int w = 0; w < WRITERS; w++) {
+            for (int k = 0; k < KEYS_PER_WRITER; k++) {
+                int lastSave = SAVES_PER_WRITER - KEYS_PER_WRITER + k;
+                assertEquals("w" + w + "_" + k, writerValue(lastSave), reopened.get("w" + w + "_" + k));
+            }
+        }
+        // Writers race on this one, the file must hold whichever save came last in memory
+        assertEquals(SignalOnePrefs.getInt(prefs, "shared", -1), reopened.get("shared"));
+    }
+
+    @Test
+    public void typedGetters_readOtherTypesAsDefault_beforeAndAfterFlush() throws Exception {
+        String prefs = SignalOnePrefs.PREFS_ONESIGNAL;
+        SignalOnePrefs.saveInt(prefs, "typed_int", 7);
+        SignalOnePrefs.saveBytes(prefs, "typed_bytes", new byte[] { 1, 2 });
+
+        for (int pass = 0; pass < 2; pass++) {
+            assertEquals(7, SignalOnePrefs.getInt(prefs, "typed_int", -1));
+            assertEquals(-1L, SignalOnePrefs.getLong(prefs, "typed_int", -1L));
+            assertEquals("default", SignalOnePrefs.getString(prefs, "typed_int", "default"));
+            assertTrue(SignalOnePrefs.getBool(prefs, "typed_int", true));
+            assertArrayEquals(new byte[] { 1, 2 }, SignalOnePrefs.getBytes(prefs, "typed_bytes", null));
+            assertNull(SignalOnePrefs.getBytes(prefs, "typed_int", null));
+            SignalOnePrefs.flushNow();
+        }
+    }
+
+    @Test
+    public void openingOneStore_doesntBlockReadsOfTheOther() throws Exception {
+        // Stands in for a slow load of the purchases store by holding its open lock
+        Field field = SignalOnePrefs.class.getDeclaredField("storeLocks");
+        field.setAccessible(true);
+        final Object purchasesLock = ((Map<?, ?>)field.get(null)).get(SignalOnePrefs.PREFS_PLAYER_PURCHASES);
+        final CountDownLatch locked = new CountDownLatch(1), release = new CountDownLatch(1);
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (purchasesLock) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {}
+                }
+            }
+        });
+        loader.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch read = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SignalOnePrefs.getString(SignalOnePrefs.PREFS_ONESIGNAL, "other_store", null);
+                read.countDown();
+            }
+        }).start();
+
+        try {
+            assertTrue(read.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            loader.join(5_000);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.signalone;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process HTTP server for OneSignalRestClient and synchronizer tests. Point the SDK at it with
+ * {@link #install()}, which sets the base URL and the default transport, so requests go through
+ * HttpURLConnection and a real socket the same way they do on a device.
+ * <br/><br/>
+ * Responses are matched by method and path suffix in the order they were added, anything else gets
+ * 200 with "{}". A route added with {@link #respondOnce} comes before the others and only answers once.
+ * {@link #hold()} makes every request wait until {@link #release()}, and
+ * {@link #respondSlowly} makes one route take a set time, as a slow endpoint would.
+ * {@link #getConnectionCount()} counts the TCP connections requests came in on, to check reuse.
+ * Request bodies are kept decoded, with the size they had on the wire in {@link Request#wireBytes}.
+ */
+class StubServer {
+
+    static class Request {
+        final String method, path, body;
+        final boolean gzipBody;
+        // Body bytes as sent, before gzip decoding
+        final int wireBytes;
+
+        Request(String method, String path, String body, boolean gzipBody, int wireBytes) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+            this.gzipBody = gzipBody;
+            this.wireBytes = wireBytes;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path;
+        }
+    }
+
+    private static class Route {
+        final String method, pathSuffix, body, eTag;
+        final int statusCode;
+        final boolean gzip, once;
+        final long delayMs;
+
+        Route(String method, String pathSuffix, int statusCode, String body, String eTag, boolean gzip, long delayMs, boolean once) {
+            this.method = method;
+            this.pathSuffix = pathSuffix;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.eTag = eTag;
+            this.gzip = gzip;
+            this.delayMs = delayMs;
+            this.once = once;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ArrayList<Route> routes = new ArrayList<>();
+    private final ArrayList<Request> requests = new ArrayList<>();
+    // Client address and port of each request, one per TCP connection the client opened
+    private final HashSet<String> connections = new HashSet<>();
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private int running, maxRunning;
+
+    StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                onRequest(exchange);
+            }
+        });
+        server.start();
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    StubServer install() {
+        OneSignalRestClient.setTransport(null);
+        OneSignalRestClient.setBaseUrl(getBaseUrl());
+        return this;
+    }
+
+    void stop() {
+        release();
+        OneSignalRestClient.setBaseUrl(null);
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    synchronized StubServer respond(String method, String pathSuffix, int statusCode, String body) {
+        routes.add(new Route(method, pathSuffix, statusCode, body, null, false, 0, false));
+        return this;
+    }
+
+    // Answers the next matching request ahead of the routes added so far, then is taken out
+    synchronized StubServer respondOnce(String method, String pathSuffix, int statusCode, String body) {
+        routes.add(0, new Route(method, pathSuffix, statusCode, body, null, false, 0, true));
+        return this;
+    }
+
+    // Sends the body gzipped to a request that accepts it
+    synchronized StubServer respondGzipped(String method, String pathSuffix, String body) {
+        routes.add(new Route(method, pathSuffix, 200, body, null, true, 0, false));
+        return this;
+    }
+
+    // Sends the ETag with the body, and 304 with no body to a request that has it in If-None-Match
+    synchronized StubServer respondWithETag(String method, String pathSuffix, String body, String eTag) {
+        routes.add(new Route(method, pathSuffix, 200, body, eTag, false, 0, false));
+        return this;
+    }
+
+    // Answers with "{}" after delayMs
+    synchronized StubServer respondSlowly(String method, String pathSuffix, long delayMs) {
+        routes.add(new Route(method, pathSuffix, 200, "{}", null, false, delayMs, false));
+        return this;
+    }
+
+    void hold() {
+        gate = new CountDownLatch(1);
+    }
+
+    void release() {
+        gate.countDown();
+    }
+
+    synchronized List<Request> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    synchronized int count(String method, String pathSuffix) {
+        int count = 0;
+        for (Request request : requests) {
+            if (request.method.equals(method) && request.path.endsWith(pathSuffix))
+                count++;
+        }
+        return count;
+    }
+
+    synchronized int getConnectionCount() {
+        return connections.size();
+    }
+
+    synchronized int getRunningCount() {
+        return running;
+    }
+
+    // Most requests the server was handling at the same time
+    synchronized int getMaxRunning() {
+        return maxRunning;
+    }
+
+    boolean awaitRequests(int count, long timeoutMs) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < end) {
+            if (getRequests().size() >= count)
+                return true;
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    boolean awaitRunning(int count, long timeoutMs) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < end) {
+            if (getRunningCount() >= count)
+                return true;
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    private void onRequest(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        boolean gzipBody = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        byte[] wireBody = readAll(exchange.getRequestBody());
+        InputStream bodyStream = new ByteArrayInputStream(wireBody);
+        if (gzipBody)
+            bodyStream = new GZIPInputStream(bodyStream);
+        String body = new String(readAll(bodyStream), "UTF-8");
+
+        Route route;
+        synchronized (this) {
+            requests.add(new Request(method, path, body, gzipBody, wireBody.length));
+            connections.add(exchange.getRemoteAddress().toString());
+            running++;
+            maxRunning = Math.max(maxRunning, running);
+            route = findRoute(method, path);
+        }
+
+        try {
+            gate.await(10, TimeUnit.SECONDS);
+            if (route != null && route.delayMs > 0)
+                Thread.sleep(route.delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                running--;
+            }
+        }
+
+        byte[] response = (route == null ? "{}" : route.body).getBytes("UTF-8");
+        int statusCode = route == null ? 200 : route.statusCode;
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (route != null && route.eTag != null) {
+            exchange.getResponseHeaders().set("ETag", route.eTag);
+            if (route.eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                statusCode = 304;
+                response = new byte[0];
+            }
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (route != null && route.gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            response = gzip(response);
+        }
+        exchange.sendResponseHeaders(statusCode, response.length == 0 ? -1 : response.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(response);
+        outputStream.close();
+    }
+
+    private Route findRoute(String method, String path) {
+        for (Route route : routes) {
+            if (route.method.equals(method) && path.endsWith(route.pathSuffix)) {
+                if (route.once)
+                    routes.remove(route);
+                return route;
+            }
+        }
+        return null;
+    }
+
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+        gzipOutputStream.write(bytes);
+        gzipOutputStream.close();
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4 * 1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1)
+            outputStream.write(buffer, 0, read);
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,224 @@
+package com.signalone;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Context for JVM tests, with files and cache dirs in a new temp directory and SharedPreferences kept
+ * in memory, so SignalOnePrefs, OSKeyValueStore and OSHttpCache work without a device.
+ * {@link #install()} sets it as SignalOne.appContext, and drops the stores and caches the SDK opened
+ * for an earlier context so each test starts empty.
+ */
+class TestContext extends ContextWrapper {
+
+    private final File filesDir, cacheDir;
+    private final HashMap<String, MemoryPreferences> preferences = new HashMap<>();
+
+    TestContext() throws IOException {
+        super(null);
+        File root = Files.createTempDirectory("signalone_test").toFile();
+        filesDir = new File(root, "files");
+        cacheDir = new File(root, "cache");
+        filesDir.mkdirs();
+        cacheDir.mkdirs();
+    }
+
+    TestContext install() {
+        resetStaticState();
+        SignalOne.appContext = this;
+        return this;
+    }
+
+    // The SDK opens these once per process from SignalOne.appContext and keeps them in statics
+    private static void resetStaticState() {
+        try {
+            ((Map<?, ?>)getStatic(SignalOnePrefs.class, "stores")).clear();
+            ((Set<?>)getStatic(SignalOnePrefs.class, "storeFailed")).clear();
+            SignalOnePrefs.initializePool();
+
+            Field entries = OSHttpCache.class.getDeclaredField("entries");
+            entries.setAccessible(true);
+            entries.set(null, null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object getStatic(Class<?> clazz, String name) throws ReflectiveOperationException {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.signalone.test";
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        MemoryPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            prefs = new MemoryPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    private static class MemoryPreferences implements SharedPreferences {
+        private final HashMap<String, Object> values = new HashMap<>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        private synchronized Object get(String key, Object defValue) {
+            return values.containsKey(key) ? values.get(key) : defValue;
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return (String)get(key, defValue);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return (Set<String>)get(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return (Integer)get(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return (Long)get(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return (Float)get(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return (Boolean)get(key, defValue);
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+
+        private class MemoryEditor implements Editor {
+            private final HashMap<String, Object> changes = new HashMap<>();
+            private final HashSet<String> removed = new HashSet<>();
+            private boolean clear;
+
+            private Editor put(String key, Object value) {
+                changes.put(key, value);
+                removed.remove(key);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values == null ? null : new HashSet<>(values));
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                changes.remove(key);
+                removed.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (MemoryPreferences.this) {
+                    if (clear)
+                        values.clear();
+                    for (String key : removed)
+                        values.remove(key);
+                    values.putAll(changes);
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
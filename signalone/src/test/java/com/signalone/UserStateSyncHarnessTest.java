@@ -0,0 +1,177 @@
+package com.signalone;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a push synchronizer against StubServer emulating players, on_session, on_focus and
+ * android_params.js, and prints latency and throughput of the whole sync stack.
+ * <br/><br/>
+ * The JDK's HttpURLConnection sends the headers and body of a PUT or POST in separate packets, so on
+ * loopback each one can wait out a delayed ACK of about 40ms. Compare runs with each other, not with devices.
+ */
+public class UserStateSyncHarnessTest {
+
+    private static final String APP_ID = "harness_app";
+    private static final String PLAYER_ID = "harness_player";
+    private static final int SYNC_COUNT = 200;
+
+    private StubServer server;
+    private UserStatePushSynchronizer synchronizer;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+        server = new StubServer().install()
+            .respond("POST", "/players", 200, "{\"success\":true,\"id\":\"" + PLAYER_ID + "\"}")
+            .respond("POST", "/on_session", 200, "{\"success\":true,\"id\":\"" + PLAYER_ID + "\"}")
+            .respond("POST", "/on_focus", 200, "{\"success\":true}")
+            .respond("PUT", "/players/" + PLAYER_ID, 200, "{\"success\":true,\"id\":\"" + PLAYER_ID + "\"}")
+            .respond("GET", "/android_params.js", 200, "{\"awl_list\":{},\"android_sender_id\":\"123\",\"enterp\":false,\"use_email_auth\":false}");
+        SignalOne.appId = APP_ID;
+        SignalOne.saveUserId(null);
+        loadRemoteParams();
+
+        synchronizer = new UserStatePushSynchronizer();
+        synchronizer.initUserState();
+        synchronizer.updateDeviceInfo(new JSONObject()
+            .put("app_id", APP_ID)
+            .put("device_type", 1)
+            .put("identifier", "harness_token"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        SignalOne.saveUserId(null);
+        SignalOne.appId = null;
+        SignalOne.appContext = null;
+    }
+
+    // init waits for android_params.js before registering, and the create response handling reads them
+    private static void loadRemoteParams() throws InterruptedException {
+        final CountDownLatch paramsLoaded = new CountDownLatch(1);
+        OneSignalRemoteParams.makeAndroidParamsRequest(new OneSignalRemoteParams.CallBack() {
+            @Override
+            public void complete(OneSignalRemoteParams.Params params) {
+                SignalOne.remoteParams = params;
+                paramsLoaded.countDown();
+            }
+        });
+        assertTrue(paramsLoaded.await(5, TimeUnit.SECONDS));
+    }
+
+    private static long percentile(long[] sortedNs, int percentile) {
+        return sortedNs[Math.min(sortedNs.length - 1, sortedNs.length * percentile / 100)];
+    }
+
+    @Test
+    public void create_thenOnSession() throws Exception {
+        long start = System.nanoTime();
+        synchronizer.syncUserState(false);
+        long createMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(PLAYER_ID, SignalOne.getUserId());
+        assertEquals(1, server.count("GET", "/apps/" + APP_ID + "/android_params.js"));
+        List<StubServer.Request> requests = server.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("POST", requests.get(1).method);
+        assertEquals("/players", requests.get(1).path);
+        JSONObject createBody = new JSONObject(requests.get(1).body);
+        assertEquals(APP_ID, createBody.getString("app_id"));
+        assertEquals("harness_token", createBody.getString("identifier"));
+
+        // Nothing changed, so nothing is sent
+        synchronizer.syncUserState(false);
+        assertEquals(2, server.getRequests().size());
+
+        synchronizer.setNewSession();
+        start = System.nanoTime();
+        synchronizer.syncUserState(false);
+        long onSessionMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(1, server.count("POST", "/players/" + PLAYER_ID + "/on_session"));
+        assertFalse(synchronizer.getSyncAsNewSession());
+        System.out.println("create: " + createMs + "ms, on_session: " + onSessionMs + "ms");
+    }
+
+    @Test
+    public void createResponse_unknownAndNestedFieldsAreSkipped() throws Exception {
+        server.respondOnce("POST", "/players", 200, "{\"success\":true,\"external\":{\"id\":\"nested_id\",\"ids\":[1,{\"id\":null}]},"
+            + "\"errors\":[],\"id\":\"" + PLAYER_ID + "\",\"after\":{\"a\":[[]]}}");
+
+        synchronizer.syncUserState(false);
+
+        assertEquals(PLAYER_ID, SignalOne.getUserId());
+    }
+
+    @Test
+    public void unparsableCreateResponse_isRetried() throws Exception {
+        server.respondOnce("POST", "/players", 200, "{\"success\":true,\"id\":");
+        String failuresKey = SignalOnePrefs.PREFS_OS_USERSTATE_SYNC_FAILURES_ + "push";
+
+        synchronizer.syncUserState(false);
+
+        // Not saved as synced, and counted as a failed sync so it's retried with backoff
+        assertNull(SignalOne.getUserId());
+        assertEquals(1, SignalOnePrefs.getInt(SignalOnePrefs.PREFS_ONESIGNAL, failuresKey, 0));
+
+        synchronizer.syncUserState(false);
+
+        assertEquals(PLAYER_ID, SignalOne.getUserId());
+        assertEquals(2, server.count("POST", "/players"));
+        assertEquals("harness_token", new JSONObject(server.getRequests().get(2).body).getString("identifier"));
+        assertEquals(0, SignalOnePrefs.getInt(SignalOnePrefs.PREFS_ONESIGNAL, failuresKey, 0));
+    }
+
+    @Test
+    public void unparsableOnSessionResponse_isKeptAsSent() throws Exception {
+        synchronizer.syncUserState(false);
+        server.respondOnce("POST", "/on_session", 200, "not json");
+
+        synchronizer.setNewSession();
+        synchronizer.syncUserState(false);
+
+        assertFalse(synchronizer.getSyncAsNewSession());
+        synchronizer.syncUserState(false);
+        assertEquals(1, server.count("POST", "/players/" + PLAYER_ID + "/on_session"));
+        assertEquals(PLAYER_ID, SignalOne.getUserId());
+    }
+
+    @Test
+    public void tagUpdates_throughput() throws Exception {
+        synchronizer.syncUserState(false);
+        assertEquals(PLAYER_ID, SignalOne.getUserId());
+
+        long[] syncNs = new long[SYNC_COUNT];
+        long start = System.nanoTime();
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            long syncStart = System.nanoTime();
+            synchronizer.sendTags(new JSONObject().put("tags", new JSONObject().put("tag_" + i, String.valueOf(i))), null);
+            synchronizer.syncUserState(false);
+            // The app's focus time goes out between player updates
+            if (i % 10 == 0)
+                OneSignalRestClient.postSync("players/" + PLAYER_ID + "/on_focus", new JSONObject().put("app_id", APP_ID).put("active_time", 10), null);
+            syncNs[i] = System.nanoTime() - syncStart;
+        }
+        long totalMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+        assertEquals(SYNC_COUNT, server.count("PUT", "/players/" + PLAYER_ID));
+        assertEquals(SYNC_COUNT / 10, server.count("POST", "/on_focus"));
+        JSONObject lastBody = new JSONObject(server.getRequests().get(server.getRequests().size() - 1).body);
+        assertEquals(String.valueOf(SYNC_COUNT - 1), lastBody.getJSONObject("tags").getString("tag_" + (SYNC_COUNT - 1)));
+
+        Arrays.sort(syncNs);
+        System.out.println(SYNC_COUNT + " tag syncs in " + totalMs + "ms, " + (SYNC_COUNT * 1_000 / totalMs) + "/s"
+            + ", p50 " + percentile(syncNs, 50) / 1_000 + "us, p99 " + percentile(syncNs, 99) / 1_000 + "us");
+    }
+}
@@ -0,0 +1,141 @@
+package com.signalone;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives a push synchronizer with a steady stream of tag changes, as an app updating a tag on every
+ * frame would, and checks the quiet period can't hold the sync back for longer than the max latency.
+ */
+public class UserStateSyncLatencyTest {
+
+    private static final String APP_ID = "latency_app";
+    private static final String PLAYER_ID = "latency_player";
+    private static final String PLAYER_PATH = "/players/" + PLAYER_ID;
+
+    private static final long QUIET_PERIOD_MS = 200;
+    private static final long MAX_LATENCY_MS = 1_000;
+    private static final long CHANGE_INTERVAL_MS = 50;
+    private static final long STREAM_MS = 3_500;
+    // Scheduling and the request itself on top of the window
+    private static final long SLACK_MS = 500;
+
+    private StubServer server;
+    private UserStatePushSynchronizer synchronizer;
+    private int tagCount;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+        server = new StubServer().install()
+            .respond("POST", "/players", 200, "{\"success\":true,\"id\":\"" + PLAYER_ID + "\"}")
+            .respond("PUT", PLAYER_PATH, 200, "{\"success\":true,\"id\":\"" + PLAYER_ID + "\"}")
+            .respond("GET", "/android_params.js", 200, "{\"awl_list\":{},\"android_sender_id\":\"123\",\"enterp\":false,\"use_email_auth\":false}");
+        SignalOne.appId = APP_ID;
+        SignalOne.saveUserId(null);
+        loadRemoteParams();
+
+        synchronizer = new UserStatePushSynchronizer();
+        synchronizer.initUserState();
+        synchronizer.updateDeviceInfo(new JSONObject()
+            .put("app_id", APP_ID)
+            .put("device_type", 1)
+            .put("identifier", "latency_token"));
+        synchronizer.syncUserState(false);
+        assertEquals(PLAYER_ID, SignalOne.getUserId());
+
+        UserStateSynchronizer.setSyncBatching(QUIET_PERIOD_MS, MAX_LATENCY_MS);
+        synchronizer.readyToUpdate(true);
+    }
+
+    @After
+    public void tearDown() {
+        synchronizer.readyToUpdate(false);
+        synchronizer.getNetworkHandler(UserStateSynchronizer.NetworkHandler.NETWORK_HANDLER_USERSTATE).stopScheduledRunnable();
+        UserStateSynchronizer.setSyncBatching(0, 0);
+        server.stop();
+        SignalOne.saveUserId(null);
+        SignalOne.appId = null;
+        SignalOne.appContext = null;
+    }
+
+    private static void loadRemoteParams() throws InterruptedException {
+        final CountDownLatch paramsLoaded = new CountDownLatch(1);
+        OneSignalRemoteParams.makeAndroidParamsRequest(new OneSignalRemoteParams.CallBack() {
+            @Override
+            public void complete(OneSignalRemoteParams.Params params) {
+                SignalOne.remoteParams = params;
+                paramsLoaded.countDown();
+            }
+        });
+        assertTrue(paramsLoaded.await(5, TimeUnit.SECONDS));
+    }
+
+    private void changeTag() throws Exception {
+        synchronizer.sendTags(new JSONObject().put("tags", new JSONObject().put("level", String.valueOf(tagCount++))), null);
+        synchronizer.scheduleSyncToServer();
+    }
+
+    private String lastSentLevel() throws Exception {
+        List<StubServer.Request> requests = server.getRequests();
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            StubServer.Request request = requests.get(i);
+            if (request.method.equals("PUT") && request.path.endsWith(PLAYER_PATH))
+                return new JSONObject(request.body).getJSONObject("tags").getString("level");
+        }
+        return null;
+    }
+
+    @Test
+    public void steadyChanges_areSentWithinMaxLatency() throws Exception {
+        ArrayList<Long> putTimesMs = new ArrayList<>();
+        long start = System.nanoTime();
+        long elapsedMs;
+        while ((elapsedMs = (System.nanoTime() - start) / 1_000_000) < STREAM_MS) {
+            changeTag();
+            Thread.sleep(CHANGE_INTERVAL_MS);
+            while (putTimesMs.size() < server.count("PUT", PLAYER_PATH))
+                putTimesMs.add(elapsedMs);
+        }
+        int changes = tagCount;
+
+        assertFalse("No sync while changes kept coming", putTimesMs.isEmpty());
+        assertTrue("First sync after " + putTimesMs.get(0) + "ms", putTimesMs.get(0) <= MAX_LATENCY_MS + SLACK_MS);
+        for (int i = 1; i < putTimesMs.size(); i++) {
+            long gapMs = putTimesMs.get(i) - putTimesMs.get(i - 1);
+            assertTrue("Syncs " + gapMs + "ms apart", gapMs <= MAX_LATENCY_MS + SLACK_MS);
+        }
+        // Still batched, far fewer requests than changes
+        assertTrue(putTimesMs.size() + " syncs", putTimesMs.size() <= STREAM_MS / MAX_LATENCY_MS + 2);
+
+        // The last change goes out once the stream is quiet
+        long stopped = System.nanoTime();
+        while (!String.valueOf(changes - 1).equals(lastSentLevel()) && (System.nanoTime() - stopped) / 1_000_000 < QUIET_PERIOD_MS + SLACK_MS)
+            Thread.sleep(10);
+        assertEquals(String.valueOf(changes - 1), lastSentLevel());
+
+        System.out.println(changes + " tag changes over " + STREAM_MS + "ms sent in " + server.count("PUT", PLAYER_PATH)
+            + " syncs at " + putTimesMs + "ms, max latency " + MAX_LATENCY_MS + "ms");
+    }
+
+    @Test
+    public void singleChange_waitsForQuietPeriod() throws Exception {
+        long start = System.nanoTime();
+        changeTag();
+
+        assertTrue(server.awaitRequests(server.getRequests().size() + 1, QUIET_PERIOD_MS + SLACK_MS));
+        long sentMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("0", lastSentLevel());
+        assertTrue("Sent after " + sentMs + "ms", sentMs >= QUIET_PERIOD_MS);
+    }
+}
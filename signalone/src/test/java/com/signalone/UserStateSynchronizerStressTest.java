@@ -0,0 +1,158 @@
+package com.signalone;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UserStateSynchronizerStressTest {
+
+    private static final String PLAYER_ID = "stress_player";
+    private static final int WRITERS = 4;
+    private static final int TAGS_PER_WRITER = 250;
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        new TestContext().install();
+        server = new StubServer().install();
+        SignalOne.saveUserId(PLAYER_ID);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        SignalOne.saveUserId(null);
+        SignalOne.appContext = null;
+    }
+
+    // Tag keys sent to the server so far
+    private HashSet<String> sentTagKeys() throws JSONException {
+        HashSet<String> keys = new HashSet<>();
+        for (StubServer.Request request : server.getRequests()) {
+            if (!"PUT".equals(request.method))
+                continue;
+
+            JSONObject tags = new JSONObject(request.body).optJSONObject("tags");
+            if (tags == null)
+                continue;
+
+            Iterator<String> iterator = tags.keys();
+            while (iterator.hasNext())
+                keys.add(iterator.next());
+        }
+        return keys;
+    }
+
+    private SignalOne.ChangeTagsUpdateHandler handler(final String key, final AtomicInteger successes, final AtomicInteger failures, final AtomicInteger calledEarly) {
+        return new SignalOne.ChangeTagsUpdateHandler() {
+            @Override
+            public void onSuccess(JSONObject tags) {
+                successes.incrementAndGet();
+                try {
+                    if (!sentTagKeys().contains(key))
+                        calledEarly.incrementAndGet();
+                } catch (JSONException e) {
+                    calledEarly.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onFailure(SignalOne.SendTagsError error) {
+                failures.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void sendTags_whileSyncing_neverWaitsOnTheNetwork() throws Exception {
+        final UserStatePushSynchronizer synchronizer = OneSignalStateSynchronizer.getPushStateSynchronizer();
+        synchronizer.initUserState();
+
+        final AtomicInteger successes = new AtomicInteger(), failures = new AtomicInteger(), calledEarly = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        server.hold();
+        synchronizer.sendTags(new JSONObject().put("tags", new JSONObject().put("first", "1")), handler("first", successes, failures, calledEarly));
+
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stop.get()) {
+                    try {
+                        synchronizer.syncUserState(false);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+        });
+        syncThread.start();
+        // The sync thread is now inside a PUT that the server won't answer until released
+        assertTrue(server.awaitRunning(1, 5_000));
+
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final long[] slowestSendTagsNs = new long[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < TAGS_PER_WRITER; i++) {
+                            String key = "w" + writer + "_" + i;
+                            long start = System.nanoTime();
+                            synchronizer.sendTags(new JSONObject().put("tags", new JSONObject().put(key, String.valueOf(i))), handler(key, successes, failures, calledEarly));
+                            slowestSendTagsNs[writer] = Math.max(slowestSendTagsNs[writer], System.nanoTime() - start);
+                        }
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                        errors.incrementAndGet();
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        // Every write completes while the sync is still waiting on the server
+        assertTrue(writersDone.await(10, TimeUnit.SECONDS));
+        assertEquals(1, server.getRunningCount());
+        long slowestMs = 0;
+        for (long ns : slowestSendTagsNs)
+            slowestMs = Math.max(slowestMs, ns / 1_000_000);
+        System.out.println(WRITERS * TAGS_PER_WRITER + " sendTags during a held sync, slowest " + slowestMs + "ms");
+
+        server.release();
+        stop.set(true);
+        syncThread.join(30_000);
+        // Sends whatever the last loop of the sync thread didn't
+        synchronizer.syncUserState(false);
+
+        int total = WRITERS * TAGS_PER_WRITER + 1;
+        assertEquals(0, errors.get());
+        assertEquals(0, failures.get());
+        assertEquals(total, successes.get());
+        assertEquals(0, calledEarly.get());
+
+        HashSet<String> sent = sentTagKeys();
+        assertTrue(sent.contains("first"));
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < TAGS_PER_WRITER; i++)
+                assertTrue("w" + w + "_" + i, sent.contains("w" + w + "_" + i));
+        }
+    }
+}